@@ -35,7 +35,7 @@ class DeepLinkReceivedTest {
     @Throws(Exception::class)
     fun setUp() {
         val es = shutdown()
-        es?.awaitTermination(60, TimeUnit.SECONDS)
+        es.forEach { it.awaitTermination(60, TimeUnit.SECONDS) }
     }
 
     @Test
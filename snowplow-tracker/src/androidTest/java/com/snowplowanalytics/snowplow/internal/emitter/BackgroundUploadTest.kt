@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.internal.emitter
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.snowplowanalytics.core.emitter.BackgroundUpload
+import com.snowplowanalytics.core.emitter.ConnectivityMonitor
+import com.snowplowanalytics.core.emitter.Emitter
+import com.snowplowanalytics.core.emitter.storage.SQLiteEventStore
+import com.snowplowanalytics.snowplow.emitter.DeliveryCondition
+import com.snowplowanalytics.snowplow.emitter.EventPriority
+import com.snowplowanalytics.snowplow.network.HttpMethod
+import com.snowplowanalytics.snowplow.payload.TrackerPayload
+import com.snowplowanalytics.snowplow.tracker.MockEventStore
+import com.snowplowanalytics.snowplow.tracker.MockNetworkConnection
+import mockwebserver3.MockResponse
+import mockwebserver3.MockWebServer
+import org.json.JSONObject
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.TimeUnit
+import kotlin.time.Duration.Companion.seconds
+
+@RunWith(AndroidJUnit4::class)
+class BackgroundUploadTest {
+
+    @Test
+    fun testDrainsEventStoreOfRunningEmitter() {
+        val networkConnection = MockNetworkConnection(HttpMethod.POST, 200)
+        val emitter = makeEmitter("bg-drain", networkConnection)
+        addEvents(emitter, 3)
+
+        val extras = BackgroundUpload.makeExtras("bg-drain", emitter, null)
+        val remaining = BackgroundUpload.run(context, extras) { false }
+
+        Assert.assertEquals(0, remaining)
+        Assert.assertEquals(0, emitter.eventStore.size())
+        Assert.assertTrue(networkConnection.sendingCount() > 0)
+        emitter.close()
+    }
+
+    @Test
+    fun testStopsWhenCollectorFails() {
+        val networkConnection = MockNetworkConnection(HttpMethod.POST, 500)
+        val emitter = makeEmitter("bg-fail", networkConnection)
+        addEvents(emitter, 3)
+
+        val startTime = System.currentTimeMillis()
+        val extras = BackgroundUpload.makeExtras("bg-fail", emitter, null)
+        val remaining = BackgroundUpload.run(context, extras) { false }
+
+        // gives up once the emitter backs off instead of using the whole time budget
+        Assert.assertEquals(3, remaining)
+        Assert.assertTrue(System.currentTimeMillis() - startTime < 10000)
+        emitter.close()
+    }
+
+    @Test
+    fun testStopsWhenJobIsStopped() {
+        val networkConnection = MockNetworkConnection(HttpMethod.POST, 200)
+        val emitter = makeEmitter("bg-stopped", networkConnection)
+        emitter.pauseEmit()
+        addEvents(emitter, 2)
+
+        val extras = BackgroundUpload.makeExtras("bg-stopped", emitter, null)
+        val remaining = BackgroundUpload.run(context, extras) { true }
+
+        Assert.assertEquals(2, remaining)
+        Assert.assertEquals(0, networkConnection.sendingCount())
+        emitter.close()
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testNewEmitterRestoresSavedSettings() {
+        val mockServer = MockWebServer()
+        mockServer.start()
+        repeat(2) { mockServer.enqueue(MockResponse.Builder().code(200).body("{}").build()) }
+        val uri = "http://${mockServer.hostName}:${mockServer.port}"
+
+        // events stored before the process was killed
+        val eventStore = SQLiteEventStore(context, "bg-cold")
+        while (!eventStore.databaseOpen) {
+            Thread.sleep(100)
+        }
+        eventStore.removeAllEvents()
+        eventStore.insertEvent(payload("always"))
+        eventStore.insertEvent(payload("unmetered"), EventPriority.Normal, DeliveryCondition.Unmetered)
+        eventStore.close()
+
+        // the settings are saved from an emitter that isn't running for the namespace of the job
+        val settingsEmitter = Emitter("bg-cold-settings", MockEventStore(), context, uri) {
+            it.httpMethod = HttpMethod.POST
+            it.serverAnonymisation = true
+            it.requestHeaders = mapOf("Authorization" to "Bearer token")
+            it.deliveryConditionRules = mapOf(
+                "iglu:com.snowplowanalytics.snowplow/list_item_view/jsonschema/1-*-*" to DeliveryCondition.Unmetered
+            )
+        }
+        val extras = BackgroundUpload.makeExtras("bg-cold", settingsEmitter, uri)
+        settingsEmitter.close()
+
+        val remaining = BackgroundUpload.run(context, extras) { false }
+        val isUnmetered = !ConnectivityMonitor.state.isMetered
+
+        val sent = ArrayList<String>()
+        while (true) {
+            val request = mockServer.takeRequest(2, TimeUnit.SECONDS) ?: break
+            Assert.assertEquals("*", request.headers["SP-Anonymous"])
+            Assert.assertEquals("Bearer token", request.headers["Authorization"])
+            val data = JSONObject(request.body!!.utf8()).getJSONArray("data")
+            for (i in 0 until data.length()) {
+                sent.add(data.getJSONObject(i).getString("e"))
+            }
+        }
+        // the event held for an unmetered network is only sent on one, and isn't counted as remaining
+        Assert.assertEquals(if (isUnmetered) listOf("always", "unmetered") else listOf("always"), sent.sorted())
+        Assert.assertEquals(0, remaining)
+        mockServer.close()
+    }
+
+    // Service methods
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+
+    private fun makeEmitter(namespace: String, networkConnection: MockNetworkConnection): Emitter {
+        return Emitter(namespace, MockEventStore(), context, "com.acme") {
+            it.networkConnection = networkConnection
+            it.backgroundUploadTimeBudget = 20.seconds
+        }
+    }
+
+    private fun payload(event: String): TrackerPayload {
+        val payload = TrackerPayload()
+        payload.add("e", event)
+        return payload
+    }
+
+    private fun addEvents(emitter: Emitter, count: Int) {
+        // added directly to the event store so that the emitter isn't woken up
+        for (i in 0 until count) {
+            val payload = TrackerPayload()
+            payload.add("a", i.toString())
+            emitter.eventStore.add(payload)
+        }
+    }
+}
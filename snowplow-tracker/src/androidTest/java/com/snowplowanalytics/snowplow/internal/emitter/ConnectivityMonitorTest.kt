@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.internal.emitter
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.snowplowanalytics.core.emitter.ConnectivityMonitor
+import com.snowplowanalytics.core.utils.Util
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class ConnectivityMonitorTest {
+    @Test
+    fun testCachesNetworkState() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        ConnectivityMonitor.start(context)
+        
+        Assert.assertEquals(Util.isOnline(context), ConnectivityMonitor.isOnline)
+        if (ConnectivityMonitor.isOnline) {
+            Assert.assertNotNull(ConnectivityMonitor.state.transport)
+        }
+        // starting again keeps the same state
+        val state = ConnectivityMonitor.state
+        ConnectivityMonitor.start(context)
+        Assert.assertEquals(state, ConnectivityMonitor.state)
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.internal.emitter
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.snowplowanalytics.core.emitter.RadioDeferral
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class RadioDeferralTest {
+    @Test
+    fun testNeverDefersWhenDisabled() {
+        val deferral = RadioDeferral(0)
+        Assert.assertEquals(0, deferral.delay(false, 1000))
+        Assert.assertFalse(deferral.isDeferring)
+    }
+
+    @Test
+    fun testDefersUntilMaxDelayWhileRadioIdle() {
+        val deferral = RadioDeferral(10000)
+        Assert.assertEquals(10000, deferral.delay(false, 1000))
+        Assert.assertTrue(deferral.isDeferring)
+
+        // the deferral is counted from the first request held back
+        Assert.assertEquals(4000, deferral.delay(false, 7000))
+        Assert.assertEquals(0, deferral.delay(false, 11000))
+        Assert.assertFalse(deferral.isDeferring)
+
+        // a new deferral starts with the next request
+        Assert.assertEquals(10000, deferral.delay(false, 12000))
+    }
+
+    @Test
+    fun testSendsImmediatelyWhenRadioActive() {
+        val deferral = RadioDeferral(10000)
+        Assert.assertEquals(10000, deferral.delay(false, 1000))
+        Assert.assertEquals(0, deferral.delay(true, 2000))
+        Assert.assertFalse(deferral.isDeferring)
+        Assert.assertEquals(10000, deferral.delay(false, 3000))
+    }
+}
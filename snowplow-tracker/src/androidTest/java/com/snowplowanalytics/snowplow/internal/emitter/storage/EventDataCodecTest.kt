@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.internal.emitter.storage
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.snowplowanalytics.core.emitter.storage.EventDataCodec
+import com.snowplowanalytics.core.utils.Util
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class EventDataCodecTest {
+    @Test
+    fun testRoundTrip() {
+        val map = eventMap()
+        val bytes = EventDataCodec.encode(map)
+        Assert.assertFalse(EventDataCodec.isLegacy(bytes))
+        Assert.assertEquals(map, EventDataCodec.decode(bytes))
+    }
+
+    @Test
+    fun testEncodesValuesAsStringsAndSkipsNulls() {
+        val map = mapOf("number" to 42, "bool" to true, "missing" to null, "unicode" to "żółw 🐢")
+        val decoded = EventDataCodec.decode(EventDataCodec.encode(map))
+        Assert.assertEquals(mapOf("number" to "42", "bool" to "true", "unicode" to "żółw 🐢"), decoded)
+    }
+
+    @Test
+    fun testDecodesLongValues() {
+        val value = "x".repeat(100000)
+        val decoded = EventDataCodec.decode(EventDataCodec.encode(mapOf("ue_px" to value)))
+        Assert.assertEquals(value, decoded!!["ue_px"])
+    }
+
+    @Test
+    fun testDecodesLegacyJavaSerializedData() {
+        val map = eventMap()
+        val legacy = Util.serialize(map)!!
+        Assert.assertTrue(EventDataCodec.isLegacy(legacy))
+        Assert.assertEquals(map, EventDataCodec.decode(legacy))
+    }
+
+    @Test
+    fun testRejectsUnknownAndTruncatedData() {
+        Assert.assertNull(EventDataCodec.decode(byteArrayOf()))
+        Assert.assertNull(EventDataCodec.decode(byteArrayOf(1, 2, 3, 4)))
+
+        val bytes = EventDataCodec.encode(eventMap())
+        Assert.assertNull(EventDataCodec.decode(bytes.copyOf(bytes.size - 5)))
+
+        val unsupportedVersion = bytes.copyOf()
+        unsupportedVersion[2] = (EventDataCodec.VERSION + 1).toByte()
+        Assert.assertNull(EventDataCodec.decode(unsupportedVersion))
+    }
+
+    @Test
+    fun testRejectsCorruptEntryCount() {
+        val header = byteArrayOf(0x53, 0x50, EventDataCodec.VERSION)
+        // Int.MAX_VALUE entries
+        val huge = header + byteArrayOf(0xFF.toByte(), 0xFF.toByte(), 0xFF.toByte(), 0xFF.toByte(), 0x07, 0, 0)
+        Assert.assertNull(EventDataCodec.decode(huge))
+        Assert.assertNull(EventDataCodec.findValue(huge, "e"))
+        // -1 entries
+        val negative = header + byteArrayOf(0xFF.toByte(), 0xFF.toByte(), 0xFF.toByte(), 0xFF.toByte(), 0x0F, 0, 0)
+        Assert.assertNull(EventDataCodec.decode(negative))
+        Assert.assertNull(EventDataCodec.findValue(negative, "e"))
+    }
+
+    @Test
+    fun testEncodingIsSmallerThanJavaSerialization() {
+        val map = eventMap()
+        val compact = EventDataCodec.encode(map)
+        val legacy = Util.serialize(map)!!
+        Assert.assertTrue(compact.size < legacy.size)
+    }
+
+    @Test
+    fun testBenchmarkEncodeAndDecode() {
+        val map = eventMap()
+        val compact = EventDataCodec.encode(map)
+        val legacy = Util.serialize(map)!!
+
+        val iterations = 2000
+        // timings are logged for comparison only, as they vary between devices
+        // warm up both paths before measuring
+        repeat(200) {
+            EventDataCodec.decode(EventDataCodec.encode(map))
+            Util.deserializer(Util.serialize(map)!!)
+        }
+        val encodeNanos = measure(iterations) { EventDataCodec.encode(map) }
+        val legacyEncodeNanos = measure(iterations) { Util.serialize(map) }
+        val decodeNanos = measure(iterations) { EventDataCodec.decode(compact) }
+        val legacyDecodeNanos = measure(iterations) { Util.deserializer(legacy) }
+        Log.i(
+            TAG,
+            "Event data of ${compact.size} bytes (was ${legacy.size}), " +
+                    "encode in ${encodeNanos / iterations} ns (was ${legacyEncodeNanos / iterations} ns), " +
+                    "decode in ${decodeNanos / iterations} ns (was ${legacyDecodeNanos / iterations} ns)"
+        )
+    }
+
+    private fun measure(iterations: Int, block: () -> Unit): Long {
+        val start = System.nanoTime()
+        repeat(iterations) { block() }
+        return System.nanoTime() - start
+    }
+
+    private fun eventMap(): Map<String, String> {
+        return mapOf(
+            "e" to "ue",
+            "eid" to "9d0f1d2c-2a3b-4c5d-8e9f-0a1b2c3d4e5f",
+            "tv" to "andr-6.0.0",
+            "tna" to "namespace",
+            "aid" to "appId",
+            "p" to "mob",
+            "dtm" to "1700000000000",
+            "res" to "1080x2400",
+            "lang" to "English",
+            "ue_pr" to "{\"schema\":\"iglu:com.snowplowanalytics.snowplow/unstruct_event/jsonschema/1-0-0\"," +
+                    "\"data\":{\"schema\":\"iglu:com.snowplowanalytics.mobile/screen_view/jsonschema/1-0-0\"," +
+                    "\"data\":{\"name\":\"home\",\"id\":\"5d79770b-015b-4af8-8c91-b2ed6faf4b1e\"}}}",
+            "co" to "{\"schema\":\"iglu:com.snowplowanalytics.snowplow/contexts/jsonschema/1-0-1\"," +
+                    "\"data\":[{\"schema\":\"iglu:com.snowplowanalytics.snowplow/client_session/jsonschema/1-0-2\"," +
+                    "\"data\":{\"sessionIndex\":1,\"storageMechanism\":\"LOCAL_STORAGE\"}}]}"
+        )
+    }
+
+    companion object {
+        private val TAG = EventDataCodecTest::class.java.simpleName
+    }
+}
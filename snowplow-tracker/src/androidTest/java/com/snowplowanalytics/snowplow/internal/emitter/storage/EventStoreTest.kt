@@ -12,16 +12,25 @@
  */
 package com.snowplowanalytics.snowplow.internal.emitter.storage
 
+import android.content.ContentValues
+import android.database.DatabaseUtils
 import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteOpenHelper
 import androidx.test.platform.app.InstrumentationRegistry
 import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.snowplowanalytics.core.emitter.storage.EventDataCodec
+import com.snowplowanalytics.core.emitter.storage.EventStoreHelper
 import com.snowplowanalytics.core.emitter.storage.EventStoreHelper.Companion.getInstance
 import com.snowplowanalytics.core.emitter.storage.EventStoreHelper.Companion.removeUnsentEventsExceptForNamespaces
 import com.snowplowanalytics.core.emitter.storage.SQLiteEventStore
+import com.snowplowanalytics.core.emitter.storage.WireFormatPayload
+import com.snowplowanalytics.core.utils.Util
+import com.snowplowanalytics.snowplow.emitter.DeliveryCondition
+import com.snowplowanalytics.snowplow.emitter.EventPriority
 import com.snowplowanalytics.snowplow.payload.Payload
 import com.snowplowanalytics.snowplow.payload.SelfDescribingJson
 import com.snowplowanalytics.snowplow.payload.TrackerPayload
+import org.json.JSONObject
 import org.junit.Assert
 import org.junit.Before
 import org.junit.Test
@@ -367,8 +376,332 @@ class EventStoreTest {
         Assert.assertEquals(listOf("3", "4", "5"), eventIds.sorted())
     }
 
+    @Test
+    @Throws(InterruptedException::class)
+    fun testGetEmittableEventsExcludingIds() {
+        val eventStore = eventStore()
+        val ids = (1..5).map { eventStore.insertEvent(payload())!! }
+
+        val events = eventStore.getEmittableEvents(10, setOf(ids[0], ids[2]))
+        Assert.assertEquals(listOf(ids[1], ids[3], ids[4]), events.map { it.eventId }.sorted())
+
+        val limitedEvents = eventStore.getEmittableEvents(2, setOf(ids[4]))
+        Assert.assertEquals(2, limitedEvents.size)
+        Assert.assertFalse(limitedEvents.map { it.eventId }.contains(ids[4]))
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testStoresPayloadByteSize() {
+        val eventStore = eventStore()
+        val payload = payload()
+        val id = eventStore.insertEvent(payload)!!
+
+        val event = eventStore.getEmittableEvents(QUERY_LIMIT).first { it.eventId == id }
+        Assert.assertEquals(payload.byteSize, event.byteSize)
+        Assert.assertEquals(payload.byteSize, eventStore.getEvent(id)!![EventStoreHelper.METADATA_BYTE_SIZE])
+    }
+
+    @Test
+    fun testUpgradeFromVersion1AddsColumns() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val helper = getInstance(context, "namespace")
+        val database = helper.writableDatabase
+        database.execSQL("DROP TABLE IF EXISTS 'events'")
+        database.execSQL(
+            "CREATE TABLE 'events' (id INTEGER PRIMARY KEY, eventData BLOB, " +
+                    "dateCreated TIMESTAMP DEFAULT CURRENT_TIMESTAMP)"
+        )
+        helper.onUpgrade(database, 1, 7)
+
+        val eventStore = eventStore()
+        val payload = payload()
+        val id = eventStore.insertEvent(payload)!!
+        val event = eventStore.getEmittableEvents(QUERY_LIMIT).first { it.eventId == id }
+        Assert.assertEquals(payload.byteSize, event.byteSize)
+        Assert.assertEquals(0, event.attempts)
+        Assert.assertEquals(EventPriority.Normal, event.priority)
+        Assert.assertEquals(DeliveryCondition.Always, event.deliveryCondition)
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testUpgradeToVersion6ReencodesLegacyEventData() {
+        val eventStore = eventStore()
+        val payload = payload()
+        val id = eventStore.insertEvent(payload)!!
+
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val helper = getInstance(context, "namespace")
+        val database = helper.writableDatabase
+        val expected = Util.objectMapToString(payload.map)
+        val legacyBytes = Util.serialize(expected)!!
+        val values = ContentValues()
+        values.put(EventStoreHelper.COLUMN_EVENT_DATA, legacyBytes)
+        database.update(EventStoreHelper.TABLE_EVENTS, values, "id = ?", arrayOf(id.toString()))
+        // legacy rows are still readable before the migration
+        Assert.assertEquals(expected, eventStore.getEvent(id)!![EventStoreHelper.METADATA_EVENT_DATA])
+
+        helper.onUpgrade(database, 5, 6)
+
+        database.rawQuery("SELECT eventData FROM 'events' WHERE id = ?", arrayOf(id.toString())).use { cursor ->
+            Assert.assertTrue(cursor.moveToFirst())
+            val bytes = cursor.getBlob(0)
+            Assert.assertFalse(EventDataCodec.isLegacy(bytes))
+            Assert.assertTrue(bytes.size < legacyBytes.size)
+        }
+        Assert.assertEquals(expected, eventStore.getEvent(id)!![EventStoreHelper.METADATA_EVENT_DATA])
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testStoresEventsInWireFormat() {
+        val eventStore = eventStore()
+        val payload = payload()
+        payload.add("dtm", "1700000000000")
+        val legacyId = eventStore.insertEvent(payload)!!
+        eventStore.wireFormat = true
+        val id = eventStore.insertEvent(payload)!!
+
+        val events = eventStore.getEmittableEvents(QUERY_LIMIT)
+        Assert.assertFalse(events.first { it.eventId == legacyId }.payload is WireFormatPayload)
+        val event = events.first { it.eventId == id }
+        val wirePayload = event.payload as WireFormatPayload
+        Assert.assertEquals(payload.byteSize, event.byteSize)
+        Assert.assertEquals("1700000000000", wirePayload.getString("dtm"))
+
+        // the sending time is spliced into the stored JSON
+        wirePayload.add("stm", "1700000000001")
+        val json = JSONObject(wirePayload.toString())
+        Assert.assertEquals("1700000000001", json.getString("stm"))
+        Assert.assertEquals(payload.map.size + 1, json.length())
+        Assert.assertEquals(wirePayload.toString().toByteArray().size.toLong(), wirePayload.byteSize)
+        Assert.assertEquals("1700000000001", wirePayload.map["stm"])
+        Assert.assertEquals(Util.objectMapToString(payload.map) + ("stm" to "1700000000001"), wirePayload.map)
+
+        // other changes fall back to encoding the payload map
+        wirePayload.add("key", "value")
+        Assert.assertEquals("value", JSONObject(wirePayload.toString()).getString("key"))
+        Assert.assertEquals("1700000000001", JSONObject(wirePayload.toString()).getString("stm"))
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testAddedEventsAreCommittedInOrder() {
+        val eventStore = eventStore()
+        for (i in 1..3) {
+            val payload = TrackerPayload()
+            payload.add("index", "$i")
+            eventStore.add(payload)
+            // add returns once the event is committed
+            Assert.assertEquals(i.toLong(), committedEventsCount())
+        }
+        Assert.assertEquals(3, eventStore.size())
+        val events = eventStore.getDescEventsInRange(3)
+        Assert.assertEquals(
+            listOf("3", "2", "1"),
+            events.map { (it[EventStoreHelper.METADATA_EVENT_DATA] as Map<*, *>)["index"] }
+        )
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testConcurrentlyAddedEventsAreAllCommitted() {
+        val eventStore = eventStore()
+        val threads = (0 until 4).map { thread ->
+            Thread {
+                for (i in 0 until 50) {
+                    val payload = TrackerPayload()
+                    payload.add("thread", "$thread")
+                    payload.add("index", "$i")
+                    eventStore.add(payload)
+                }
+            }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        Assert.assertEquals(200, committedEventsCount())
+        Assert.assertEquals(200, eventStore.size())
+        // the events of each thread are committed in the order they were added
+        val events = eventStore.getDescEventsInRange(200).reversed()
+            .map { it[EventStoreHelper.METADATA_EVENT_DATA] as Map<*, *> }
+        for (thread in 0 until 4) {
+            Assert.assertEquals(
+                (0 until 50).map { "$it" },
+                events.filter { it["thread"] == "$thread" }.map { it["index"] }
+            )
+        }
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testAddsEventsInOneCommit() {
+        val eventStore = eventStore()
+        val events = (1..3).map { i ->
+            val payload = TrackerPayload()
+            payload.add("index", "$i")
+            SQLiteEventStore.WaitingEvent(payload, EventPriority.Normal, DeliveryCondition.Always)
+        }
+        Assert.assertTrue(eventStore.addAll(events))
+        Assert.assertEquals(3, committedEventsCount())
+        Assert.assertEquals(
+            listOf("3", "2", "1"),
+            eventStore.getDescEventsInRange(3).map { (it[EventStoreHelper.METADATA_EVENT_DATA] as Map<*, *>)["index"] }
+        )
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testAddReportsEventsWaitingForDatabase() {
+        val eventStore = SQLiteEventStore(InstrumentationRegistry.getInstrumentation().targetContext, "namespace")
+        openedEventStores.add(eventStore)
+        val event = SQLiteEventStore.WaitingEvent(payload(), EventPriority.Normal, DeliveryCondition.Always)
+        Assert.assertFalse(eventStore.addAll(listOf(event)))
+        Assert.assertEquals(1, eventStore.size())
+
+        waitUntilDatabaseOpen(eventStore)
+        Assert.assertEquals(1, eventStore.size())
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testFailedAttemptDelaysEvents() {
+        val eventStore = eventStore()
+        val id1 = eventStore.insertEvent(payload())!!
+        val id2 = eventStore.insertEvent(payload())!!
+        Assert.assertNull(eventStore.getNextAttemptTime())
+
+        val nextAttemptTime = System.currentTimeMillis() + 60000
+        eventStore.recordFailedAttempt(listOf(id1), nextAttemptTime)
+        Assert.assertEquals(listOf(id2), eventStore.getEmittableEvents(QUERY_LIMIT).map { it.eventId })
+        Assert.assertEquals(nextAttemptTime, eventStore.getNextAttemptTime())
+
+        eventStore.recordFailedAttempt(listOf(id1), System.currentTimeMillis() - 1)
+        val events = eventStore.getEmittableEvents(QUERY_LIMIT)
+        Assert.assertEquals(listOf(id1, id2), events.map { it.eventId }.sorted())
+        Assert.assertEquals(2, events.first { it.eventId == id1 }.attempts)
+        Assert.assertEquals(0, events.first { it.eventId == id2 }.attempts)
+        Assert.assertNull(eventStore.getNextAttemptTime())
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testHigherPriorityEventsAreEmittedFirst() {
+        val eventStore = eventStore()
+        val lowId = eventStore.insertEvent(payload(), EventPriority.Low)!!
+        val highId = eventStore.insertEvent(payload(), EventPriority.High)!!
+        val normalId = eventStore.insertEvent(payload())!!
+
+        val events = eventStore.getEmittableEvents(QUERY_LIMIT)
+        Assert.assertEquals(listOf(highId, normalId, lowId), events.map { it.eventId })
+        Assert.assertEquals(
+            listOf(EventPriority.High, EventPriority.Normal, EventPriority.Low),
+            events.map { it.priority }
+        )
+
+        val highEvents = eventStore.getEmittableEvents(QUERY_LIMIT, emptySet(), EventPriority.High)
+        Assert.assertEquals(listOf(highId), highEvents.map { it.eventId })
+        Assert.assertTrue(eventStore.getEmittableEvents(QUERY_LIMIT, setOf(highId), EventPriority.High).isEmpty())
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testMostRecentEventsAreEmittedFirstWithinPriority() {
+        val eventStore = eventStore()
+        val lowIds = (1..2).map { eventStore.insertEvent(payload(), EventPriority.Low)!! }
+        val normalIds = (1..3).map { eventStore.insertEvent(payload())!! }
+        val highIds = (1..2).map { eventStore.insertEvent(payload(), EventPriority.High)!! }
+
+        val events = eventStore.getEmittableEvents(QUERY_LIMIT)
+        Assert.assertEquals(
+            highIds.reversed() + normalIds.reversed() + lowIds.reversed(),
+            events.map { it.eventId }
+        )
+        // the limit keeps the most recent events of the highest priority
+        Assert.assertEquals(
+            listOf(highIds[1], highIds[0], normalIds[2]),
+            eventStore.getEmittableEvents(3).map { it.eventId }
+        )
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testRemoveOldEventsDropsLowPriorityFirst() {
+        val eventStore = eventStore()
+        val highId = eventStore.insertEvent(payload(), EventPriority.High)!!
+        val normalId = eventStore.insertEvent(payload())!!
+        eventStore.insertEvent(payload(), EventPriority.Low)
+        eventStore.insertEvent(payload(), EventPriority.Low)
+
+        val removed = eventStore.removeOldEventsCounting(2, 10.toDuration(DurationUnit.MINUTES))
+
+        Assert.assertEquals(2, removed)
+        val events = eventStore.getEmittableEvents(QUERY_LIMIT)
+        Assert.assertEquals(listOf(highId, normalId), events.map { it.eventId })
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testAddsPriorityOfEventsWaitingForDatabase() {
+        val eventStore = SQLiteEventStore(InstrumentationRegistry.getInstrumentation().targetContext, "namespace")
+        openedEventStores.add(eventStore)
+        eventStore.add(payload(), EventPriority.High)
+        waitUntilDatabaseOpen(eventStore)
+
+        val events = eventStore.getEmittableEvents(QUERY_LIMIT, emptySet(), EventPriority.High)
+        Assert.assertEquals(1, events.size)
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testSelectsOnlyEventsWithSatisfiedDeliveryCondition() {
+        val eventStore = eventStore()
+        val alwaysId = eventStore.insertEvent(payload())!!
+        val unmeteredId = eventStore.insertEvent(payload(), EventPriority.Normal, DeliveryCondition.Unmetered)!!
+        val chargingId = eventStore.insertEvent(payload(), EventPriority.Normal, DeliveryCondition.Charging)!!
+        val eitherId = eventStore.insertEvent(payload(), EventPriority.Normal, DeliveryCondition.UnmeteredOrCharging)!!
+
+        fun selectedIds(isUnmetered: Boolean, isCharging: Boolean): List<Long> {
+            val conditions = DeliveryCondition.values().filter { it.isSatisfied(isUnmetered, isCharging) }.toSet()
+            return eventStore.getEmittableEvents(QUERY_LIMIT, emptySet(), EventPriority.Low, conditions)
+                .map { it.eventId }
+                .sorted()
+        }
+
+        Assert.assertEquals(listOf(alwaysId), selectedIds(isUnmetered = false, isCharging = false))
+        Assert.assertEquals(listOf(alwaysId, unmeteredId, eitherId), selectedIds(isUnmetered = true, isCharging = false))
+        Assert.assertEquals(listOf(alwaysId, chargingId, eitherId), selectedIds(isUnmetered = false, isCharging = true))
+        Assert.assertEquals(
+            listOf(alwaysId, unmeteredId, chargingId, eitherId),
+            selectedIds(isUnmetered = true, isCharging = true)
+        )
+
+        val event = eventStore.getEmittableEvents(QUERY_LIMIT).first { it.eventId == chargingId }
+        Assert.assertEquals(DeliveryCondition.Charging, event.deliveryCondition)
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testCountsEventsWithDeliveryConditions() {
+        val eventStore = eventStore()
+        eventStore.insertEvent(payload())
+        eventStore.insertEvent(payload(), EventPriority.Normal, DeliveryCondition.Unmetered)
+        eventStore.insertEvent(payload(), EventPriority.Normal, DeliveryCondition.Unmetered)
+        eventStore.insertEvent(payload(), EventPriority.Normal, DeliveryCondition.Charging)
+
+        Assert.assertEquals(2, eventStore.count(setOf(DeliveryCondition.Unmetered)))
+        Assert.assertEquals(3, eventStore.count(setOf(DeliveryCondition.Unmetered, DeliveryCondition.Charging)))
+        Assert.assertEquals(0, eventStore.count(emptySet()))
+    }
+
     // Helper Methods
 
+    private fun committedEventsCount(): Long {
+        val helper = getInstance(InstrumentationRegistry.getInstrumentation().targetContext, "namespace")
+        return DatabaseUtils.queryNumEntries(helper.readableDatabase, EventStoreHelper.TABLE_EVENTS)
+    }
+
     @Throws(InterruptedException::class)
     private fun eventStore(): SQLiteEventStore {
         val eventStore = SQLiteEventStore(InstrumentationRegistry.getInstrumentation().targetContext, "namespace")
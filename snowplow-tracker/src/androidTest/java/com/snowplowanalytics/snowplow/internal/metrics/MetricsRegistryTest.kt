@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.internal.metrics
+
+import androidx.core.util.Consumer
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.snowplowanalytics.core.metrics.Histogram
+import com.snowplowanalytics.core.metrics.MetricsRegistry
+import com.snowplowanalytics.snowplow.metrics.MetricsSnapshot
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+@RunWith(AndroidJUnit4::class)
+class MetricsRegistryTest {
+    @Test
+    fun testHistogramEstimatesPercentiles() {
+        val histogram = Histogram(longArrayOf(10, 100, 1000))
+        for (i in 1..90) histogram.record(5)
+        for (i in 1..9) histogram.record(50)
+        histogram.record(5000)
+
+        val snapshot = histogram.snapshot()
+        Assert.assertEquals(100, snapshot.count)
+        Assert.assertEquals(5, snapshot.min)
+        Assert.assertEquals(5000, snapshot.max)
+        Assert.assertEquals(listOf(90L, 9L, 0L, 1L), snapshot.bucketCounts)
+        Assert.assertEquals(10, snapshot.p50)
+        Assert.assertEquals(10, snapshot.p90)
+        Assert.assertEquals(100, snapshot.p99)
+        Assert.assertEquals(5000, snapshot.percentile(1.0))
+    }
+
+    @Test
+    fun testCountsConcurrentUpdates() {
+        val registry = MetricsRegistry()
+        val threads = (1..4).map {
+            Thread {
+                for (i in 1..1000) {
+                    registry.counter("counter").increment()
+                    registry.histogram("histogram").record(i.toLong())
+                }
+            }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        val snapshot = registry.snapshot()
+        Assert.assertEquals(4000, snapshot.counter("counter"))
+        Assert.assertEquals(4000, snapshot.histogram("histogram")!!.count)
+    }
+
+    @Test
+    fun testExportsSnapshotsToListener() {
+        val registry = MetricsRegistry()
+        var gauge = 1L
+        registry.gauge("gauge") { gauge }
+        val latch = CountDownLatch(2)
+        val snapshots = ArrayList<MetricsSnapshot>()
+        val listener = Consumer<MetricsSnapshot> {
+            synchronized(snapshots) { snapshots.add(it) }
+            gauge++
+            latch.countDown()
+        }
+        registry.addListener(1000, listener)
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS))
+        registry.removeListener(listener)
+        synchronized(snapshots) {
+            Assert.assertEquals(1L, snapshots[0].gauge("gauge"))
+            Assert.assertEquals(2L, snapshots[1].gauge("gauge"))
+        }
+    }
+}
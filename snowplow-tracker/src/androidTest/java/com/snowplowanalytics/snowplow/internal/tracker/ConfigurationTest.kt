@@ -51,7 +51,7 @@ class ConfigurationTest {
     @Throws(Exception::class)
     fun setUp() {
         val es = shutdown()
-        es?.awaitTermination(60, TimeUnit.SECONDS)
+        es.forEach { it.awaitTermination(60, TimeUnit.SECONDS) }
     }
 
     // Tests
@@ -481,6 +481,16 @@ class ConfigurationTest {
         Assert.assertTrue(tracker.emitter.serverAnonymisation)
     }
 
+    @Test
+    fun activatesPostBodyCompressionInEmitter() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val networkConfig = NetworkConfiguration("example.com").compressPostBody(true)
+        val emitterConfig = EmitterConfiguration().byteLimitOnCompressedSize(true)
+        val tracker = createTracker(context, Math.random().toString(), networkConfig, emitterConfig)
+        Assert.assertTrue(tracker.network!!.compressPostBody)
+        Assert.assertTrue(tracker.emitter.byteLimitOnCompressedSize)
+    }
+
     @Test
     @Throws(InterruptedException::class, JSONException::class)
     fun anonymisesUserIdentifiersIfAnonymousUserTracking() {
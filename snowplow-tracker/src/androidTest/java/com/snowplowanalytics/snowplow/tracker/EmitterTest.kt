@@ -17,7 +17,14 @@ import android.net.Uri
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import com.snowplowanalytics.core.emitter.Emitter
 import com.snowplowanalytics.core.emitter.TLSVersion
+import com.snowplowanalytics.core.utils.NotificationCenter
+import com.snowplowanalytics.snowplow.Snowplow
 import com.snowplowanalytics.snowplow.emitter.BufferOption
+import com.snowplowanalytics.snowplow.emitter.CircuitBreakerState
+import com.snowplowanalytics.snowplow.emitter.DeliveryCondition
+import com.snowplowanalytics.snowplow.emitter.EmitterState
+import com.snowplowanalytics.snowplow.emitter.EventPriority
+import com.snowplowanalytics.snowplow.metrics.MetricNames
 import com.snowplowanalytics.snowplow.network.*
 import com.snowplowanalytics.snowplow.payload.Payload
 import com.snowplowanalytics.snowplow.payload.TrackerPayload
@@ -25,7 +32,11 @@ import org.junit.Assert
 import org.junit.Test
 import org.junit.runner.RunWith
 import java.util.*
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.time.Duration.Companion.seconds
 
 @RunWith(AndroidJUnit4::class)
 class EmitterTest {
@@ -177,7 +188,9 @@ class EmitterTest {
         emitter.flush()
         emitter.flush()
         Thread.sleep(500)
-        Assert.assertTrue(emitter.emitterStatus)
+        // the event store is empty so the emitter doesn't keep running
+        Assert.assertFalse(emitter.emitterStatus)
+        Assert.assertEquals(EmitterState.Idle, emitter.state)
         emitter.httpMethod = HttpMethod.POST
         Assert.assertEquals(
             "https://com.acme/com.snowplowanalytics.snowplow/tp2",
@@ -189,7 +202,7 @@ class EmitterTest {
             emitter.emitterUri
         )
         emitter.bufferOption = BufferOption.SmallGroup
-        Assert.assertEquals(BufferOption.LargeGroup, emitter.bufferOption)
+        Assert.assertEquals(BufferOption.SmallGroup, emitter.bufferOption)
         emitter.shutdown()
         builder = { emitter1: Emitter ->
             emitter1.bufferOption = BufferOption.Single
@@ -355,13 +368,132 @@ class EmitterTest {
     fun testUpdatesNetworkConnectionWhileRunning() {
         val emitter = Emitter("ns", MockEventStore(), context, "com.acme")
         emitter.flush()
-        Thread.sleep(100)
-        Assert.assertTrue(emitter.emitterStatus) // is running
         emitter.emitterUri = "new.uri" // update while running
-        Assert.assertTrue(emitter.emitterStatus) // is running
+        Assert.assertTrue(emitter.emitterUri.contains("new.uri"))
+        Thread.sleep(100)
+        Assert.assertEquals(EmitterState.Idle, emitter.state)
         Assert.assertTrue(emitter.emitterUri.contains("new.uri"))
     }
 
+    @Test
+    @Throws(InterruptedException::class)
+    fun testEmitterStateTransitions() {
+        val networkConnection = SlowNetworkConnection(HttpMethod.POST, 500)
+        val emitter = getEmitter(networkConnection, BufferOption.Single)
+        Assert.assertEquals(EmitterState.Idle, emitter.state)
+
+        emitter.pauseEmit()
+        Assert.assertEquals(EmitterState.Paused, emitter.state)
+        emitter.add(generatePayloads(1)[0])
+        Thread.sleep(200)
+        Assert.assertEquals(EmitterState.Paused, emitter.state)
+
+        emitter.resumeEmit()
+        Thread.sleep(200)
+        Assert.assertEquals(EmitterState.Sending, emitter.state)
+        Assert.assertTrue(emitter.emitterStatus)
+
+        Thread.sleep(600)
+        Assert.assertEquals(EmitterState.Idle, emitter.state)
+        Assert.assertEquals(0, emitter.eventStore.size())
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testBacksOffAfterFailedRequests() {
+        val networkConnection = MockNetworkConnection(HttpMethod.POST, 500)
+        val emitter = getEmitter(networkConnection, BufferOption.Single)
+
+        emitter.add(generatePayloads(1)[0])
+        Thread.sleep(500)
+        Assert.assertEquals(EmitterState.BackingOff, emitter.state)
+        Assert.assertEquals(1, networkConnection.sendingCount())
+
+        // new events don't trigger a retry while backing off
+        emitter.add(generatePayloads(1)[0])
+        emitter.flush()
+        Thread.sleep(500)
+        Assert.assertEquals(EmitterState.BackingOff, emitter.state)
+        Assert.assertEquals(1, networkConnection.sendingCount())
+        Assert.assertEquals(2, emitter.eventStore.size())
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testCircuitBreakerOpensAndProbesCollector() {
+        val networkConnection = MockNetworkConnection(HttpMethod.POST, 500)
+        val emitter = getEmitter(networkConnection, BufferOption.Single)
+        emitter.circuitBreakerThreshold = 2
+        emitter.circuitBreakerCooldown = 1.seconds
+
+        emitter.add(generatePayloads(1)[0])
+        Thread.sleep(500)
+        Assert.assertEquals(CircuitBreakerState.Closed, emitter.circuitBreakerState)
+        Assert.assertEquals(1, networkConnection.sendingCount())
+
+        // the probe after the backoff period fails and opens the breaker
+        var i = 0
+        while (i < 20 && emitter.circuitBreakerState != CircuitBreakerState.Open) {
+            Thread.sleep(500)
+            i++
+        }
+        Assert.assertEquals(CircuitBreakerState.Open, emitter.circuitBreakerState)
+        Assert.assertEquals(2, networkConnection.sendingCount())
+        Assert.assertEquals(1, emitter.metrics.snapshot().counter(MetricNames.CIRCUIT_BREAKER_OPENED))
+        Assert.assertEquals(
+            CircuitBreakerState.Open.code.toLong(),
+            emitter.metrics.snapshot().gauge(MetricNames.CIRCUIT_BREAKER_STATE)
+        )
+
+        // new events don't trigger requests while open
+        for (payload in generatePayloads(3)) {
+            emitter.add(payload)
+        }
+        Thread.sleep(200)
+        Assert.assertEquals(2, networkConnection.sendingCount())
+
+        // a single event is sent as a probe after the cool-down and closes the breaker
+        networkConnection.statusCode = 200
+        i = 0
+        while (i < 10 && emitter.eventStore.size() > 0) {
+            Thread.sleep(500)
+            i++
+        }
+        Assert.assertEquals(CircuitBreakerState.Closed, emitter.circuitBreakerState)
+        Assert.assertEquals(1, networkConnection.previousResults[2].sumOf { it.eventIds.size })
+        Assert.assertEquals(0, emitter.eventStore.size())
+        emitter.flush()
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testRateLimiterThrottlesRequests() {
+        val networkConnection = MockNetworkConnection(HttpMethod.POST, 200)
+        val emitter = getEmitter(networkConnection, BufferOption.Single)
+        emitter.emitRange = 1
+        emitter.maxRequestsPerSecond = 2.0
+
+        emitter.pauseEmit()
+        for (payload in generatePayloads(6)) {
+            emitter.add(payload)
+        }
+        Thread.sleep(200)
+        emitter.resumeEmit()
+
+        // a burst of up to one second worth of requests, then two requests per second
+        Thread.sleep(300)
+        Assert.assertTrue(networkConnection.sendingCount() in 2..4)
+
+        var i = 0
+        while (i < 10 && emitter.eventStore.size() > 0) {
+            Thread.sleep(500)
+            i++
+        }
+        Assert.assertEquals(6, networkConnection.sendingCount())
+        Assert.assertTrue(emitter.metrics.snapshot().counter(MetricNames.THROTTLED_TIME) > 0)
+        emitter.flush()
+    }
+
     @Test
     @Throws(InterruptedException::class)
     fun testRemovesEventsFromQueueOnNoRetryStatus() {
@@ -379,6 +511,31 @@ class EmitterTest {
         emitter.flush()
     }
 
+    @Test
+    @Throws(InterruptedException::class)
+    fun testRecordsDeliveryMetrics() {
+        val networkConnection = MockNetworkConnection(HttpMethod.GET, 200)
+        val emitter = getEmitter(networkConnection, BufferOption.Single)
+        for (payload in generatePayloads(2)) {
+            emitter.add(payload)
+        }
+        var i = 0
+        while (i < 10 && (emitter.metrics.snapshot().counter(MetricNames.EVENTS_SENT) < 2)) {
+            Thread.sleep(600)
+            i++
+        }
+
+        val metrics = emitter.metrics.snapshot()
+        Assert.assertEquals(2, metrics.counter(MetricNames.EVENTS_STORED))
+        Assert.assertEquals(2, metrics.counter(MetricNames.EVENTS_SENT))
+        Assert.assertEquals(0, metrics.counter(MetricNames.EVENTS_DROPPED))
+        Assert.assertEquals(networkConnection.sendingCount().toLong(), metrics.counter(MetricNames.REQUESTS_SENT))
+        Assert.assertTrue(metrics.counter(MetricNames.BYTES_SENT) > 0)
+        Assert.assertTrue(metrics.histogram(MetricNames.REQUEST_LATENCY)!!.count > 0)
+        Assert.assertEquals(0L, metrics.gauge(MetricNames.QUEUE_SIZE))
+        emitter.flush()
+    }
+
     @Test
     @Throws(InterruptedException::class)
     fun testFollowCustomRetryRules() {
@@ -449,6 +606,164 @@ class EmitterTest {
         emitter.flush()
     }
 
+    @Test
+    fun testHighPriorityEventsAreSentImmediatelyInTheirOwnBatch() {
+        val networkConnection = MockNetworkConnection(HttpMethod.POST, 200)
+        val emitter = getEmitter(networkConnection, BufferOption.SmallGroup)
+
+        for (payload in generatePayloads(3)) {
+            emitter.add(payload)
+        }
+        Thread.sleep(1000)
+
+        // normal events waiting in queue
+        Assert.assertEquals(0, networkConnection.previousResults.size)
+
+        emitter.add(generatePayloads(1)[0], EventPriority.High)
+        Thread.sleep(1000)
+
+        // only the high-priority event sent
+        Assert.assertEquals(1, networkConnection.previousResults.size)
+        Assert.assertEquals(listOf(3L), networkConnection.previousResults[0].flatMap { it.eventIds })
+        Assert.assertEquals(3, emitter.eventStore.size())
+        emitter.flush()
+    }
+
+    @Test
+    fun testFlushWithTimeoutDeliversQueuedEvents() {
+        val networkConnection = MockNetworkConnection(HttpMethod.POST, 200)
+        val emitter = getEmitter(networkConnection, BufferOption.SmallGroup)
+        emitter.emitRange = 2
+
+        for (payload in generatePayloads(5)) {
+            emitter.add(payload)
+        }
+        Thread.sleep(500)
+        Assert.assertEquals(0, networkConnection.previousResults.size)
+
+        val result = emitter.flush(5.seconds)
+
+        Assert.assertEquals(5, result.delivered)
+        Assert.assertEquals(0, result.remaining)
+        Assert.assertTrue(result.isComplete)
+        Assert.assertEquals(0, emitter.eventStore.size())
+    }
+
+    @Test
+    fun testBackgroundFlushSendsQueuedEventsWithoutBlocking() {
+        val networkConnection = MockNetworkConnection(HttpMethod.POST, 200)
+        val emitter = getEmitter(networkConnection, BufferOption.SmallGroup)
+        emitter.backgroundFlushTimeout = 5.seconds
+
+        for (payload in generatePayloads(5)) {
+            emitter.add(payload)
+        }
+        Thread.sleep(500)
+        Assert.assertEquals(0, networkConnection.previousResults.size)
+
+        val startTime = System.currentTimeMillis()
+        NotificationCenter.postNotification("SnowplowLifecycleTracking", mapOf("isForeground" to false))
+        Assert.assertTrue(System.currentTimeMillis() - startTime < 1000)
+
+        var i = 0
+        while (i < 10 && emitter.eventStore.size() > 0) {
+            Thread.sleep(500)
+            i++
+        }
+        Assert.assertEquals(0, emitter.eventStore.size())
+        Assert.assertTrue(networkConnection.sendingCount() > 0)
+        emitter.close()
+    }
+
+    @Test
+    fun testFlushWithTimeoutReportsRemainingEventsWhenPaused() {
+        val networkConnection = MockNetworkConnection(HttpMethod.POST, 200)
+        val emitter = getEmitter(networkConnection, BufferOption.Single)
+        emitter.pauseEmit()
+
+        for (payload in generatePayloads(3)) {
+            emitter.add(payload)
+        }
+        Thread.sleep(500)
+
+        val result = emitter.flush(5.seconds)
+
+        Assert.assertEquals(0, result.delivered)
+        Assert.assertEquals(3, result.remaining)
+        Assert.assertFalse(result.isComplete)
+        Assert.assertEquals(0, networkConnection.previousResults.size)
+        emitter.resumeEmit()
+    }
+
+    @Test
+    fun testPriorityRulesMatchSchemas() {
+        val emitter = getEmitter(MockNetworkConnection(HttpMethod.POST, 200), BufferOption.Single)
+        emitter.eventPriorityRules = mapOf(
+            "iglu:com.acme/purchase/jsonschema/1-*-*" to EventPriority.High,
+            "iglu:com.acme/*/jsonschema/*-*-*" to EventPriority.Low
+        )
+
+        Assert.assertEquals(EventPriority.High, emitter.priorityForSchema("iglu:com.acme/purchase/jsonschema/1-0-1"))
+        Assert.assertEquals(EventPriority.Low, emitter.priorityForSchema("iglu:com.acme/scroll/jsonschema/1-0-0"))
+        Assert.assertEquals(EventPriority.Normal, emitter.priorityForSchema("iglu:com.other/purchase/jsonschema/1-0-0"))
+        Assert.assertEquals(EventPriority.Normal, emitter.priorityForSchema(null))
+        emitter.flush()
+    }
+
+    @Test
+    fun testDeliveryConditionRulesMatchSchemas() {
+        val emitter = getEmitter(MockNetworkConnection(HttpMethod.POST, 200), BufferOption.Single)
+        emitter.deliveryConditionRules = mapOf(
+            "iglu:com.snowplowanalytics.snowplow/list_item_view/jsonschema/1-*-*" to DeliveryCondition.Unmetered,
+            "iglu:com.snowplowanalytics.snowplow.media/*/jsonschema/*-*-*" to DeliveryCondition.UnmeteredOrCharging
+        )
+
+        Assert.assertEquals(
+            DeliveryCondition.Unmetered,
+            emitter.deliveryConditionForSchema("iglu:com.snowplowanalytics.snowplow/list_item_view/jsonschema/1-0-0")
+        )
+        Assert.assertEquals(
+            DeliveryCondition.UnmeteredOrCharging,
+            emitter.deliveryConditionForSchema("iglu:com.snowplowanalytics.snowplow.media/ping_event/jsonschema/1-0-0")
+        )
+        Assert.assertEquals(
+            DeliveryCondition.Always,
+            emitter.deliveryConditionForSchema("iglu:com.snowplowanalytics.snowplow/screen_view/jsonschema/1-0-0")
+        )
+        Assert.assertFalse(DeliveryCondition.Unmetered.isSatisfied(isUnmetered = false, isCharging = true))
+        Assert.assertTrue(DeliveryCondition.UnmeteredOrCharging.isSatisfied(isUnmetered = false, isCharging = true))
+        emitter.flush()
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testRetriesWakeUpRejectedByFullNetworkLane() {
+        val rejectedCount = AtomicInteger()
+        val pool = Executors.newSingleThreadExecutor()
+        // the network lane rejects the first tasks as if its queue was full
+        Snowplow.setExecutors(null, null) { runnable ->
+            if (rejectedCount.incrementAndGet() <= 2) {
+                throw RejectedExecutionException()
+            }
+            pool.execute(runnable)
+        }
+        try {
+            val networkConnection = MockNetworkConnection(HttpMethod.GET, 200)
+            val emitter = getEmitter(networkConnection, BufferOption.Single)
+            emitter.add(generatePayloads(1)[0])
+            var i = 0
+            while (i < 10 && networkConnection.sendingCount() < 1) {
+                Thread.sleep(600)
+                i++
+            }
+            Assert.assertEquals(1, networkConnection.sendingCount())
+            Assert.assertTrue(rejectedCount.get() > 2)
+        } finally {
+            Snowplow.setExecutors(null, null, null)
+            pool.shutdown()
+        }
+    }
+
     @Test
     fun testNumberOfRequestsMatchesEmitRangeAndOversize() {
         val networkConnection = MockNetworkConnection(HttpMethod.POST, 200)
@@ -506,6 +821,105 @@ class EmitterTest {
         emitter.flush()
     }
 
+    @Test
+    fun testPipelinedEmissionKeepsMultipleBatchesInFlight() {
+        val networkConnection = SlowNetworkConnection(HttpMethod.POST, 300)
+        val emitter = getEmitter(networkConnection, BufferOption.Single)
+        emitter.emitRange = 5
+        emitter.maxInFlightBatches = 3
+
+        emitter.pauseEmit()
+        for (payload in generatePayloads(30)) {
+            emitter.add(payload)
+        }
+        Thread.sleep(500)
+        Assert.assertEquals(30, emitter.eventStore.size())
+        emitter.resumeEmit()
+
+        var i = 0
+        while (i < 20 && emitter.eventStore.size() > 0) {
+            Thread.sleep(300)
+            i++
+        }
+
+        // all events sent exactly once
+        Assert.assertEquals(0, emitter.eventStore.size())
+        Assert.assertEquals(30, networkConnection.sentEventIds.size)
+        Assert.assertEquals(30, networkConnection.sentEventIds.toSet().size)
+
+        // batches overlapped but never exceeded the window
+        Assert.assertTrue(networkConnection.maxConcurrentBatches > 1)
+        Assert.assertTrue(networkConnection.maxConcurrentBatches <= 3)
+        emitter.flush()
+    }
+
+    @Test
+    fun testPipelinedEmissionRespectsInFlightBytes() {
+        val networkConnection = SlowNetworkConnection(HttpMethod.POST, 300)
+        val emitter = getEmitter(networkConnection, BufferOption.Single)
+        emitter.emitRange = 5
+        emitter.maxInFlightBatches = 3
+        emitter.maxInFlightBytes = 1
+
+        emitter.pauseEmit()
+        for (payload in generatePayloads(15)) {
+            emitter.add(payload)
+        }
+        Thread.sleep(500)
+        emitter.resumeEmit()
+
+        var i = 0
+        while (i < 20 && emitter.eventStore.size() > 0) {
+            Thread.sleep(300)
+            i++
+        }
+
+        // each batch is over the byte limit so only one is sent at a time
+        Assert.assertEquals(0, emitter.eventStore.size())
+        Assert.assertEquals(15, networkConnection.sentEventIds.toSet().size)
+        Assert.assertEquals(1, networkConnection.maxConcurrentBatches)
+        emitter.flush()
+    }
+
+    @Test
+    fun testAdaptiveBatchingGrowsOnSuccessAndShrinksOnErrors() {
+        val networkConnection = SlowNetworkConnection(HttpMethod.POST, 50)
+        val emitter = getEmitter(networkConnection, BufferOption.Single)
+        emitter.adaptiveBatching = true
+        emitter.minEmitRange = 5
+        emitter.maxEmitRange = 15
+        emitter.maxInFlightBatches = 2
+        Assert.assertEquals(5, emitter.currentEmitRange)
+        Assert.assertEquals(1, emitter.currentMaxInFlightBatches)
+
+        emitter.pauseEmit()
+        for (payload in generatePayloads(50)) {
+            emitter.add(payload)
+        }
+        Thread.sleep(500)
+        emitter.resumeEmit()
+
+        var i = 0
+        while (i < 20 && emitter.eventStore.size() > 0) {
+            Thread.sleep(300)
+            i++
+        }
+
+        // batches of 5, 10 and 15 events, then a second batch in flight
+        Assert.assertEquals(0, emitter.eventStore.size())
+        Assert.assertEquals(15, emitter.currentEmitRange)
+        Assert.assertEquals(2, emitter.currentMaxInFlightBatches)
+
+        networkConnection.statusCode = 500
+        emitter.add(generatePayloads(1)[0])
+        Thread.sleep(1000)
+
+        // halved after the server error
+        Assert.assertEquals(7, emitter.currentEmitRange)
+        Assert.assertEquals(1, emitter.currentMaxInFlightBatches)
+        emitter.flush()
+    }
+
     // Emitter Builder
     private fun getEmitter(networkConnection: NetworkConnection, option: BufferOption): Emitter {
         val builder = { emitter: Emitter ->
@@ -551,3 +965,27 @@ internal class BrokenNetworkConnection : NetworkConnection {
             throw UnsupportedOperationException("Broken NetworkConnection")
         }
 }
+
+internal class SlowNetworkConnection(override val httpMethod: HttpMethod, private val delayMillis: Long) :
+    NetworkConnection {
+    @Volatile
+    var statusCode = 200
+    private var concurrentBatches = 0
+    var maxConcurrentBatches = 0
+    val sentEventIds: MutableList<Long> = Collections.synchronizedList(ArrayList())
+
+    override fun sendRequests(requests: List<Request>): List<RequestResult> {
+        synchronized(this) {
+            concurrentBatches++
+            maxConcurrentBatches = maxOf(maxConcurrentBatches, concurrentBatches)
+        }
+        Thread.sleep(delayMillis)
+        val results = requests.map { RequestResult(statusCode, it.oversize, it.emitterEventIds) }
+        requests.forEach { sentEventIds.addAll(it.emitterEventIds) }
+        synchronized(this) { concurrentBatches-- }
+        return results
+    }
+
+    override val uri: Uri
+        get() = Uri.parse("http://fake-url.com")
+}
@@ -13,6 +13,8 @@
 package com.snowplowanalytics.snowplow.tracker
 
 import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.snowplowanalytics.core.emitter.Executor
+import com.snowplowanalytics.snowplow.Snowplow
 import com.snowplowanalytics.core.emitter.Executor.shutdown
 import com.snowplowanalytics.core.emitter.Executor.execute
 import org.junit.Assert
@@ -21,8 +23,11 @@ import org.junit.Test
 import org.junit.runner.RunWith
 import java.lang.Exception
 import java.lang.NullPointerException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.RejectedExecutionException
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.Throws
 
 @RunWith(AndroidJUnit4::class)
@@ -31,7 +36,7 @@ class ExecutorTest {
     @Throws(Exception::class)
     fun setUp() {
         val es = shutdown()
-        es?.awaitTermination(60, TimeUnit.SECONDS)
+        es.forEach { it.awaitTermination(60, TimeUnit.SECONDS) }
     }
 
     @Test
@@ -46,4 +51,69 @@ class ExecutorTest {
         synchronized(expectation) { expectation.wait(10000) }
         Assert.assertTrue(exceptionRaised.get())
     }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testBlockedNetworkLaneDoesntDelayCpuLane() {
+        val release = CountDownLatch(1)
+        for (i in 0 until Executor.threadCount) {
+            execute(Executor.Lane.Network, "test") { release.await() }
+        }
+
+        val cpuTaskRan = CountDownLatch(1)
+        execute(Executor.Lane.Cpu, "test") { cpuTaskRan.countDown() }
+        Assert.assertTrue(cpuTaskRan.await(5, TimeUnit.SECONDS))
+
+        val metrics = Executor.metrics(Executor.Lane.Network)!!
+        Assert.assertEquals(Executor.threadCount, metrics.activeCount)
+        Assert.assertEquals(Executor.threadCount.toLong(), metrics.submittedCount)
+        release.countDown()
+    }
+
+    @Test
+    @Throws(InterruptedException::class)
+    fun testScheduledTaskRunsOnLane() {
+        var threadName: String? = null
+        val latch = CountDownLatch(1)
+        Executor.schedule(Executor.Lane.Disk, "test", 10, TimeUnit.MILLISECONDS) {
+            threadName = Thread.currentThread().name
+            latch.countDown()
+        }
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS))
+        Assert.assertTrue(threadName!!.startsWith("snowplow-disk"))
+    }
+
+    @Test
+    fun testCustomExecutorRunsTasks() {
+        val submitted = AtomicInteger()
+        val ranTask = AtomicBoolean(false)
+        Snowplow.setExecutor { runnable ->
+            submitted.incrementAndGet()
+            runnable.run()
+        }
+        try {
+            execute(Executor.Lane.Disk, "test") { ranTask.set(true) }
+
+            Assert.assertTrue(ranTask.get())
+            Assert.assertEquals(1, submitted.get())
+            val metrics = Executor.metrics(Executor.Lane.Disk)!!
+            Assert.assertEquals(1, metrics.completedCount)
+            Assert.assertEquals(0, metrics.poolSize)
+        } finally {
+            Snowplow.setExecutor(null)
+        }
+    }
+
+    @Test
+    fun testTryExecuteReportsRejectedTasks() {
+        Assert.assertTrue(Executor.tryExecute(Executor.Lane.Disk, "test") { })
+
+        Snowplow.setExecutor { throw RejectedExecutionException() }
+        try {
+            Assert.assertFalse(Executor.tryExecute(Executor.Lane.Disk, "test") { })
+            Assert.assertEquals(1, Executor.metrics(Executor.Lane.Disk)!!.rejectedCount)
+        } finally {
+            Snowplow.setExecutor(null)
+        }
+    }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.tracker
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.snowplowanalytics.snowplow.network.FailoverNetworkConnection
+import com.snowplowanalytics.snowplow.network.HttpMethod
+import com.snowplowanalytics.snowplow.network.Request
+import com.snowplowanalytics.snowplow.network.RequestResult
+import com.snowplowanalytics.snowplow.payload.TrackerPayload
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.time.Duration.Companion.milliseconds
+
+@RunWith(AndroidJUnit4::class)
+class FailoverNetworkConnectionTest {
+
+    @Test
+    fun testSendsToFirstEndpointWhileHealthy() {
+        val primary = MockNetworkConnection(HttpMethod.POST, 200)
+        val secondary = MockNetworkConnection(HttpMethod.POST, 200)
+        val connection = FailoverNetworkConnection(listOf(primary, secondary))
+
+        connection.sendRequests(makeRequests(2))
+        connection.sendRequests(makeRequests(2))
+
+        Assert.assertEquals(2, primary.sendingCount())
+        Assert.assertEquals(0, secondary.sendingCount())
+    }
+
+    @Test
+    fun testFailsOverToNextEndpointOnServerError() {
+        val primary = MockNetworkConnection(HttpMethod.POST, 500)
+        val secondary = MockNetworkConnection(HttpMethod.POST, 200)
+        val connection = FailoverNetworkConnection(listOf(primary, secondary))
+
+        val results = connection.sendRequests(makeRequests(2))
+
+        Assert.assertEquals(2, results.size)
+        Assert.assertTrue(results.all { it.isSuccessful })
+        Assert.assertEquals(1, primary.sendingCount())
+        Assert.assertEquals(1, secondary.sendingCount())
+
+        // the primary endpoint is demoted
+        connection.sendRequests(makeRequests(1))
+        Assert.assertEquals(1, primary.sendingCount())
+        Assert.assertEquals(2, secondary.sendingCount())
+        Assert.assertSame(secondary, connection.currentConnection)
+    }
+
+    @Test
+    fun testDoesntFailOverOnClientError() {
+        val primary = MockNetworkConnection(HttpMethod.POST, 400)
+        val secondary = MockNetworkConnection(HttpMethod.POST, 200)
+        val connection = FailoverNetworkConnection(listOf(primary, secondary))
+
+        val results = connection.sendRequests(makeRequests(1))
+
+        Assert.assertEquals(400, results[0].statusCode)
+        Assert.assertEquals(0, secondary.sendingCount())
+    }
+
+    @Test
+    fun testReprobesDemotedEndpoint() {
+        val primary = MockNetworkConnection(HttpMethod.POST, 500)
+        val secondary = MockNetworkConnection(HttpMethod.POST, 200)
+        val connection = FailoverNetworkConnection(listOf(primary, secondary))
+        connection.reprobeInterval = 200.milliseconds
+
+        connection.sendRequests(makeRequests(1))
+        Assert.assertSame(secondary, connection.currentConnection)
+
+        // the demoted endpoint is probed once the interval elapsed
+        primary.statusCode = 200
+        Thread.sleep(300)
+        val results = connection.sendRequests(makeRequests(1))
+        Assert.assertTrue(results[0].isSuccessful)
+        Assert.assertEquals(2, primary.sendingCount())
+        Assert.assertEquals(1, secondary.sendingCount())
+    }
+
+    @Test
+    fun testPrefersEndpointWithLowerLatency() {
+        val slow = SlowNetworkConnection(HttpMethod.POST, 1500)
+        val fast = SlowNetworkConnection(HttpMethod.POST, 10)
+        val connection = FailoverNetworkConnection(listOf(slow, fast))
+
+        // the slow endpoint scores worse than the unknown latency of the other one
+        connection.sendRequests(makeRequests(1))
+        connection.sendRequests(makeRequests(1))
+        connection.sendRequests(makeRequests(1))
+
+        Assert.assertEquals(1, slow.sentEventIds.size)
+        Assert.assertEquals(2, fast.sentEventIds.size)
+        Assert.assertSame(fast, connection.currentConnection)
+    }
+
+    @Test
+    fun testWeightsChangeEndpointPreference() {
+        val primary = MockNetworkConnection(HttpMethod.POST, 200)
+        val secondary = MockNetworkConnection(HttpMethod.POST, 200)
+        val connection = FailoverNetworkConnection(listOf(primary, secondary), listOf(1.0, 2.0))
+
+        connection.sendRequests(makeRequests(1))
+
+        Assert.assertEquals(0, primary.sendingCount())
+        Assert.assertEquals(1, secondary.sendingCount())
+    }
+
+    @Test
+    fun testFailsOverAsynchronouslyWithSyncConnections() {
+        val primary = MockNetworkConnection(HttpMethod.POST, 503)
+        val secondary = MockNetworkConnection(HttpMethod.POST, 200)
+        val connection = FailoverNetworkConnection(listOf(primary, secondary))
+
+        val latch = CountDownLatch(1)
+        var results: List<RequestResult> = emptyList()
+        connection.sendRequests(makeRequests(3)) {
+            results = it
+            latch.countDown()
+        }
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS))
+        Assert.assertEquals(3, results.size)
+        Assert.assertTrue(results.all { it.isSuccessful })
+        Assert.assertEquals(1, secondary.sendingCount())
+    }
+
+    // Service methods
+
+    private fun makeRequests(count: Int): List<Request> {
+        return (1..count).map { id ->
+            val payload = TrackerPayload()
+            payload.add("a", id.toString())
+            Request(payload, id.toLong())
+        }
+    }
+}
@@ -16,6 +16,7 @@ import com.snowplowanalytics.core.tracker.Logger.v
 import com.snowplowanalytics.snowplow.emitter.EventStore
 import com.snowplowanalytics.snowplow.payload.Payload
 import com.snowplowanalytics.snowplow.emitter.EmitterEvent
+import com.snowplowanalytics.snowplow.emitter.EventPriority
 import com.snowplowanalytics.snowplow.payload.TrackerPayload
 import java.util.ArrayList
 import java.util.HashMap
@@ -23,18 +24,25 @@ import kotlin.time.Duration
 
 class MockEventStore : EventStore {
     var db = HashMap<Long, Payload?>()
+    var priorities = HashMap<Long, EventPriority>()
     var lastInsertedRow: Long = -1
     override fun add(payload: Payload) {
+        add(payload, EventPriority.Normal)
+    }
+
+    override fun add(payload: Payload, priority: EventPriority) {
         synchronized(this) {
             lastInsertedRow++
             v("MockEventStore", "Add %s", payload)
             db.put(lastInsertedRow, payload)
+            priorities.put(lastInsertedRow, priority)
         }
     }
 
     override fun removeEvent(id: Long): Boolean {
         synchronized(this) {
             v("MockEventStore", "Remove %s", id)
+            priorities.remove(id)
             return db.remove(id) != null
         }
     }
@@ -52,6 +60,7 @@ class MockEventStore : EventStore {
         synchronized(this) {
             v("MockEventStore", "Remove all")
             db = HashMap()
+            priorities = HashMap()
             lastInsertedRow = 0
         }
         return true
@@ -69,11 +78,13 @@ class MockEventStore : EventStore {
             for ((key, value) in db) {
                 val payloadCopy: Payload = TrackerPayload()
                 payloadCopy.addMap(value!!.map)
-                val event = EmitterEvent(payloadCopy, key)
+                val priority = priorities[key] ?: EventPriority.Normal
+                val event = EmitterEvent(payloadCopy, key, null, 0, priority)
                 eventIds.add(event.eventId)
                 eventPayloads.add(payloadCopy.map.toString())
                 events.add(event)
             }
+            events.sortByDescending { it.priority.value }
             if (queryLimit < events.size) {
                 events = events.subList(0, queryLimit)
             }
@@ -14,9 +14,13 @@ package com.snowplowanalytics.snowplow.tracker
 
 import android.annotation.SuppressLint
 import android.content.Context
+import android.net.Uri
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import androidx.test.platform.app.InstrumentationRegistry
+import com.snowplowanalytics.core.constants.TrackerConstants
 import com.snowplowanalytics.core.emitter.TLSVersion
+import com.snowplowanalytics.core.emitter.storage.EventDataCodec
+import com.snowplowanalytics.core.emitter.storage.WireFormatPayload
 import com.snowplowanalytics.snowplow.network.*
 import com.snowplowanalytics.snowplow.network.OkHttpNetworkConnection.OkHttpNetworkConnectionBuilder
 import com.snowplowanalytics.snowplow.payload.Payload
@@ -26,6 +30,9 @@ import okhttp3.OkHttpClient
 import mockwebserver3.MockResponse
 import mockwebserver3.MockWebServer
 import mockwebserver3.RecordedRequest
+import okio.Buffer
+import okio.GzipSource
+import okio.buffer
 import org.json.JSONException
 import org.json.JSONObject
 import org.junit.Assert
@@ -33,6 +40,7 @@ import org.junit.Test
 import org.junit.runner.RunWith
 import java.io.IOException
 import java.util.*
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 
@@ -63,6 +71,29 @@ class NetworkConnectionTest {
         mockServer.close()
     }
 
+    @Test
+    @Throws(IOException::class, InterruptedException::class)
+    fun testGetRequestEncodesQuery() {
+        val mockServer = getMockServer(200)
+        val connection = OkHttpNetworkConnectionBuilder(getMockServerURI(mockServer)!!, context)
+            .method(HttpMethod.GET)
+            .build()
+        val value = "a b&c=d/\u00e9\ud83d\ude00'*~"
+        val payload: Payload = TrackerPayload()
+        payload.add("key", value)
+        payload.add("e&q", "pv")
+        connection.sendRequests(listOf(Request(payload, 1)))
+        val req = mockServer.takeRequest(60, TimeUnit.SECONDS)
+        assertGETRequest(req)
+
+        Assert.assertEquals(value, req!!.url!!.queryParameter("key"))
+        Assert.assertEquals("pv", req.url!!.queryParameter("e&q"))
+        val expected = Uri.Builder().appendQueryParameter("key", value).build().encodedQuery!!
+        Assert.assertTrue(req.url!!.encodedQuery!!.contains(expected.replace("'", "%27")))
+        Assert.assertNull(connection.uri.query)
+        mockServer.close()
+    }
+
     @Test
     @Throws(IOException::class, InterruptedException::class)
     fun testGetRequestWithNoSuccess() {
@@ -115,6 +146,72 @@ class NetworkConnectionTest {
         mockServer.close()
     }
 
+    @Test
+    @Throws(IOException::class, InterruptedException::class, JSONException::class)
+    fun testPostRequestWithPayloadBundle() {
+        val mockServer = getMockServer(200)
+        val connection = OkHttpNetworkConnectionBuilder(getMockServerURI(mockServer)!!, context)
+            .method(HttpMethod.POST)
+            .build()
+        val payloads = (1..3).map { i ->
+            val payload: Payload = TrackerPayload()
+            payload.add("key", "value$i")
+            payload
+        }
+        val results = connection.sendRequests(listOf(Request(payloads, listOf(1L, 2L, 3L))))
+        val req = mockServer.takeRequest(60, TimeUnit.SECONDS)
+        Assert.assertEquals("application/json; charset=utf-8", req!!.headers["Content-Type"])
+        
+        val body = JSONObject(req.body!!.utf8())
+        Assert.assertEquals(TrackerConstants.SCHEMA_PAYLOAD_DATA, body.getString("schema"))
+        val data = body.getJSONArray("data")
+        Assert.assertEquals(3, data.length())
+        for (i in 0 until data.length()) {
+            Assert.assertEquals("value${i + 1}", data.getJSONObject(i).getString("key"))
+        }
+        Assert.assertTrue(results[0].isSuccessful)
+        Assert.assertEquals(listOf(1L, 2L, 3L), results[0].eventIds)
+        mockServer.close()
+    }
+
+    @Test
+    @Throws(IOException::class, InterruptedException::class, JSONException::class)
+    fun testPostRequestWithWireFormatPayloadBundle() {
+        val mockServer = getMockServer(200)
+        val connection = OkHttpNetworkConnectionBuilder(getMockServerURI(mockServer)!!, context)
+            .method(HttpMethod.POST)
+            .build()
+        val payloads = (1..3).map { i ->
+            val payload = TrackerPayload()
+            payload.add("key", "value$i")
+            payload.add("ua", "agent")
+            val wirePayload: Payload = WireFormatPayload(
+                payload.toString().toByteArray(),
+                EventDataCodec.encode(payload.map)
+            )
+            wirePayload.add("stm", "123")
+            wirePayload
+        }
+        val request = Request(payloads, listOf(1L, 2L, 3L))
+        Assert.assertEquals("agent", request.customUserAgent)
+        val results = connection.sendRequests(listOf(request))
+        val req = mockServer.takeRequest(60, TimeUnit.SECONDS)
+
+        // the length of wire format payloads is known, so the body isn't chunked
+        Assert.assertEquals(req!!.body!!.size.toString(), req.headers["Content-Length"])
+        Assert.assertNull(req.headers["Transfer-Encoding"])
+        val body = JSONObject(req.body!!.utf8())
+        Assert.assertEquals(TrackerConstants.SCHEMA_PAYLOAD_DATA, body.getString("schema"))
+        val data = body.getJSONArray("data")
+        Assert.assertEquals(3, data.length())
+        for (i in 0 until data.length()) {
+            Assert.assertEquals("value${i + 1}", data.getJSONObject(i).getString("key"))
+            Assert.assertEquals("123", data.getJSONObject(i).getString("stm"))
+        }
+        Assert.assertTrue(results[0].isSuccessful)
+        mockServer.close()
+    }
+
     @Test
     @Throws(IOException::class, InterruptedException::class)
     fun testPostRequestWithNoSuccess() {
@@ -168,6 +265,91 @@ class NetworkConnectionTest {
         mockServer.close()
     }
 
+    @Test
+    @Throws(IOException::class, InterruptedException::class)
+    fun testConnectionsShareConnectionPool() {
+        val mockServer = MockWebServer()
+        mockServer.start()
+        mockServer.enqueue(MockResponse.Builder().code(200).build())
+        mockServer.enqueue(MockResponse.Builder().code(200).build())
+        val uri = getMockServerURI(mockServer)!!
+        val payload: Payload = TrackerPayload()
+        payload.add("key", "value")
+
+        val connection1 = OkHttpNetworkConnectionBuilder(uri, context)
+            .method(HttpMethod.GET)
+            .build()
+        connection1.sendRequests(listOf(Request(payload, 1)))
+        val req1 = mockServer.takeRequest(60, TimeUnit.SECONDS)
+
+        val connection2 = OkHttpNetworkConnectionBuilder(uri, context)
+            .method(HttpMethod.GET)
+            .emitTimeout(10)
+            .build()
+        connection2.sendRequests(listOf(Request(payload, 2)))
+        val req2 = mockServer.takeRequest(60, TimeUnit.SECONDS)
+
+        Assert.assertNotNull(req1)
+        Assert.assertNotNull(req2)
+        Assert.assertEquals(req1!!.connectionIndex, req2!!.connectionIndex)
+        Assert.assertEquals(1, req2.exchangeIndex)
+        mockServer.close()
+    }
+
+    @Test
+    @Throws(IOException::class, InterruptedException::class)
+    fun testAsyncRequestsCompleteInOrder() {
+        val mockServer = MockWebServer()
+        mockServer.start()
+        mockServer.enqueue(MockResponse.Builder().code(200).build())
+        mockServer.enqueue(MockResponse.Builder().code(200).build())
+        val connection = OkHttpNetworkConnectionBuilder(getMockServerURI(mockServer)!!, context)
+            .method(HttpMethod.POST)
+            .build()
+        val payload: Payload = TrackerPayload()
+        payload.add("key", "value")
+
+        val latch = CountDownLatch(1)
+        var results: List<RequestResult>? = null
+        connection.sendRequests(listOf(Request(payload, 1), Request(payload, 2))) {
+            results = it
+            latch.countDown()
+        }
+
+        Assert.assertTrue(latch.await(60, TimeUnit.SECONDS))
+        Assert.assertEquals(2, results!!.size)
+        Assert.assertEquals(listOf(1L), results!![0].eventIds)
+        Assert.assertEquals(listOf(2L), results!![1].eventIds)
+        Assert.assertTrue(results!!.all { it.isSuccessful })
+        mockServer.close()
+    }
+
+    @Test
+    @Throws(IOException::class, InterruptedException::class)
+    fun testTimeoutCancelsRequest() {
+        val mockServer = MockWebServer()
+        mockServer.start()
+        mockServer.enqueue(
+            MockResponse.Builder()
+                .code(200)
+                .headersDelay(5, TimeUnit.SECONDS)
+                .build()
+        )
+        val connection = OkHttpNetworkConnectionBuilder(getMockServerURI(mockServer)!!, context)
+            .method(HttpMethod.POST)
+            .emitTimeout(1)
+            .build()
+        val payload: Payload = TrackerPayload()
+        payload.add("key", "value")
+
+        val startTime = System.currentTimeMillis()
+        val results = connection.sendRequests(listOf(Request(payload, 1)))
+
+        Assert.assertEquals(-1, results[0].statusCode)
+        Assert.assertTrue(System.currentTimeMillis() - startTime < 4000)
+        mockServer.close()
+    }
+
     @Test
     fun testFreeEndpoint_GetHttpsUrl() {
         val connection = OkHttpNetworkConnectionBuilder("acme.test.url.com", context)
@@ -296,6 +478,53 @@ class NetworkConnectionTest {
         mockServer.close()
     }
 
+    @Test
+    @Throws(IOException::class, InterruptedException::class)
+    fun testCompressesPostRequestBody() {
+        val mockServer = getMockServer(200)
+        val connection = OkHttpNetworkConnectionBuilder(getMockServerURI(mockServer)!!, context)
+            .method(HttpMethod.POST)
+            .compressPostBody(true)
+            .build()
+        Assert.assertNull(connection.compressionRatio)
+
+        val payload: Payload = TrackerPayload()
+        payload.add("key", "value".repeat(100))
+        val results = connection.sendRequests(listOf(Request(payload, 1)))
+        val req = mockServer.takeRequest(60, TimeUnit.SECONDS)
+        Assert.assertEquals("gzip", req!!.headers["Content-Encoding"])
+        val body = GzipSource(Buffer().write(req.body!!)).buffer().readUtf8()
+        Assert.assertEquals("value".repeat(100), JSONObject(body).getString("key"))
+
+        Assert.assertTrue(results[0].isSuccessful)
+        Assert.assertTrue(connection.compressionRatio!! < 1.0)
+        mockServer.close()
+    }
+
+    @Test
+    @Throws(IOException::class, InterruptedException::class)
+    fun testReadsRetryAfterHeader() {
+        val mockServer = MockWebServer()
+        mockServer.start()
+        mockServer.enqueue(
+            MockResponse.Builder()
+                .code(503)
+                .addHeader("Retry-After", "120")
+                .build()
+        )
+        val connection = OkHttpNetworkConnectionBuilder(getMockServerURI(mockServer)!!, context)
+            .method(HttpMethod.POST)
+            .build()
+        val payload: Payload = TrackerPayload()
+        payload.add("key", "value")
+        val results = connection.sendRequests(listOf(Request(payload, 1)))
+        mockServer.takeRequest(60, TimeUnit.SECONDS)
+
+        Assert.assertEquals(503, results[0].statusCode)
+        Assert.assertEquals(120000L, results[0].retryAfterMillis)
+        mockServer.close()
+    }
+
     // Service methods
     private fun assertGETRequest(req: RecordedRequest?) {
         Assert.assertNotNull(req)
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter
+
+import androidx.annotation.RestrictTo
+
+/**
+ * Adjusts the number of events read for each emit attempt and the number of batches sent at the same time
+ * using an additive-increase/multiplicative-decrease (AIMD) strategy.
+ * Both grow while batches are sent successfully and quickly, and are halved when a batch
+ * times out or receives a server error, always staying within the configured limits.
+ *
+ * @param minEmitRange The minimum number of events to read for an emit attempt.
+ * @param maxEmitRange The maximum number of events to read for an emit attempt.
+ * @param maxInFlightBatches The maximum number of batches to send at the same time.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+class AdaptiveBatchController(
+    @Volatile var minEmitRange: Int,
+    @Volatile var maxEmitRange: Int,
+    @Volatile var maxInFlightBatches: Int
+) {
+    private var currentEmitRange = -1
+    private var currentInFlightBatches = 1
+
+    /**
+     * The current number of events to read for an emit attempt.
+     * It starts from the minimum and is always within the limits.
+     */
+    val emitRange: Int
+        @Synchronized
+        get() {
+            val emitRange = if (currentEmitRange < 0) minEmitRange else currentEmitRange
+            return emitRange.coerceAtMost(maxEmitRange).coerceAtLeast(minEmitRange.coerceAtLeast(1))
+        }
+
+    /**
+     * The current number of batches that can be sent at the same time.
+     * It starts from 1 and is always within the limits.
+     */
+    val inFlightBatches: Int
+        @Synchronized
+        get() = currentInFlightBatches.coerceAtMost(maxInFlightBatches).coerceAtLeast(1)
+
+    /**
+     * Grows the emit range, or the number of batches in flight once the emit range reached its maximum,
+     * if the batch was sent within the latency target.
+     * @param latencyMillis The time it took to send the batch.
+     */
+    @Synchronized
+    fun onBatchSucceeded(latencyMillis: Long) {
+        if (latencyMillis > LATENCY_TARGET) {
+            return
+        }
+        val emitRange = this.emitRange
+        if (emitRange < maxEmitRange) {
+            currentEmitRange = emitRange + ADDITIVE_INCREASE
+        } else {
+            currentInFlightBatches = inFlightBatches + 1
+        }
+    }
+
+    /**
+     * Halves the emit range and the number of batches in flight.
+     */
+    @Synchronized
+    fun onBatchFailed() {
+        currentEmitRange = emitRange / 2
+        currentInFlightBatches = inFlightBatches / 2
+    }
+
+    companion object {
+        private const val LATENCY_TARGET: Long = 2000 // milliseconds
+        private const val ADDITIVE_INCREASE = 5
+    }
+}
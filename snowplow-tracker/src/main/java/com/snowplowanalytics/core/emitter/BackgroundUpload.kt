@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter
+
+import android.app.job.JobInfo
+import android.app.job.JobScheduler
+import android.content.ComponentName
+import android.content.Context
+import android.os.Build
+import android.os.PersistableBundle
+import androidx.annotation.RestrictTo
+import com.snowplowanalytics.core.emitter.storage.SQLiteEventStore
+import com.snowplowanalytics.core.tracker.Logger
+import com.snowplowanalytics.snowplow.emitter.DeliveryCondition
+import com.snowplowanalytics.snowplow.network.CollectorEndpoint
+import com.snowplowanalytics.snowplow.network.HttpMethod
+import com.snowplowanalytics.snowplow.network.Protocol
+import java.lang.ref.WeakReference
+import java.util.EnumSet
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Schedules and runs the background upload job, which sends the events left in the event store
+ * of a namespace once the app is in the background, even if its process was killed.
+ * 
+ * The job is scheduled with [JobScheduler] when the app enters the background with unsent events.
+ * The system runs it when a network is available (and the battery isn't low on Android 8+).
+ * It drains the event store through the emitter of the running tracker, or through a new emitter
+ * configured with the settings saved in the job if the process was restarted for the job,
+ * until the store is empty, the emitter backs off or the time budget runs out.
+ * The saved settings are those shaping the requests, such as the headers, anonymisation and compression,
+ * and the delivery policy, such as the retried status codes and the delivery condition rules.
+ * 
+ * Only the default network connection can be recreated by the job, so emitters with a custom
+ * [NetworkConnection](com.snowplowanalytics.snowplow.network.NetworkConnection), OkHttp client
+ * or cookie jar only use the job while their process is alive.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+object BackgroundUpload {
+    private val TAG = BackgroundUpload::class.java.simpleName
+
+    private const val JOB_ID_BASE = 0x534E0000
+    private const val JOB_ID_MASK = 0xFFFF
+    private const val POLL_INTERVAL: Long = 100 // milliseconds
+    private const val INITIAL_BACKOFF: Long = 30000 // milliseconds
+
+    private const val KEY_NAMESPACE = "namespace"
+    private const val KEY_URI = "uri"
+    private const val KEY_ENDPOINTS = "endpoints"
+    private const val KEY_WEIGHTS = "weights"
+    private const val KEY_METHOD = "method"
+    private const val KEY_CUSTOM_POST_PATH = "customPostPath"
+    private const val KEY_TIMEOUT = "timeout"
+    private const val KEY_TIME_BUDGET = "timeBudget"
+    private const val KEY_REQUEST_SECURITY = "requestSecurity"
+    private const val KEY_TLS_VERSIONS = "tlsVersions"
+    private const val KEY_SERVER_ANONYMISATION = "serverAnonymisation"
+    private const val KEY_COMPRESS_POST_BODY = "compressPostBody"
+    private const val KEY_HEADER_NAMES = "requestHeaderNames"
+    private const val KEY_HEADER_VALUES = "requestHeaderValues"
+    private const val KEY_EMIT_RANGE = "emitRange"
+    private const val KEY_BYTE_LIMIT_GET = "byteLimitGet"
+    private const val KEY_BYTE_LIMIT_POST = "byteLimitPost"
+    private const val KEY_RETRY_FAILED_REQUESTS = "retryFailedRequests"
+    private const val KEY_RETRY_STATUS_CODES = "retryStatusCodes"
+    private const val KEY_RETRY_STATUS_VALUES = "retryStatusValues"
+    private const val KEY_DELIVERY_RULE_SCHEMAS = "deliveryRuleSchemas"
+    private const val KEY_DELIVERY_RULE_CONDITIONS = "deliveryRuleConditions"
+
+    private val emitters = ConcurrentHashMap<String, WeakReference<Emitter>>()
+
+    /**
+     * Registers a running emitter so that the job sends events through it
+     * instead of creating another emitter for the same event store.
+     */
+    fun register(namespace: String, emitter: Emitter) {
+        emitters[namespace] = WeakReference(emitter)
+    }
+
+    fun unregister(namespace: String, emitter: Emitter) {
+        val reference = emitters[namespace] ?: return
+        if (reference.get() === emitter) {
+            emitters.remove(namespace, reference)
+        }
+    }
+
+    /**
+     * Schedules the upload job for the namespace of the emitter, replacing any pending one.
+     * @param collectorUri The collector URI to recreate the emitter with if the process was killed,
+     * null if the emitter uses a custom network connection.
+     */
+    fun schedule(context: Context, namespace: String, emitter: Emitter, collectorUri: String?) {
+        val scheduler = context.getSystemService(Context.JOB_SCHEDULER_SERVICE) as? JobScheduler ?: return
+        val builder = JobInfo.Builder(jobId(namespace), ComponentName(context, BackgroundUploadJobService::class.java))
+            .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+            .setBackoffCriteria(INITIAL_BACKOFF, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+            .setExtras(makeExtras(namespace, emitter, collectorUri))
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            builder.setRequiresBatteryNotLow(true)
+        }
+        try {
+            scheduler.schedule(builder.build())
+            Logger.d(TAG, "Scheduled background upload for namespace %s.", namespace)
+        } catch (e: Exception) {
+            Logger.e(TAG, "Unable to schedule background upload: %s", e.message)
+        }
+    }
+
+    /**
+     * Saves the details needed to send the events of the namespace in the job extras.
+     */
+    fun makeExtras(namespace: String, emitter: Emitter, collectorUri: String?): PersistableBundle {
+        val extras = PersistableBundle()
+        extras.putString(KEY_NAMESPACE, namespace)
+        collectorUri?.let { extras.putString(KEY_URI, it) }
+        extras.putStringArray(KEY_ENDPOINTS, emitter.endpoints.map { it.endpoint }.toTypedArray())
+        extras.putDoubleArray(KEY_WEIGHTS, emitter.endpoints.map { it.weight }.toDoubleArray())
+        extras.putString(KEY_METHOD, emitter.httpMethod.name)
+        emitter.customPostPath?.let { extras.putString(KEY_CUSTOM_POST_PATH, it) }
+        extras.putInt(KEY_TIMEOUT, emitter.emitTimeout ?: EmitterDefaults.emitTimeout)
+        extras.putLong(KEY_TIME_BUDGET, emitter.backgroundUploadTimeBudget.inWholeMilliseconds)
+        extras.putString(KEY_REQUEST_SECURITY, emitter.requestSecurity.name)
+        extras.putStringArray(KEY_TLS_VERSIONS, emitter.tlsVersions.map { it.name }.toTypedArray())
+        // Booleans are saved as ints, PersistableBundle only supports them from API 22
+        extras.putInt(KEY_SERVER_ANONYMISATION, if (emitter.serverAnonymisation) 1 else 0)
+        extras.putInt(KEY_COMPRESS_POST_BODY, if (emitter.compressPostBody) 1 else 0)
+        emitter.requestHeaders?.let { headers ->
+            extras.putStringArray(KEY_HEADER_NAMES, headers.keys.toTypedArray())
+            extras.putStringArray(KEY_HEADER_VALUES, headers.values.toTypedArray())
+        }
+        extras.putInt(KEY_EMIT_RANGE, emitter.emitRange)
+        extras.putLong(KEY_BYTE_LIMIT_GET, emitter.byteLimitGet)
+        extras.putLong(KEY_BYTE_LIMIT_POST, emitter.byteLimitPost)
+        extras.putInt(KEY_RETRY_FAILED_REQUESTS, if (emitter.retryFailedRequests) 1 else 0)
+        emitter.customRetryForStatusCodes?.let { codes ->
+            extras.putIntArray(KEY_RETRY_STATUS_CODES, codes.keys.toIntArray())
+            extras.putIntArray(KEY_RETRY_STATUS_VALUES, codes.values.map { if (it) 1 else 0 }.toIntArray())
+        }
+        val deliveryRules = emitter.deliveryConditionRules
+        extras.putStringArray(KEY_DELIVERY_RULE_SCHEMAS, deliveryRules.keys.toTypedArray())
+        extras.putIntArray(KEY_DELIVERY_RULE_CONDITIONS, deliveryRules.values.map { it.code }.toIntArray())
+        return extras
+    }
+
+    /**
+     * Cancels the pending upload job for the namespace, if any.
+     */
+    fun cancel(context: Context, namespace: String) {
+        val scheduler = context.getSystemService(Context.JOB_SCHEDULER_SERVICE) as? JobScheduler ?: return
+        scheduler.cancel(jobId(namespace))
+    }
+
+    /**
+     * Sends the events of the namespace saved in the job extras within the time budget.
+     * @param isStopped Whether the system stopped the job.
+     * @return the number of events left in the event store, or 0 if the job can't run.
+     */
+    fun run(context: Context, extras: PersistableBundle, isStopped: () -> Boolean): Long {
+        val namespace = extras.getString(KEY_NAMESPACE) ?: return 0
+        val deadline = System.currentTimeMillis() + extras.getLong(KEY_TIME_BUDGET)
+
+        emitters[namespace]?.get()?.let {
+            Logger.d(TAG, "Background upload using the running emitter of namespace %s.", namespace)
+            return it.drain(deadline, isStopped).remaining
+        }
+
+        val uri = extras.getString(KEY_URI) ?: return 0
+        val endpoints = extras.getStringArray(KEY_ENDPOINTS) ?: emptyArray()
+        val weights = extras.getDoubleArray(KEY_WEIGHTS) ?: DoubleArray(0)
+        val emitter = Emitter(namespace, null, context, uri) { configure(it, extras) }
+        Logger.d(TAG, "Background upload using a new emitter for namespace %s.", namespace)
+        return try {
+            // The events of the new event store can't be read until its database is open
+            val eventStore = emitter.eventStore as? SQLiteEventStore
+            while (eventStore?.databaseOpen == false && System.currentTimeMillis() < deadline && !isStopped()) {
+                Thread.sleep(POLL_INTERVAL)
+            }
+            emitter.drain(deadline, isStopped).remaining
+        } finally {
+            emitter.close()
+        }
+    }
+
+    /**
+     * Restores the emitter settings saved in the job extras by [makeExtras].
+     */
+    private fun configure(emitter: Emitter, extras: PersistableBundle) {
+        val endpoints = extras.getStringArray(KEY_ENDPOINTS) ?: emptyArray()
+        val weights = extras.getDoubleArray(KEY_WEIGHTS) ?: DoubleArray(0)
+        emitter.httpMethod = HttpMethod.valueOf(extras.getString(KEY_METHOD) ?: EmitterDefaults.httpMethod.name)
+        emitter.customPostPath = extras.getString(KEY_CUSTOM_POST_PATH)
+        emitter.emitTimeout = extras.getInt(KEY_TIMEOUT, EmitterDefaults.emitTimeout)
+        emitter.endpoints = endpoints.mapIndexed { index, endpoint ->
+            CollectorEndpoint(endpoint, weights.getOrElse(index) { 1.0 })
+        }
+        extras.getString(KEY_REQUEST_SECURITY)?.let { emitter.requestSecurity = Protocol.valueOf(it) }
+        extras.getStringArray(KEY_TLS_VERSIONS)?.let { versions ->
+            emitter.tlsVersions = versions.mapTo(EnumSet.noneOf(TLSVersion::class.java)) { TLSVersion.valueOf(it) }
+        }
+        emitter.serverAnonymisation = extras.getInt(
+            KEY_SERVER_ANONYMISATION, if (EmitterDefaults.serverAnonymisation) 1 else 0
+        ) != 0
+        emitter.compressPostBody = extras.getInt(
+            KEY_COMPRESS_POST_BODY, if (EmitterDefaults.compressPostBody) 1 else 0
+        ) != 0
+        val headerNames = extras.getStringArray(KEY_HEADER_NAMES)
+        val headerValues = extras.getStringArray(KEY_HEADER_VALUES)
+        if (headerNames != null && headerValues != null) {
+            emitter.requestHeaders = headerNames.zip(headerValues).toMap()
+        }
+        emitter.emitRange = extras.getInt(KEY_EMIT_RANGE, EmitterDefaults.emitRange)
+        emitter.byteLimitGet = extras.getLong(KEY_BYTE_LIMIT_GET, EmitterDefaults.byteLimitGet)
+        emitter.byteLimitPost = extras.getLong(KEY_BYTE_LIMIT_POST, EmitterDefaults.byteLimitPost)
+        emitter.retryFailedRequests = extras.getInt(
+            KEY_RETRY_FAILED_REQUESTS, if (EmitterDefaults.retryFailedRequests) 1 else 0
+        ) != 0
+        val retryCodes = extras.getIntArray(KEY_RETRY_STATUS_CODES)
+        val retryValues = extras.getIntArray(KEY_RETRY_STATUS_VALUES)
+        if (retryCodes != null && retryValues != null) {
+            emitter.customRetryForStatusCodes = retryCodes.zip(retryValues.map { it != 0 }).toMap()
+        }
+        val ruleSchemas = extras.getStringArray(KEY_DELIVERY_RULE_SCHEMAS)
+        val ruleConditions = extras.getIntArray(KEY_DELIVERY_RULE_CONDITIONS)
+        if (ruleSchemas != null && ruleConditions != null) {
+            emitter.deliveryConditionRules = ruleSchemas.zip(ruleConditions.map { DeliveryCondition.fromCode(it) }).toMap()
+        }
+    }
+
+    private fun jobId(namespace: String): Int {
+        return JOB_ID_BASE or (namespace.hashCode() and JOB_ID_MASK)
+    }
+}
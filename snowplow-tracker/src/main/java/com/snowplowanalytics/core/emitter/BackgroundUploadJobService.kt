@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter
+
+import android.app.job.JobParameters
+import android.app.job.JobService
+import androidx.annotation.RestrictTo
+import com.snowplowanalytics.core.tracker.Logger
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+
+/**
+ * Runs the background upload job scheduled by [BackgroundUpload] on its own thread,
+ * and asks the system to retry later if events are left in the event store.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+class BackgroundUploadJobService : JobService() {
+    private val TAG = BackgroundUploadJobService::class.java.simpleName
+
+    private val stopFlags = ConcurrentHashMap<Int, AtomicBoolean>()
+
+    override fun onStartJob(params: JobParameters): Boolean {
+        val isStopped = AtomicBoolean(false)
+        stopFlags[params.jobId] = isStopped
+        thread(name = "snowplow-background-upload") {
+            var remaining = 0L
+            try {
+                remaining = BackgroundUpload.run(applicationContext, params.extras) { isStopped.get() }
+            } catch (e: Exception) {
+                Logger.e(TAG, "Background upload failed: %s", e.message)
+            } finally {
+                stopFlags.remove(params.jobId)
+            }
+            if (!isStopped.get()) {
+                Logger.d(TAG, "Background upload finished with %s events left.", remaining)
+                jobFinished(params, remaining > 0)
+            }
+        }
+        return true
+    }
+
+    override fun onStopJob(params: JobParameters): Boolean {
+        stopFlags[params.jobId]?.set(true)
+        return true
+    }
+}
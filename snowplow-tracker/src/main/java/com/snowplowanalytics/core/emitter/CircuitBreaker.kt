@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter
+
+import androidx.annotation.RestrictTo
+import com.snowplowanalytics.snowplow.emitter.CircuitBreakerState
+
+/**
+ * Stops requests to a collector endpoint that keeps failing.
+ * The breaker opens after a number of consecutive failed batches, so that no requests are sent
+ * during the cool-down period. Once it has elapsed, the breaker is half-open and lets a single
+ * probe batch through: it closes again if the probe succeeds and opens for another cool-down if it fails.
+ *
+ * @param failureThreshold The number of consecutive failures that open the breaker, 0 or less to never open it.
+ * @param cooldownMillis The time the breaker stays open before sending a probe.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+class CircuitBreaker(
+    @Volatile var failureThreshold: Int,
+    @Volatile var cooldownMillis: Long
+) {
+    private var currentState = CircuitBreakerState.Closed
+    private var consecutiveFailures = 0
+    private var openedAt: Long = 0
+
+    /**
+     * The state of the breaker.
+     * An open breaker becomes half-open once the cool-down period has elapsed.
+     */
+    val state: CircuitBreakerState
+        @Synchronized
+        get() {
+            if (currentState == CircuitBreakerState.Open && remainingCooldown <= 0) {
+                currentState = CircuitBreakerState.HalfOpen
+            }
+            return currentState
+        }
+
+    /**
+     * The time left before an open breaker lets a probe through, 0 if it's not open.
+     */
+    val remainingCooldown: Long
+        @Synchronized
+        get() {
+            if (currentState != CircuitBreakerState.Open) {
+                return 0
+            }
+            return (openedAt + cooldownMillis - System.currentTimeMillis()).coerceAtLeast(0)
+        }
+
+    /**
+     * Closes the breaker after a successful batch.
+     */
+    @Synchronized
+    fun onSuccess() {
+        consecutiveFailures = 0
+        currentState = CircuitBreakerState.Closed
+    }
+
+    /**
+     * Counts a failed batch and opens the breaker if the probe failed
+     * or the failure threshold is reached.
+     * @return true if the breaker was opened.
+     */
+    @Synchronized
+    fun onFailure(): Boolean {
+        consecutiveFailures++
+        val shouldOpen = when (state) {
+            CircuitBreakerState.Closed -> failureThreshold > 0 && consecutiveFailures >= failureThreshold
+            CircuitBreakerState.HalfOpen -> true
+            CircuitBreakerState.Open -> false
+        }
+        if (shouldOpen) {
+            currentState = CircuitBreakerState.Open
+            openedAt = System.currentTimeMillis()
+        }
+        return shouldOpen
+    }
+
+    /**
+     * Closes the breaker and forgets previous failures, e.g. when the endpoint changes.
+     */
+    @Synchronized
+    fun reset() {
+        onSuccess()
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter
+
+import android.annotation.SuppressLint
+import android.content.Context
+import android.net.ConnectivityManager
+import android.net.Network
+import android.net.NetworkCapabilities
+import android.net.NetworkRequest
+import android.os.Build
+import androidx.annotation.RestrictTo
+import com.snowplowanalytics.core.tracker.Logger
+import com.snowplowanalytics.core.utils.Util
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CopyOnWriteArraySet
+
+/**
+ * Keeps track of the network connectivity of the device using a
+ * [ConnectivityManager.NetworkCallback], so that reading the current state doesn't
+ * require a call to the system service. Listeners are notified when the state changes.
+ * It also reports when the radio of the default network is active, so that requests
+ * can be sent together with other traffic instead of waking up the radio.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+object ConnectivityMonitor {
+    private val TAG = ConnectivityMonitor::class.java.simpleName
+
+    /**
+     * Transport used by the network.
+     */
+    enum class Transport {
+        Wifi, Cellular, Ethernet, Other
+    }
+
+    /**
+     * Snapshot of the state of the network used by the device.
+     *
+     * @param isConnected whether a network with internet access is available.
+     * @param isValidated whether the system verified that the network reaches the internet.
+     * @param isMetered whether the network is metered, e.g. a mobile data connection.
+     * @param transport the transport of the network, null if not connected.
+     */
+    data class NetworkState(
+        val isConnected: Boolean,
+        val isValidated: Boolean,
+        val isMetered: Boolean,
+        val transport: Transport?
+    )
+
+    private val disconnectedState = NetworkState(false, false, false, null)
+    // Used while the capabilities of a network are unknown, so that it's never mistaken for an unmetered network
+    private val unknownState = NetworkState(true, false, true, null)
+    private val listeners = CopyOnWriteArrayList<(NetworkState) -> Unit>()
+    private val networkActiveListeners = CopyOnWriteArraySet<() -> Unit>()
+    private val networks = ConcurrentHashMap<Network, NetworkState>()
+    private var context: Context? = null
+    @Volatile
+    private var isMonitoring = false
+    @Volatile
+    private var monitoredState = disconnectedState
+
+    /**
+     * The last known state of the network.
+     * Before the monitor is started, or if it couldn't be started, the state is read from the system service.
+     */
+    val state: NetworkState
+        get() = if (isMonitoring) monitoredState else readState()
+
+    /**
+     * Whether the device is connected to a network with internet access.
+     */
+    val isOnline: Boolean
+        get() = state.isConnected
+
+    /**
+     * Whether the radio of the default network is active, so that sending data now
+     * doesn't wake it up. Always true if it can't be read from the system service.
+     */
+    val isDefaultNetworkActive: Boolean
+        get() {
+            val connectivityManager = connectivityManager() ?: return true
+            return try {
+                connectivityManager.isDefaultNetworkActive
+            } catch (e: Exception) {
+                true
+            }
+        }
+
+    /**
+     * Starts monitoring the network connectivity, if not already started.
+     * @param context the Android context.
+     */
+    @Synchronized
+    fun start(context: Context) {
+        if (this.context != null) {
+            return
+        }
+        this.context = context.applicationContext ?: context
+        val connectivityManager =
+            context.getSystemService(Context.CONNECTIVITY_SERVICE) as? ConnectivityManager ?: return
+        try {
+            monitoredState = readState()
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                connectivityManager.registerDefaultNetworkCallback(networkCallback)
+            } else {
+                val request = NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build()
+                connectivityManager.registerNetworkCallback(request, networkCallback)
+            }
+            isMonitoring = true
+        } catch (e: Exception) {
+            Logger.e(TAG, "Unable to register network callback: %s", e.toString())
+        }
+    }
+
+    /**
+     * Adds a listener called with the new state every time the state of the network changes.
+     * @param listener the listener to add.
+     */
+    fun addListener(listener: (NetworkState) -> Unit) {
+        listeners.add(listener)
+    }
+
+    /**
+     * Removes a listener previously added.
+     * @param listener the listener to remove.
+     */
+    fun removeListener(listener: (NetworkState) -> Unit) {
+        listeners.remove(listener)
+    }
+
+    /**
+     * Adds a listener called every time the radio of the default network becomes active.
+     * The system listener is only registered while there are listeners.
+     * @param listener the listener to add.
+     */
+    @Synchronized
+    fun addNetworkActiveListener(listener: () -> Unit) {
+        if (!networkActiveListeners.add(listener) || networkActiveListeners.size > 1) {
+            return
+        }
+        try {
+            connectivityManager()?.addDefaultNetworkActiveListener(networkActiveListener)
+        } catch (e: Exception) {
+            Logger.e(TAG, "Unable to register network active listener: %s", e.toString())
+        }
+    }
+
+    /**
+     * Removes a listener previously added.
+     * @param listener the listener to remove.
+     */
+    @Synchronized
+    fun removeNetworkActiveListener(listener: () -> Unit) {
+        if (!networkActiveListeners.remove(listener) || networkActiveListeners.isNotEmpty()) {
+            return
+        }
+        try {
+            connectivityManager()?.removeDefaultNetworkActiveListener(networkActiveListener)
+        } catch (e: Exception) {
+            Logger.e(TAG, "Unable to unregister network active listener: %s", e.toString())
+        }
+    }
+
+    private val networkActiveListener = ConnectivityManager.OnNetworkActiveListener {
+        networkActiveListeners.forEach { it() }
+    }
+
+    private fun connectivityManager(): ConnectivityManager? {
+        return context?.getSystemService(Context.CONNECTIVITY_SERVICE) as? ConnectivityManager
+    }
+
+    private val networkCallback = object : ConnectivityManager.NetworkCallback() {
+        override fun onAvailable(network: Network) {
+            // the capabilities follow in onCapabilitiesChanged
+            updateNetwork(network, networks[network] ?: unknownState)
+        }
+
+        override fun onCapabilitiesChanged(network: Network, capabilities: NetworkCapabilities) {
+            updateNetwork(network, makeState(capabilities))
+        }
+
+        override fun onLost(network: Network) {
+            networks.remove(network)
+            updateState()
+        }
+    }
+
+    private fun updateNetwork(network: Network, networkState: NetworkState) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            // only the default network is tracked
+            networks.clear()
+        }
+        networks[network] = networkState
+        updateState()
+    }
+
+    @Synchronized
+    private fun updateState() {
+        val newState = networks.values.firstOrNull() ?: disconnectedState
+        if (newState == monitoredState) {
+            return
+        }
+        monitoredState = newState
+        Logger.d(TAG, "Network state changed: %s", newState)
+        listeners.forEach { it(newState) }
+    }
+
+    @Suppress("DEPRECATION")
+    @SuppressLint("MissingPermission")
+    private fun readState(): NetworkState {
+        val context = context ?: return unknownState
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            val connectivityManager =
+                context.getSystemService(Context.CONNECTIVITY_SERVICE) as? ConnectivityManager
+            try {
+                val network = connectivityManager?.activeNetwork ?: return disconnectedState
+                val capabilities = connectivityManager.getNetworkCapabilities(network)
+                    ?: return disconnectedState
+                return makeState(capabilities)
+            } catch (e: SecurityException) {
+                Logger.e(TAG, "Security exception checking connection: %s", e.toString())
+                return unknownState
+            }
+        }
+        val isOnline = Util.isOnline(context)
+        if (!isOnline) {
+            return disconnectedState
+        }
+        return try {
+            val connectivityManager =
+                context.getSystemService(Context.CONNECTIVITY_SERVICE) as? ConnectivityManager
+                    ?: return unknownState
+            val transport = when (connectivityManager.activeNetworkInfo?.type) {
+                ConnectivityManager.TYPE_WIFI -> Transport.Wifi
+                ConnectivityManager.TYPE_MOBILE -> Transport.Cellular
+                ConnectivityManager.TYPE_ETHERNET -> Transport.Ethernet
+                else -> Transport.Other
+            }
+            NetworkState(true, true, connectivityManager.isActiveNetworkMetered, transport)
+        } catch (e: SecurityException) {
+            Logger.e(TAG, "Security exception checking connection: %s", e.toString())
+            unknownState
+        }
+    }
+
+    private fun makeState(capabilities: NetworkCapabilities): NetworkState {
+        val isValidated = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)
+        } else true
+        val transport = when {
+            capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI) -> Transport.Wifi
+            capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR) -> Transport.Cellular
+            capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET) -> Transport.Ethernet
+            else -> Transport.Other
+        }
+        return NetworkState(
+            isConnected = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET),
+            isValidated = isValidated,
+            isMetered = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED),
+            transport = transport
+        )
+    }
+}
@@ -16,11 +16,22 @@ import android.content.Context
 
 import com.snowplowanalytics.core.constants.Parameters
 import com.snowplowanalytics.core.emitter.storage.SQLiteEventStore
+import com.snowplowanalytics.core.emitter.storage.WireFormatPayload
+import com.snowplowanalytics.core.metrics.MetricsRegistry
+import com.snowplowanalytics.core.session.ProcessObserver
 import com.snowplowanalytics.core.tracker.Logger
+import com.snowplowanalytics.core.tracker.SchemaRule
+import com.snowplowanalytics.core.utils.NotificationCenter
 import com.snowplowanalytics.core.utils.Util
 import com.snowplowanalytics.snowplow.emitter.BufferOption
+import com.snowplowanalytics.snowplow.emitter.CircuitBreakerState
+import com.snowplowanalytics.snowplow.emitter.DeliveryCondition
 import com.snowplowanalytics.snowplow.emitter.EmitterEvent
+import com.snowplowanalytics.snowplow.emitter.EmitterState
+import com.snowplowanalytics.snowplow.emitter.EventPriority
 import com.snowplowanalytics.snowplow.emitter.EventStore
+import com.snowplowanalytics.snowplow.emitter.FlushResult
+import com.snowplowanalytics.snowplow.metrics.MetricNames
 import com.snowplowanalytics.snowplow.network.*
 import com.snowplowanalytics.snowplow.network.NetworkConnection
 import com.snowplowanalytics.snowplow.network.OkHttpNetworkConnection.OkHttpNetworkConnectionBuilder
@@ -30,10 +41,17 @@ import okhttp3.CookieJar
 import okhttp3.OkHttpClient
 
 import java.util.*
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicReference
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.random.Random
 import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
 
 /**
  * Build an emitter object which controls the
@@ -55,12 +73,104 @@ class Emitter(
     
     private val context: Context
     private lateinit var uri: String
-    private var emptyCount = 0
+
+    private val wakeRequested = AtomicBoolean(false)
+    private val batchController = AdaptiveBatchController(
+        EmitterDefaults.minEmitRange,
+        EmitterDefaults.maxEmitRange,
+        EmitterDefaults.maxInFlightBatches
+    )
+    private val circuitBreaker = CircuitBreaker(
+        EmitterDefaults.circuitBreakerThreshold,
+        EmitterDefaults.circuitBreakerCooldown.inWholeMilliseconds
+    )
+    private val rateLimiter = RateLimiter(EmitterDefaults.maxBytesPerSecond, EmitterDefaults.maxRequestsPerSecond)
+    private val radioDeferral = RadioDeferral(EmitterDefaults.maxRadioDeferral.inWholeMilliseconds)
+    @Volatile
+    private var throttledSince: Long = 0
+    private val _state = AtomicReference(EmitterState.Idle)
+    @Volatile
+    private var isWaitingForNetwork = false
+    // Set when high-priority events may be waiting in the store, including the ones left from a previous session.
+    private val isHighPriorityPending = AtomicBoolean(true)
+    // Events added but not stored yet, drained by a single storage task at a time into one transaction.
+    private val pendingEvents = ConcurrentLinkedQueue<SQLiteEventStore.WaitingEvent>()
+    private val pendingEventsCount = AtomicInteger(0)
+    @Volatile
+    private var priorityRules: List<Pair<SchemaRule, EventPriority>> = emptyList()
+    @Volatile
+    private var deliveryRules: List<Pair<SchemaRule, DeliveryCondition>> = emptyList()
+
+    // Wakes up the emitter as soon as a network becomes available after it stopped for being offline,
+    // so that events stored while offline are sent without waiting for new events to be tracked.
+    // Also sends the events held back by the delivery condition rules once the network is unmetered.
+    private val connectivityListener: (ConnectivityMonitor.NetworkState) -> Unit = { networkState ->
+        if (networkState.isConnected && isWaitingForNetwork) {
+            Logger.d(TAG, "Network available, waking up emitter.")
+            flush()
+        } else if (networkState.isConnected && !networkState.isMetered && deliveryRules.isNotEmpty()) {
+            Logger.d(TAG, "Unmetered network available, waking up emitter.")
+            flush()
+        }
+    }
+
+    // Sends the events held back by the delivery condition rules once the device is charging.
+    private val powerListener: (Boolean) -> Unit = { isCharging ->
+        if (isCharging && deliveryRules.isNotEmpty()) {
+            Logger.d(TAG, "Device charging, waking up emitter.")
+            flush()
+        }
+    }
+
+    // Sends the events deferred until the radio is active as soon as other traffic wakes it up.
+    private val networkActiveListener: () -> Unit = {
+        if (radioDeferral.isDeferring) {
+            Logger.d(TAG, "Radio active, waking up emitter.")
+            flush()
+        }
+    }
+
+    // When the app enters the background, drains the event store within the background flush timeout
+    // and schedules the background upload job for the events left.
+    private val lifecycleObserver = object : NotificationCenter.FunctionalObserver() {
+        override fun apply(data: Map<String, Any>) {
+            if (data["isForeground"] != false) {
+                return
+            }
+            val flushTimeout = backgroundFlushTimeout
+            if (flushTimeout.isPositive()) {
+                startBackgroundFlush(flushTimeout)
+            } else if (backgroundUpload) {
+                Executor.execute(Executor.Lane.Disk, TAG) {
+                    if (this@Emitter.eventStore.size() > 0) {
+                        scheduleBackgroundUpload()
+                    }
+                }
+            }
+        }
+    }
+
+    private val drainCount = AtomicInteger(0)
+    private val backgroundFlush = AtomicReference<BackgroundFlush?>()
+
+    private val inFlightLock = ReentrantLock()
+    private val inFlightEventIds = HashSet<Long>()
+    private var inFlightBatches = 0
+    private var inFlightBytes: Long = 0
+    // Signalled when a batch completes or the emission loop stops, for the threads waiting in drain
+    private val progressCondition = inFlightLock.newCondition()
+    private var progressCount: Long = 0
+
+    private var consecutiveFailures = 0
+    @Volatile
+    private var backoffUntil: Long = 0
+    private var backoffFuture: ScheduledFuture<*>? = null
 
     /**
      * This configuration option is not published in the EmitterConfiguration class.
      * Create an Emitter and Tracker directly, not via the Snowplow interface, to configure timeUnit.
      */
+    @Deprecated("The emitter no longer polls the event store while it is empty.")
     var timeUnit: TimeUnit = EmitterDefaults.timeUnit
         set(unit) {
             if (!builderFinished) {
@@ -94,6 +204,11 @@ class Emitter(
      */
     val eventStore: EventStore = eventStore ?: SQLiteEventStore(context, namespace)
 
+    /**
+     * Counters, gauges and latency histograms of the emitter, see [MetricNames].
+     */
+    val metrics = MetricsRegistry()
+
     /**
      * This configuration option is not published in the EmitterConfiguration class.
      * Create an Emitter and Tracker directly, not via the Snowplow interface, to configure tlsVersions.
@@ -105,6 +220,7 @@ class Emitter(
      * The emitter tick. This configuration option is not published in the EmitterConfiguration class.
      * Create an Emitter and Tracker directly, not via the Snowplow interface, to configure emitterTick.
      */
+    @Deprecated("The emitter no longer polls the event store while it is empty.")
     var emitterTick: Int = EmitterDefaults.emitterTick
 
     /**
@@ -112,6 +228,7 @@ class Emitter(
      * This configuration option is not published in the EmitterConfiguration class.
      * Create an Emitter and Tracker directly, not via the Snowplow interface, to configure emptyLimit.
      */
+    @Deprecated("The emitter no longer polls the event store while it is empty.")
     var emptyLimit: Int = EmitterDefaults.emptyLimit
 
     /**
@@ -135,32 +252,47 @@ class Emitter(
     var requestCallback: RequestCallback? = null
 
     /**
-     * The emitter status
+     * The emitter status, true while events are being sent.
      */
     val emitterStatus: Boolean
-        get() = isRunning.get()
+        get() = state == EmitterState.Sending
+
+    /**
+     * The current state of the emitter.
+     */
+    val state: EmitterState
+        get() = _state.get()
+
+    /**
+     * The state of the circuit breaker that stops requests to the collector after consecutive failures.
+     */
+    val circuitBreakerState: CircuitBreakerState
+        get() = circuitBreaker.state
 
     /**
-     * The URI for the Emitter
+     * The URI for the Emitter.
+     * With several collector [endpoints], it's the URI of the endpoint the next requests will be sent to.
+     * Setting it replaces the collector endpoints with the single URI.
      */
     var emitterUri: String
         get() = networkConnection?.uri.toString()
         set(uri) {
             this.uri = uri
+            endpoints = emptyList()
+        }
+
+    /**
+     * The collector endpoints that events are sent to, if there is more than one.
+     * The emitter sends to the endpoint with the best latency and error score and fails over to
+     * the others, see [FailoverNetworkConnection].
+     * Ignored if using a custom network connection.
+     */
+    var endpoints: List<CollectorEndpoint> = emptyList()
+        set(endpoints) {
+            field = endpoints
+            circuitBreaker.reset()
             if (!isCustomNetworkConnection && builderFinished) {
-                networkConnection =
-                    emitTimeout?.let {
-                        OkHttpNetworkConnectionBuilder(uri, context)
-                            .method(httpMethod)
-                            .tls(tlsVersions)
-                            .emitTimeout(it)
-                            .customPostPath(customPostPath)
-                            .client(client)
-                            .cookieJar(cookieJar)
-                            .serverAnonymisation(serverAnonymisation)
-                            .requestHeaders(requestHeaders)
-                            .build()
-                    }
+                networkConnection = makeNetworkConnection()
             }
         }
 
@@ -175,19 +307,7 @@ class Emitter(
         set(method) {
             field = method
             if (!isCustomNetworkConnection && builderFinished) {
-                networkConnection = emitTimeout?.let {
-                    OkHttpNetworkConnectionBuilder(uri, context)
-                        .method(httpMethod)
-                        .tls(tlsVersions)
-                        .emitTimeout(it)
-                        .customPostPath(customPostPath)
-                        .client(client)
-                        .cookieJar(cookieJar)
-                        .serverAnonymisation(serverAnonymisation)
-                        .requestHeaders(requestHeaders)
-                        .build()
-                }
-                
+                networkConnection = makeNetworkConnection()
             }
         }
 
@@ -216,19 +336,7 @@ class Emitter(
         set(security) {
             field = security
             if (!isCustomNetworkConnection && builderFinished) {
-                networkConnection = emitTimeout?.let {
-                    OkHttpNetworkConnectionBuilder(uri, context)
-                        .method(httpMethod)
-                        .tls(tlsVersions)
-                        .emitTimeout(it)
-                        .customPostPath(customPostPath)
-                        .client(client)
-                        .cookieJar(cookieJar)
-                        .serverAnonymisation(serverAnonymisation)
-                        .requestHeaders(requestHeaders)
-                        .build()
-                }
-                
+                networkConnection = makeNetworkConnection()
             }
         }
 
@@ -245,16 +353,7 @@ class Emitter(
             emitTimeout?.let { 
                 field = emitTimeout
                 if (!isCustomNetworkConnection && builderFinished) {
-                    networkConnection = OkHttpNetworkConnectionBuilder(uri, context)
-                        .method(httpMethod)
-                        .tls(tlsVersions)
-                        .emitTimeout(emitTimeout)
-                        .customPostPath(customPostPath)
-                        .client(client)
-                        .cookieJar(cookieJar)
-                        .serverAnonymisation(serverAnonymisation)
-                        .requestHeaders(requestHeaders)
-                        .build()
+                    networkConnection = makeNetworkConnection()
                 }
             }
         }
@@ -266,19 +365,7 @@ class Emitter(
         set(customPostPath) {
             field = customPostPath
             if (!isCustomNetworkConnection && builderFinished) {
-                networkConnection = emitTimeout?.let {
-                    OkHttpNetworkConnectionBuilder(uri, context)
-                        .method(httpMethod)
-                        .tls(tlsVersions)
-                        .emitTimeout(it)
-                        .customPostPath(customPostPath)
-                        .client(client)
-                        .cookieJar(cookieJar)
-                        .serverAnonymisation(serverAnonymisation)
-                        .requestHeaders(requestHeaders)
-                        .build()
-                }
-                
+                networkConnection = makeNetworkConnection()
             }
         }
     
@@ -302,8 +389,12 @@ class Emitter(
          */
         set(serverAnonymisation) {
             field = serverAnonymisation
-            if (!isCustomNetworkConnection && builderFinished && networkConnection is OkHttpNetworkConnection) {
-                (networkConnection as OkHttpNetworkConnection).serverAnonymisation = serverAnonymisation
+            if (!isCustomNetworkConnection && builderFinished) {
+                val connection = networkConnection
+                val connections = if (connection is FailoverNetworkConnection) connection.connections else listOfNotNull(connection)
+                connections.filterIsInstance<OkHttpNetworkConnection>().forEach {
+                    it.serverAnonymisation = serverAnonymisation
+                }
             }
         }
 
@@ -333,21 +424,44 @@ class Emitter(
         set(requestHeaders) {
             field = requestHeaders
             if (!isCustomNetworkConnection && builderFinished) {
-                networkConnection = emitTimeout?.let {
-                    OkHttpNetworkConnectionBuilder(uri, context)
-                        .method(httpMethod)
-                        .tls(tlsVersions)
-                        .emitTimeout(it)
-                        .customPostPath(customPostPath)
-                        .client(client)
-                        .cookieJar(cookieJar)
-                        .serverAnonymisation(serverAnonymisation)
-                        .requestHeaders(requestHeaders)
-                        .build()
-                }
+                networkConnection = makeNetworkConnection()
             }
         }
 
+    /**
+     * Whether the bodies of POST requests are compressed using gzip.
+     */
+    var compressPostBody: Boolean = EmitterDefaults.compressPostBody
+        /**
+         * Updates whether the bodies of POST requests are compressed.
+         * Ignored if using a custom network connection.
+         */
+        set(compressPostBody) {
+            field = compressPostBody
+            if (!isCustomNetworkConnection && builderFinished) {
+                networkConnection = makeNetworkConnection()
+            }
+        }
+
+    /**
+     * Whether the POST byte limit applies to the compressed size of the requests.
+     * The compressed size is estimated from the compression ratio observed on previous requests,
+     * so the limit applies to the uncompressed size until the first compressed request is sent.
+     * Only has an effect if POST bodies are compressed.
+     */
+    var byteLimitOnCompressedSize: Boolean = EmitterDefaults.byteLimitOnCompressedSize
+
+    /**
+     * Whether the SQLite event store also keeps the JSON of the events as it is sent to the collector,
+     * so that POST requests are assembled from the stored bytes without decoding and serializing the events.
+     * Has no effect with a custom event store.
+     */
+    var wireFormatStorage: Boolean = EmitterDefaults.wireFormatStorage
+        set(value) {
+            field = value
+            (eventStore as? SQLiteEventStore)?.wireFormat = value
+        }
+
     /**
      * Limit for the maximum number of unsent events to keep in the event store.
      */
@@ -358,6 +472,166 @@ class Emitter(
      */
     var maxEventStoreAge: Duration = EmitterDefaults.maxEventStoreAge
 
+    /**
+     * Maximum number of batches of events read from the event store that can be sent at the same time.
+     * With the default of 1 the emitter waits for each batch to be sent before reading the next one.
+     */
+    var maxInFlightBatches: Int
+        get() = batchController.maxInFlightBatches
+        set(value) { batchController.maxInFlightBatches = value }
+
+    /**
+     * Maximum number of payload bytes that can be in flight at the same time.
+     * A single batch is always sent even if it exceeds the limit.
+     */
+    var maxInFlightBytes: Long = EmitterDefaults.maxInFlightBytes
+
+    /**
+     * Whether the number of events read for each emit attempt and the number of batches in flight
+     * adapt to the latency and errors of the requests.
+     * When enabled, [emitRange] is replaced by values between [minEmitRange] and [maxEmitRange]
+     * and up to [maxInFlightBatches] batches are sent at the same time.
+     */
+    var adaptiveBatching: Boolean = EmitterDefaults.adaptiveBatching
+
+    /**
+     * The minimum number of events to read for an emit attempt when using adaptive batching.
+     */
+    var minEmitRange: Int
+        get() = batchController.minEmitRange
+        set(value) { batchController.minEmitRange = value }
+
+    /**
+     * The maximum number of events to read for an emit attempt when using adaptive batching.
+     */
+    var maxEmitRange: Int
+        get() = batchController.maxEmitRange
+        set(value) { batchController.maxEmitRange = value }
+
+    /**
+     * The number of consecutive failed batches after which the circuit breaker opens
+     * and stops sending requests to the collector, 0 to disable the circuit breaker.
+     */
+    var circuitBreakerThreshold: Int
+        get() = circuitBreaker.failureThreshold
+        set(value) { circuitBreaker.failureThreshold = value }
+
+    /**
+     * The time the circuit breaker stays open before probing the collector with a single batch.
+     */
+    var circuitBreakerCooldown: Duration
+        get() = circuitBreaker.cooldownMillis.milliseconds
+        set(value) { circuitBreaker.cooldownMillis = value.inWholeMilliseconds }
+
+    /**
+     * The maximum number of payload bytes sent per second, 0 for no limit.
+     */
+    var maxBytesPerSecond: Long
+        get() = rateLimiter.bytesPerSecond
+        set(value) { rateLimiter.bytesPerSecond = value }
+
+    /**
+     * The maximum number of requests sent per second, 0 for no limit.
+     */
+    var maxRequestsPerSecond: Double
+        get() = rateLimiter.requestsPerSecond
+        set(value) { rateLimiter.requestsPerSecond = value }
+
+    /**
+     * The maximum time to defer sending events on a cellular network until the radio is active,
+     * or zero to never defer them.
+     */
+    var maxRadioDeferral: Duration
+        get() = radioDeferral.maxDelayMillis.milliseconds
+        set(value) {
+            radioDeferral.maxDelayMillis = value.inWholeMilliseconds
+            if (!value.isPositive()) {
+                ConnectivityMonitor.removeNetworkActiveListener(networkActiveListener)
+            }
+        }
+
+    /**
+     * The priority of self-describing events by schema rule, e.g. `iglu:com.acme/purchase/jsonschema/1-*-*`.
+     * Events are stored with the priority of the first matching rule unless they set their own.
+     */
+    var eventPriorityRules: Map<String, EventPriority> = EmitterDefaults.eventPriorityRules
+        set(value) {
+            field = value
+            priorityRules = value.mapNotNull { (rule, priority) ->
+                SchemaRule.build(rule)?.let { Pair(it, priority) } ?: run {
+                    Logger.e(TAG, "Invalid event priority rule: %s", rule)
+                    null
+                }
+            }
+        }
+
+    /**
+     * The condition under which self-describing events are sent by schema rule,
+     * e.g. `iglu:com.snowplowanalytics.snowplow/list_item_view/jsonschema/1-*-*`.
+     * Events are stored with the condition of the first matching rule, or sent on any network otherwise.
+     */
+    var deliveryConditionRules: Map<String, DeliveryCondition> = EmitterDefaults.deliveryConditionRules
+        set(value) {
+            field = value
+            deliveryRules = value.mapNotNull { (rule, condition) ->
+                SchemaRule.build(rule)?.let { Pair(it, condition) } ?: run {
+                    Logger.e(TAG, "Invalid delivery condition rule: %s", rule)
+                    null
+                }
+            }
+            // Events stored with a charging condition by a previous configuration may be held
+            // even if none of the new rules use it
+            if (value.isNotEmpty()) {
+                PowerMonitor.start(context)
+            }
+        }
+
+    /**
+     * Whether to send the events left in the event store with a background job when the app
+     * enters the background, even if its process is killed afterwards.
+     */
+    var backgroundUpload: Boolean = EmitterDefaults.backgroundUpload
+        set(value) {
+            field = value
+            if (!builderFinished) {
+                return
+            }
+            if (value) {
+                ProcessObserver.initialize(context)
+            } else {
+                BackgroundUpload.cancel(context, namespace)
+            }
+        }
+
+    /**
+     * The maximum time the background upload job spends sending events.
+     */
+    var backgroundUploadTimeBudget: Duration = EmitterDefaults.backgroundUploadTimeBudget
+
+    /**
+     * The maximum time spent sending the events in the event store when the app enters the background,
+     * or zero to disable the flush.
+     */
+    var backgroundFlushTimeout: Duration = EmitterDefaults.backgroundFlushTimeout
+        set(value) {
+            field = value
+            if (builderFinished && value.isPositive()) {
+                ProcessObserver.initialize(context)
+            }
+        }
+
+    /**
+     * The number of events currently read for an emit attempt.
+     */
+    val currentEmitRange: Int
+        get() = if (adaptiveBatching) batchController.emitRange else emitRange
+
+    /**
+     * The number of batches that can currently be sent at the same time.
+     */
+    val currentMaxInFlightBatches: Int
+        get() = if (adaptiveBatching) batchController.inFlightBatches else maxInFlightBatches
+
     /**
      * Creates an emitter object
      */
@@ -367,77 +641,349 @@ class Emitter(
 
         if (networkConnection == null) {
             isCustomNetworkConnection = false
-            var endpoint = collectorUri
-            if (!endpoint.startsWith("http")) {
-                val protocol =
-                    if (requestSecurity === Protocol.HTTPS) "https://" else "http://"
-                endpoint = protocol + endpoint
-            }
-            uri = endpoint
-            networkConnection = emitTimeout?.let {
-                OkHttpNetworkConnectionBuilder(endpoint, context)
-                    .method(httpMethod)
-                    .tls(tlsVersions)
-                    .emitTimeout(it)
-                    .customPostPath(customPostPath)
-                    .client(client)
-                    .cookieJar(cookieJar)
-                    .serverAnonymisation(serverAnonymisation)
-                    .requestHeaders(requestHeaders)
-                    .build()
-            }
+            uri = withProtocol(collectorUri)
+            networkConnection = makeNetworkConnection()
         } else {
             isCustomNetworkConnection = true
         }
         
-        if (threadPoolSize > 2) {
-            Executor.threadCount = threadPoolSize
+        metrics.gauge(MetricNames.QUEUE_SIZE) { this.eventStore.size() }
+        metrics.gauge(MetricNames.BATCHES_IN_FLIGHT) { inFlightLock.withLock { inFlightBatches.toLong() } }
+        metrics.gauge(MetricNames.EMIT_RANGE) { currentEmitRange.toLong() }
+        metrics.gauge(MetricNames.CIRCUIT_BREAKER_STATE) { circuitBreaker.state.code.toLong() }
+        ConnectivityMonitor.start(context)
+        ConnectivityMonitor.addListener(connectivityListener)
+        PowerMonitor.addListener(powerListener)
+        NotificationCenter.addObserver("SnowplowLifecycleTracking", lifecycleObserver)
+        BackgroundUpload.register(namespace, this)
+        if (backgroundUpload || backgroundFlushTimeout.isPositive()) {
+            ProcessObserver.initialize(context)
         }
         builderFinished = true
         Logger.v(TAG, "Emitter created successfully!")
     }
+
+    /**
+     * Creates the connection to the collector URI, or a [FailoverNetworkConnection]
+     * across the collector endpoints if there is more than one.
+     */
+    private fun makeNetworkConnection(): NetworkConnection? {
+        val emitTimeout = emitTimeout ?: return null
+        val endpoints = endpoints
+        if (endpoints.size < 2) {
+            return makeOkHttpNetworkConnection(uri, emitTimeout)
+        }
+        return FailoverNetworkConnection(
+            endpoints.map { makeOkHttpNetworkConnection(withProtocol(it.endpoint), emitTimeout) },
+            endpoints.map { it.weight }
+        )
+    }
+
+    private fun makeOkHttpNetworkConnection(uri: String, emitTimeout: Int): OkHttpNetworkConnection {
+        return OkHttpNetworkConnectionBuilder(uri, context)
+            .method(httpMethod)
+            .tls(tlsVersions)
+            .emitTimeout(emitTimeout)
+            .customPostPath(customPostPath)
+            .client(client)
+            .cookieJar(cookieJar)
+            .serverAnonymisation(serverAnonymisation)
+            .requestHeaders(requestHeaders)
+            .compressPostBody(compressPostBody)
+            .build()
+    }
+
+    private fun withProtocol(endpoint: String): String {
+        if (endpoint.startsWith("http")) {
+            return endpoint
+        }
+        val protocol = if (requestSecurity === Protocol.HTTPS) "https://" else "http://"
+        return protocol + endpoint
+    }
     
     // --- Controls
     
     /**
      * Adds a payload to the EventStore and
-     * then attempts to start the emitter
-     * if it is not currently running.
+     * then wakes up the emitter if the
+     * buffer option threshold is reached
+     * or the event has a high priority.
+     * The events added while a storage task is running are stored together by the next one,
+     * in a single transaction, so that a burst of events doesn't pay for one commit per event.
      *
      * @param payload the event payload
      * to be added.
+     * @param priority the priority of the event.
+     * @param deliveryCondition the condition under which the event can be sent.
      */
-    fun add(payload: Payload) {
-        Executor.execute(TAG) {
-            eventStore.add(payload)
-            if (eventStore.size() >= bufferOption.code && isRunning.compareAndSet(false, true)) {
-                try {
-                    removeOldEvents()
-                    attemptEmit(networkConnection)
-                } catch (t: Throwable) {
-                    isRunning.set(false)
-                    Logger.e(TAG, "Received error during emission process: %s", t)
-                }
+    @JvmOverloads
+    fun add(
+        payload: Payload,
+        priority: EventPriority = EventPriority.Normal,
+        deliveryCondition: DeliveryCondition = DeliveryCondition.Always
+    ) {
+        pendingEvents.add(SQLiteEventStore.WaitingEvent(payload, priority, deliveryCondition))
+        // Only the first pending event starts a storage task, the running one drains the following ones
+        if (pendingEventsCount.getAndIncrement() == 0) {
+            Executor.execute(Executor.Lane.Disk, TAG) { storePendingEvents() }
+        }
+    }
+
+    private fun storePendingEvents() {
+        do {
+            val events = ArrayList<SQLiteEventStore.WaitingEvent>()
+            while (events.size < MAX_STORE_BATCH_SIZE) {
+                events.add(pendingEvents.poll() ?: break)
             }
+            if (events.isNotEmpty()) {
+                storeEvents(events)
+            }
+        } while (pendingEventsCount.addAndGet(-events.size) > 0)
+    }
+
+    private fun storeEvents(events: List<SQLiteEventStore.WaitingEvent>) {
+        val store = eventStore
+        if (store is SQLiteEventStore) {
+            if (!store.addAll(events)) {
+                Logger.d(TAG, "Events not committed yet, kept in the waiting list: %d", events.size)
+            }
+        } else {
+            events.forEach { store.add(it.payload, it.priority, it.deliveryCondition) }
+        }
+        metrics.counter(MetricNames.EVENTS_STORED).add(events.size.toLong())
+        if (events.any { it.priority == EventPriority.High }) {
+            isHighPriorityPending.set(true)
+            flush()
+        } else if (store.size() >= bufferOption.code) {
+            flush()
         }
     }
 
     /**
-     * Attempts to start the emitter if it
-     * is not currently running.
+     * Returns the priority assigned by the [eventPriorityRules] to events with the given schema.
+     *
+     * @param schema the schema of the self-describing event, or null for other events.
+     * @return the priority of the first matching rule, or [EventPriority.Normal].
+     */
+    fun priorityForSchema(schema: String?): EventPriority {
+        if (schema == null) {
+            return EventPriority.Normal
+        }
+        return priorityRules.firstOrNull { it.first.matchWithSchema(schema) }?.second ?: EventPriority.Normal
+    }
+
+    /**
+     * Returns the delivery condition assigned by the [deliveryConditionRules] to events with the given schema.
+     *
+     * @param schema the schema of the self-describing event, or null for other events.
+     * @return the condition of the first matching rule, or [DeliveryCondition.Always].
+     */
+    fun deliveryConditionForSchema(schema: String?): DeliveryCondition {
+        if (schema == null) {
+            return DeliveryCondition.Always
+        }
+        return deliveryRules.firstOrNull { it.first.matchWithSchema(schema) }?.second ?: DeliveryCondition.Always
+    }
+
+    /**
+     * Wakes up the emitter to send any queued events.
+     * If the network lane rejects the wake-up because its queue is full, it is retried shortly,
+     * so that the events aren't left in the store until the next one.
      */
     fun flush() {
-        Executor.execute(TAG) {
-            if (isRunning.compareAndSet(false, true)) {
-                try {
-                    removeOldEvents()
-                    attemptEmit(networkConnection)
-                } catch (t: Throwable) {
-                    isRunning.set(false)
-                    Logger.e(TAG, "Received error during emission process: %s", t)
+        if (!Executor.tryExecute(Executor.Lane.Network, TAG) { requestEmit() }) {
+            scheduleRetry(REJECTED_WAKE_UP_RETRY_DELAY)
+        }
+    }
+
+    /**
+     * Sends as many events from the event store as possible within the timeout,
+     * keeping more batches in flight than usual, and blocks the calling thread until done.
+     * It ends early if the store is emptied, the emitter is paused, offline or backing off.
+     * It must not be called on the main thread or the tracker executor threads.
+     *
+     * @param timeout the maximum time to spend sending events.
+     * @return the number of delivered events and the number of events left in the store.
+     */
+    fun flush(timeout: Duration): FlushResult {
+        return drain(System.currentTimeMillis() + timeout.inWholeMilliseconds) { false }
+    }
+
+    /**
+     * Sends events until the deadline, see [flush].
+     *
+     * @param deadline the time to stop at, in milliseconds since epoch.
+     * @param isStopped whether the caller asked to stop before the deadline.
+     */
+    internal fun drain(deadline: Long, isStopped: () -> Boolean): FlushResult {
+        val sentBefore = metrics.counter(MetricNames.EVENTS_SENT).count
+        drainCount.incrementAndGet()
+        try {
+            var progress = inFlightLock.withLock { progressCount }
+            flush()
+            var lastSize = -1L
+            var idleWakeUps = 0
+            while (!isStopped()) {
+                val remainingTime = deadline - System.currentTimeMillis()
+                if (remainingTime <= 0) {
+                    break
+                }
+                // Waits for a batch to complete or the emission loop to stop instead of polling the store,
+                // waking up regularly to check whether the caller stopped
+                progress = awaitProgress(progress, remainingTime.coerceAtMost(DRAIN_STOP_CHECK_INTERVAL))
+                    ?: continue
+                // Events held back by their delivery condition can't be sent during the flush
+                val size = eventStore.size() - heldEventsCount()
+                if (size <= 0L) {
+                    break
+                }
+                if (size != lastSize) {
+                    lastSize = size
+                    idleWakeUps = 0
+                }
+                when (state) {
+                    EmitterState.BackingOff, EmitterState.Paused -> break
+                    EmitterState.Sending -> {}
+                    EmitterState.Idle -> {
+                        // A retry scheduled before the deadline, e.g. once the rate limiter allows it,
+                        // will send the events, so the emitter is waited for
+                        if (isRetryScheduledWithin(deadline - System.currentTimeMillis())) {
+                            idleWakeUps = 0
+                            continue
+                        }
+                        // Idle without progress, e.g. offline or the events are waiting to be retried later
+                        if (!ConnectivityMonitor.isOnline || ++idleWakeUps > MAX_IDLE_DRAIN_WAKE_UPS) {
+                            break
+                        }
+                        flush()
+                    }
                 }
             }
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        } finally {
+            drainCount.decrementAndGet()
         }
+        return flushResult(sentBefore)
+    }
+
+    /**
+     * Waits until a batch completes or the emission loop stops after the given progress.
+     *
+     * @return the new progress, or null if the timeout elapsed first.
+     */
+    @Throws(InterruptedException::class)
+    private fun awaitProgress(since: Long, timeout: Long): Long? {
+        inFlightLock.withLock {
+            var nanos = TimeUnit.MILLISECONDS.toNanos(timeout)
+            while (progressCount == since) {
+                if (nanos <= 0) {
+                    return null
+                }
+                nanos = progressCondition.awaitNanos(nanos)
+            }
+            return progressCount
+        }
+    }
+
+    private fun signalProgress() {
+        inFlightLock.withLock {
+            progressCount++
+            progressCondition.signalAll()
+        }
+    }
+
+    private fun flushResult(sentBefore: Long): FlushResult {
+        val held = heldEventsCount()
+        return FlushResult(
+            metrics.counter(MetricNames.EVENTS_SENT).count - sentBefore,
+            (eventStore.size() - held).coerceAtLeast(0),
+            held
+        )
+    }
+
+    /**
+     * Sends events with the larger window of a [drain] until the timeout, like [flush] with a timeout
+     * but without blocking a thread, then schedules the background upload job for the events left.
+     * The flush ends early once the events that can be sent are sent.
+     */
+    private fun startBackgroundFlush(timeout: Duration) {
+        val pendingFlush = BackgroundFlush(metrics.counter(MetricNames.EVENTS_SENT).count)
+        // A flush still running from a previous transition already covers the events
+        if (!backgroundFlush.compareAndSet(null, pendingFlush)) {
+            return
+        }
+        drainCount.incrementAndGet()
+        pendingFlush.timeoutFuture = Executor.schedule(
+            Executor.Lane.Disk, TAG, timeout.inWholeMilliseconds, TimeUnit.MILLISECONDS
+        ) { finishBackgroundFlush(pendingFlush) }
+        if (pendingFlush.timeoutFuture == null) {
+            // Without the timer the flush can't be timed, so it ends right away
+            Executor.execute(Executor.Lane.Disk, TAG) { finishBackgroundFlush(pendingFlush) }
+        }
+        flush()
+    }
+
+    /**
+     * Ends the background flush once the emission loop stopped with nothing left to send.
+     */
+    private fun checkBackgroundFlush() {
+        val pendingFlush = backgroundFlush.get() ?: return
+        if (state == EmitterState.Idle && eventStore.size() - heldEventsCount() <= 0) {
+            finishBackgroundFlush(pendingFlush)
+        }
+    }
+
+    private fun finishBackgroundFlush(pendingFlush: BackgroundFlush) {
+        if (!backgroundFlush.compareAndSet(pendingFlush, null)) {
+            return
+        }
+        pendingFlush.timeoutFuture?.cancel(false)
+        drainCount.decrementAndGet()
+        val result = flushResult(pendingFlush.sentBefore)
+        Logger.d(TAG, "Background flush delivered %s events, %s remaining, %s held.",
+            result.delivered, result.remaining, result.held)
+        if (!result.isComplete) {
+            scheduleBackgroundUpload()
+        }
+    }
+
+    private class BackgroundFlush(val sentBefore: Long) {
+        @Volatile
+        var timeoutFuture: ScheduledFuture<*>? = null
+    }
+
+    /**
+     * Whether an emission is scheduled to run within the given time.
+     */
+    @Synchronized
+    private fun isRetryScheduledWithin(millis: Long): Boolean {
+        val scheduledFuture = backoffFuture ?: return false
+        return !scheduledFuture.isDone && scheduledFuture.getDelay(TimeUnit.MILLISECONDS) < millis
+    }
+
+    /**
+     * The number of stored events held back because their delivery condition is not satisfied.
+     * Only known for the SQLite event store, other stores report 0.
+     */
+    private fun heldEventsCount(): Long {
+        val satisfied = satisfiedDeliveryConditions()
+        if (satisfied.size == ALL_DELIVERY_CONDITIONS.size) {
+            return 0
+        }
+        val held = ALL_DELIVERY_CONDITIONS.filterNotTo(EnumSet.noneOf(DeliveryCondition::class.java)) {
+            satisfied.contains(it)
+        }
+        return (eventStore as? SQLiteEventStore)?.count(held) ?: 0
+    }
+
+    private fun scheduleBackgroundUpload() {
+        if (!backgroundUpload) {
+            return
+        }
+        // A custom client or cookie jar can't be recreated by the job after the process is killed
+        val collectorUri = if (isCustomNetworkConnection || client != null || cookieJar != null) null else uri
+        BackgroundUpload.schedule(context, namespace, this, collectorUri)
     }
 
     /**
@@ -445,6 +991,9 @@ class Emitter(
      */
     fun pauseEmit() {
         isEmittingPaused.set(true)
+        if (!isRunning.get()) {
+            _state.set(EmitterState.Paused)
+        }
     }
 
     /**
@@ -452,31 +1001,41 @@ class Emitter(
      */
     fun resumeEmit() {
         if (isEmittingPaused.compareAndSet(true, false)) {
+            _state.compareAndSet(EmitterState.Paused, EmitterState.Idle)
             flush()
         }
     }
 
     /**
-     * Resets the `isRunning` truth to false and shutdown.
+     * Stops the emitter and shuts down the executor.
      */
     fun shutdown() {
         shutdown(0)
     }
 
     /**
-     * Resets the `isRunning` truth to false and shutdown.
+     * Stops the emitter and shuts down the executor.
+     * The events in the event store are sent first, as with [flush], within the timeout.
      *
-     * @param timeout the amount of seconds to wait for the termination of the running threads.
+     * @param timeout the amount of seconds to wait for the events to be sent
+     * and the termination of the running threads.
      */
     fun shutdown(timeout: Long): Boolean {
         Logger.d(TAG, "Shutting down emitter.")
-        isRunning.compareAndSet(true, false)
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout)
+        if (timeout > 0) {
+            val result = flush(TimeUnit.SECONDS.toMillis(timeout).milliseconds)
+            Logger.d(TAG, "Shutdown flush delivered %s events, %s remaining.", result.delivered, result.remaining)
+        }
+        close()
         
-        val es = Executor.shutdown()
-        return if (es == null || timeout <= 0) {
+        val services = Executor.shutdown()
+        return if (services.isEmpty() || timeout <= 0) {
             true
         } else try {
-            val isTerminated = es.awaitTermination(timeout, TimeUnit.SECONDS)
+            val isTerminated = services.all {
+                it.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+            }
             Logger.d(TAG, "Executor is terminated: $isTerminated")
             isTerminated
         } catch (e: InterruptedException) {
@@ -485,71 +1044,475 @@ class Emitter(
         }
     }
 
+    /**
+     * Stops the emitter from reacting to network and lifecycle changes and cancels scheduled retries,
+     * without shutting down the executor shared with other emitters.
+     */
+    fun close() {
+        ConnectivityMonitor.removeListener(connectivityListener)
+        ConnectivityMonitor.removeNetworkActiveListener(networkActiveListener)
+        PowerMonitor.removeListener(powerListener)
+        NotificationCenter.removeObserver(lifecycleObserver)
+        BackgroundUpload.unregister(namespace, this)
+        synchronized(this) {
+            backoffFuture?.cancel(false)
+            backoffFuture = null
+        }
+    }
+
     private fun removeOldEvents() {
-        eventStore.removeOldEvents(maxEventStoreSize, maxEventStoreAge)
+        val expiredCount = eventStore.removeOldEventsCounting(maxEventStoreSize, maxEventStoreAge)
+        metrics.counter(MetricNames.EVENTS_EXPIRED).add(expiredCount)
     }
 
+    // --- Emission scheduling
+
     /**
-     * Attempts to send events in the database to a collector.
+     * Runs the emission loop on the calling executor thread unless it is already running.
+     * If the loop is running, it is asked to check the event store again before stopping,
+     * so that wake-ups are never lost.
+     */
+    private fun requestEmit() {
+        wakeRequested.set(true)
+        while (isRunning.compareAndSet(false, true)) {
+            try {
+                removeOldEvents()
+                runEmitLoop()
+            } catch (t: Throwable) {
+                _state.set(if (isEmittingPaused.get()) EmitterState.Paused else EmitterState.Idle)
+                Logger.e(TAG, "Received error during emission process: %s", t)
+            } finally {
+                isRunning.set(false)
+                signalProgress()
+            }
+            if (backgroundFlush.get() != null) {
+                checkBackgroundFlush()
+            }
+            if (!wakeRequested.get()) {
+                return
+            }
+        }
+    }
+
+    /**
+     * Sends batches of events until there is nothing left to do.
+     * The loop never blocks waiting for events, the network or in-flight batches:
+     * it stops and is woken up again by [add], [flush], a network becoming available,
+     * a batch completing or the end of a backoff period.
+     */
+    private fun runEmitLoop() {
+        while (true) {
+            wakeRequested.set(false)
+            val nextState = emitNextBatch(networkConnection) ?: continue
+            _state.set(nextState)
+            return
+        }
+    }
+
+    /**
+     * Performs one step of the emission state machine.
+     *
+     * - If the emitter is paused, it stops in the Paused state
+     * - If the circuit breaker is open, it stops in the BackingOff state
+     * and schedules a retry at the end of the cool-down period
+     * - If the circuit breaker is half-open, it sends a single probe batch of one event
+     * - If a previous failure set a backoff period, it stops in the BackingOff state
+     * and schedules a retry at the end of the period
+     * - If the emitter is offline or the store has no events to send, it stops
+     * - If the window of in-flight batches is full, it stops until a batch completes,
+     * though one more batch is allowed for high-priority events
+     * - If the rate limiter is out of tokens, it stops and schedules a retry once they are refilled
+     * - If the events are not urgent and the cellular radio is idle, it stops until the radio
+     * is woken up by other traffic or the maximum radio deferral elapses
+     * - Otherwise it pulls the allowed amount of events not already in flight and
+     * whose delivery condition is satisfied from the database and sends them, in the background if more than one batch can be in flight.
+     * High-priority events are pulled first in their own small batch.
      *
-     * - If the emitter is paused, it will not send
-     * - If the emitter is not online it will not send
-     * - If the emitter is online but there are no events:
-     * + Increment empty counter until emptyLimit reached
-     * + Incurs a backoff period between empty counters
-     * - If the emitter is online and we have events:
-     * + Pulls allowed amount of events from database and
-     * attempts to send.
-     * + If there are failures resets running state
-     * + Otherwise will attempt to emit again
-     */
-    private fun attemptEmit(networkConnection: NetworkConnection?) {
+     * @return the state to stop the loop in, or null to continue with the next batch
+     */
+    private fun emitNextBatch(networkConnection: NetworkConnection?): EmitterState? {
         if (isEmittingPaused.get()) {
             Logger.d(TAG, "Emitter paused.")
-            isRunning.compareAndSet(true, false)
-            return
+            return EmitterState.Paused
+        }
+
+        val breakerState = circuitBreaker.state
+        if (breakerState == CircuitBreakerState.Open) {
+            val cooldown = circuitBreaker.remainingCooldown
+            Logger.d(TAG, "Circuit breaker open for %s ms.", cooldown)
+            scheduleRetry(cooldown)
+            return EmitterState.BackingOff
+        }
+        // The probe is due at the end of the cool-down, regardless of the backoff period
+        val isProbe = breakerState == CircuitBreakerState.HalfOpen
+
+        val backoffDelay = backoffUntil - System.currentTimeMillis()
+        if (!isProbe && backoffDelay > 0) {
+            Logger.d(TAG, "Emitter backing off for %s ms.", backoffDelay)
+            scheduleRetry(backoffDelay)
+            return EmitterState.BackingOff
         }
         
-        if (!Util.isOnline(context)) {
+        if (!ConnectivityMonitor.isOnline) {
             Logger.d(TAG, "Emitter loop stopping: emitter offline.")
-            isRunning.compareAndSet(true, false)
-            return
+            isWaitingForNetwork = true
+            return idleOrSending()
         }
+        isWaitingForNetwork = false
         
         if (networkConnection == null) {
             Logger.d(TAG, "No networkConnection set.")
-            isRunning.compareAndSet(true, false)
-            return
+            return idleOrSending()
         }
-        
-        if (eventStore.size() <= 0) {
-            if (emptyCount >= emptyLimit) {
-                Logger.d(TAG, "Emitter loop stopping: empty limit reached.")
-                isRunning.compareAndSet(true, false)
+
+        // Synchronous connections hold a thread for each batch in flight
+        val maxBatches = if (drainCount.get() > 0) {
+            currentMaxInFlightBatches.coerceAtLeast(DRAIN_MAX_IN_FLIGHT_BATCHES)
+        } else {
+            currentMaxInFlightBatches
+        }
+        val windowSize = if (isProbe) {
+            1
+        } else if (networkConnection is AsyncNetworkConnection) {
+            maxBatches
+        } else {
+            maxBatches.coerceAtMost(threadPoolSize - 2)
+        }
+        val isHighPriority = !isProbe && isHighPriorityPending.get()
+        val excludedIds = inFlightLock.withLock {
+            val maxBatches = windowSize.coerceAtLeast(1) + if (isHighPriority) 1 else 0
+            if (inFlightBatches >= maxBatches) {
+                Logger.d(TAG, "Emitter waiting for batches in flight.")
+                return EmitterState.Sending
+            }
+            HashSet(inFlightEventIds)
+        }
+
+        if (isThrottled()) {
+            return idleOrSending()
+        }
+
+        val deliveryConditions = satisfiedDeliveryConditions()
+        var events = emptyList<EmitterEvent>()
+        if (isHighPriority) {
+            events = eventStore.getEmittableEvents(
+                currentEmitRange.coerceAtMost(HIGH_PRIORITY_EMIT_RANGE),
+                excludedIds,
+                EventPriority.High,
+                deliveryConditions
+            )
+            if (events.isEmpty()) {
+                isHighPriorityPending.set(false)
+                // The extra batch is only allowed for high-priority events
+                if (inFlightLock.withLock { inFlightBatches >= windowSize.coerceAtLeast(1) }) {
+                    return EmitterState.Sending
+                }
+            }
+        }
+        if (events.isEmpty()) {
+            events = eventStore.getEmittableEvents(
+                if (isProbe) 1 else currentEmitRange,
+                excludedIds,
+                EventPriority.Low,
+                deliveryConditions
+            )
+        }
+        if (events.isEmpty()) {
+            Logger.d(TAG, "Emitter loop stopping: no events to send.")
+            eventStore.getNextAttemptTime()?.let {
+                scheduleRetry((it - System.currentTimeMillis()).coerceAtLeast(0))
+            }
+            return idleOrSending()
+        }
+        if (isDeferredUntilRadioActive(events)) {
+            return idleOrSending()
+        }
+        _state.set(EmitterState.Sending)
+
+        val eventIds = events.map { it.eventId }
+        val batchBytes = events.sumOf { it.byteSize }
+        val requests = buildRequests(events, networkConnection.httpMethod)
+
+        inFlightLock.withLock {
+            if (inFlightBatches > 0 && inFlightBytes + batchBytes > maxInFlightBytes) {
+                Logger.d(TAG, "Emitter waiting for bytes in flight.")
+                return EmitterState.Sending
+            }
+            inFlightEventIds.addAll(eventIds)
+            inFlightBatches++
+            inFlightBytes += batchBytes
+        }
+        rateLimiter.consume(batchBytes, requests.size)
+
+        if (windowSize > 1 && networkConnection is AsyncNetworkConnection) {
+            sendBatchAsync(networkConnection, requests, events, batchBytes)
+        } else if (windowSize > 1) {
+            val isQueued = Executor.tryExecute(Executor.Lane.Network, TAG) {
+                sendBatch(networkConnection, requests, events, batchBytes)
+                requestEmit()
+            }
+            // The window is already reserved for the batch, so it's sent now if the lane can't take it
+            if (!isQueued) {
+                sendBatch(networkConnection, requests, events, batchBytes)
+            }
+        } else {
+            sendBatch(networkConnection, requests, events, batchBytes)
+        }
+        return null
+    }
+
+    /**
+     * Checks whether the rate limiter allows sending a batch now, otherwise schedules a retry
+     * once it does. The time spent waiting on the limiter is reported in the metrics.
+     */
+    private fun isThrottled(): Boolean {
+        val now = System.currentTimeMillis()
+        val delay = rateLimiter.delayMillis
+        if (delay > 0) {
+            Logger.d(TAG, "Emitter throttled for %s ms.", delay)
+            if (throttledSince == 0L) {
+                throttledSince = now
+            }
+            scheduleRetry(delay)
+            return true
+        }
+        if (throttledSince > 0) {
+            metrics.counter(MetricNames.THROTTLED_TIME).add(now - throttledSince)
+            throttledSince = 0
+        }
+        return false
+    }
+
+    /**
+     * Returns the delivery conditions satisfied by the current network and power state.
+     * Without delivery condition rules all the conditions are satisfied, so that the events
+     * held back by a previous configuration are sent like the other events.
+     */
+    private fun satisfiedDeliveryConditions(): Set<DeliveryCondition> {
+        if (deliveryRules.isEmpty()) {
+            return ALL_DELIVERY_CONDITIONS
+        }
+        val isUnmetered = !ConnectivityMonitor.state.isMetered
+        val isCharging = PowerMonitor.isCharging
+        if (isUnmetered && isCharging) {
+            return ALL_DELIVERY_CONDITIONS
+        }
+        return DeliveryCondition.values().filterTo(EnumSet.noneOf(DeliveryCondition::class.java)) {
+            it.isSatisfied(isUnmetered, isCharging)
+        }
+    }
+
+    /**
+     * Checks whether the events should wait for the cellular radio to be woken up by other traffic,
+     * in which case it schedules a retry at the end of the maximum deferral.
+     * High-priority events, flushes with a timeout and batches sent while others are in flight
+     * are never deferred.
+     */
+    private fun isDeferredUntilRadioActive(events: List<EmitterEvent>): Boolean {
+        if (radioDeferral.maxDelayMillis <= 0) {
+            return false
+        }
+        val isUrgent = drainCount.get() > 0
+                || events.any { it.priority == EventPriority.High }
+                || inFlightLock.withLock { inFlightBatches > 0 }
+        // A network of unknown transport may be cellular
+        val transport = ConnectivityMonitor.state.transport
+        val isRadioActive = isUrgent
+                || (transport != null && transport != ConnectivityMonitor.Transport.Cellular)
+                || ConnectivityMonitor.isDefaultNetworkActive
+        val delay = radioDeferral.delay(isRadioActive)
+        if (delay <= 0) {
+            ConnectivityMonitor.removeNetworkActiveListener(networkActiveListener)
+            return false
+        }
+        Logger.d(TAG, "Emitter waiting for the radio to be active for at most %s ms.", delay)
+        ConnectivityMonitor.addNetworkActiveListener(networkActiveListener)
+        scheduleRetry(delay)
+        return true
+    }
+
+    private fun idleOrSending(): EmitterState {
+        return inFlightLock.withLock {
+            if (inFlightBatches > 0) EmitterState.Sending else EmitterState.Idle
+        }
+    }
+
+    /**
+     * Schedules the emission loop to run at the end of the backoff period
+     * unless an earlier retry is already scheduled.
+     */
+    @Synchronized
+    private fun scheduleRetry(delay: Long) {
+        val scheduledFuture = backoffFuture
+        if (scheduledFuture != null && !scheduledFuture.isDone) {
+            if (scheduledFuture.getDelay(TimeUnit.MILLISECONDS) <= delay) {
                 return
             }
-            emptyCount++
-            Logger.d(TAG, "Emitter database empty: $emptyCount")
-            try {
-                timeUnit.sleep(emitterTick.toLong())
-            } catch (e: InterruptedException) {
-                Logger.e(TAG, "Emitter thread sleep interrupted: $e")
+            scheduledFuture.cancel(false)
+        }
+        // The CPU lane runs the task on the timer thread rather than reject it, and flush()
+        // retries the wake-up if the network lane is full
+        backoffFuture = Executor.schedule(Executor.Lane.Cpu, TAG, delay, TimeUnit.MILLISECONDS) {
+            flush()
+        }
+    }
+
+    /**
+     * Sends a batch of requests and processes the results.
+     * The events in the batch are released from the in-flight window only after
+     * the successfully sent or dropped events are removed from the event store,
+     * so that they can't be selected again by the emission loop.
+     */
+    private fun sendBatch(
+        networkConnection: NetworkConnection,
+        requests: List<Request>,
+        events: List<EmitterEvent>,
+        batchBytes: Long
+    ) {
+        try {
+            val startTime = System.currentTimeMillis()
+            val results = networkConnection.sendRequests(requests)
+            onBatchSent(results, startTime, networkConnection, events)
+        } catch (t: Throwable) {
+            onBatchError(t)
+        } finally {
+            releaseBatch(events, batchBytes)
+        }
+    }
+
+    /**
+     * Sends a batch of requests without holding a thread while they are in flight.
+     * The results are processed on the disk lane of the executor once all the requests
+     * completed, then the emission loop is woken up.
+     */
+    private fun sendBatchAsync(
+        networkConnection: AsyncNetworkConnection,
+        requests: List<Request>,
+        events: List<EmitterEvent>,
+        batchBytes: Long
+    ) {
+        val startTime = System.currentTimeMillis()
+        try {
+            networkConnection.sendRequests(requests) { results ->
+                val onComplete = Runnable {
+                    try {
+                        onBatchSent(results, startTime, networkConnection, events)
+                    } catch (t: Throwable) {
+                        onBatchError(t)
+                    } finally {
+                        releaseBatch(events, batchBytes)
+                    }
+                    flush()
+                }
+                // The batch must be released even if the disk lane rejects the task
+                if (!Executor.tryExecute(Executor.Lane.Disk, TAG, onComplete)) {
+                    onComplete.run()
+                }
             }
-            attemptEmit(networkConnection) // at this point we update network connection since it might be outdated after sleep
+        } catch (t: Throwable) {
+            onBatchError(t)
+            releaseBatch(events, batchBytes)
+        }
+    }
+
+    private fun onBatchSent(
+        results: List<RequestResult>,
+        startTime: Long,
+        networkConnection: NetworkConnection,
+        events: List<EmitterEvent>
+    ) {
+        val latency = System.currentTimeMillis() - startTime
+        metrics.histogram(MetricNames.REQUEST_LATENCY).record(latency)
+        metrics.counter(MetricNames.REQUESTS_SENT).add(results.size.toLong())
+        metrics.counter(MetricNames.REQUESTS_FAILED).add(results.count { !it.isSuccessful }.toLong())
+        updateBatchController(results, latency)
+        processResults(results, networkConnection, events.associateBy { it.eventId })
+    }
+
+    private fun onBatchError(t: Throwable) {
+        Logger.e(TAG, "Received error during emission process: %s", t)
+        updateBackoff(false)
+        if (adaptiveBatching) {
+            batchController.onBatchFailed()
+        }
+    }
+
+    private fun releaseBatch(events: List<EmitterEvent>, batchBytes: Long) {
+        inFlightLock.withLock {
+            inFlightEventIds.removeAll(events.map { it.eventId }.toSet())
+            inFlightBatches--
+            inFlightBytes -= batchBytes
+            progressCount++
+            progressCondition.signalAll()
+        }
+    }
+
+    /**
+     * Shrinks the batches after timeouts or server errors and grows them after successful requests.
+     */
+    private fun updateBatchController(results: List<RequestResult>, latencyMillis: Long) {
+        if (!adaptiveBatching) {
             return
         }
-        
-        emptyCount = 0
-        val events = eventStore.getEmittableEvents(emitRange)
-        val requests = buildRequests(events, networkConnection.httpMethod)
-        val results = networkConnection.sendRequests(requests)
-        
+        if (results.any { it.statusCode < 0 || it.statusCode >= 500 }) {
+            batchController.onBatchFailed()
+        } else if (results.all { it.isSuccessful }) {
+            batchController.onBatchSucceeded(latencyMillis)
+        }
+    }
+
+    /**
+     * Resets the backoff period and closes the circuit breaker after a successful batch, or
+     * extends the backoff period exponentially and counts a failure in the circuit breaker
+     * after a batch that failed completely.
+     * @param retryAfterMillis the delay requested by the collector, if any.
+     */
+    @Synchronized
+    private fun updateBackoff(success: Boolean, retryAfterMillis: Long? = null) {
+        if (success) {
+            consecutiveFailures = 0
+            backoffUntil = 0
+            circuitBreaker.onSuccess()
+        } else {
+            consecutiveFailures++
+            backoffUntil = System.currentTimeMillis() + backoffDelay(consecutiveFailures, retryAfterMillis)
+            if (circuitBreaker.onFailure()) {
+                Logger.e(TAG, "Circuit breaker opened after %s consecutive failures.", consecutiveFailures)
+                metrics.counter(MetricNames.CIRCUIT_BREAKER_OPENED).increment()
+            }
+        }
+    }
+
+    /**
+     * Calculates the delay before retrying after a number of failed attempts.
+     * The delay grows exponentially, half of it is randomised so that devices which failed
+     * at the same time don't retry at the same time, and it's never shorter than the delay
+     * requested by the collector.
+     * @param attempts the number of failed attempts.
+     * @param retryAfterMillis the delay requested by the collector, if any.
+     * @return the delay in milliseconds.
+     */
+    private fun backoffDelay(attempts: Int, retryAfterMillis: Long?): Long {
+        val exponent = (attempts - 1).coerceIn(0, MAX_BACKOFF_EXPONENT)
+        val delay = (BACKOFF_INITIAL_DELAY shl exponent).coerceAtMost(BACKOFF_MAX_DELAY)
+        val jitteredDelay = delay / 2 + Random.nextLong(delay / 2 + 1)
+        val requestedDelay = retryAfterMillis?.coerceAtMost(MAX_RETRY_AFTER_DELAY) ?: 0
+        return maxOf(jitteredDelay, requestedDelay)
+    }
+
+    private fun processResults(
+        results: List<RequestResult>,
+        networkConnection: NetworkConnection,
+        events: Map<Long, EmitterEvent>
+    ) {
         Logger.v(TAG, "Processing emitter results.")
         
         var successCount = 0
         var failedWillRetryCount = 0
         var failedWontRetryCount = 0
         val removableEvents: MutableList<Long> = ArrayList()
+        val retryEvents: MutableList<Long> = ArrayList()
+        var retryAfterMillis: Long? = null
 
         for (res in results) {
             if (res.isSuccessful) {
@@ -557,6 +1520,8 @@ class Emitter(
                 successCount += res.eventIds.size
             } else if (res.shouldRetry(customRetryForStatusCodes, retryFailedRequests)) {
                 failedWillRetryCount += res.eventIds.size
+                retryEvents.addAll(res.eventIds)
+                res.retryAfterMillis?.let { retryAfterMillis = maxOf(retryAfterMillis ?: 0, it) }
                 Logger.e(TAG, "Request sending failed but we will retry later.")
             } else {
                 failedWontRetryCount += res.eventIds.size
@@ -571,6 +1536,13 @@ class Emitter(
             }
         }
         eventStore.removeEvents(removableEvents)
+        if (retryEvents.isNotEmpty()) {
+            val previousAttempts = retryEvents.maxOf { events[it]?.attempts ?: 0 }
+            val delay = backoffDelay(previousAttempts + 1, retryAfterMillis)
+            eventStore.recordFailedAttempt(retryEvents, System.currentTimeMillis() + delay)
+        }
+        
+        recordDeliveryMetrics(results, events, successCount, failedWillRetryCount, failedWontRetryCount)
         
         val allFailureCount = failedWillRetryCount + failedWontRetryCount
         Logger.d(TAG, "Success Count: %s", successCount)
@@ -584,14 +1556,47 @@ class Emitter(
             }
         }
         if (failedWillRetryCount > 0 && successCount == 0) {
-            if (Util.isOnline(context)) {
+            if (ConnectivityMonitor.isOnline) {
                 Logger.e(TAG, "Ensure collector path is valid: %s", networkConnection.uri)
             }
-            Logger.e(TAG, "Emitter loop stopping: failures.")
-            isRunning.compareAndSet(true, false)
-        } else {
-            attemptEmit(networkConnection) // refresh network connection for next emit
+            Logger.e(TAG, "Emitter backing off: failures.")
+            updateBackoff(false, retryAfterMillis)
+        } else if (successCount > 0) {
+            updateBackoff(true)
+        }
+    }
+
+    private fun recordDeliveryMetrics(
+        results: List<RequestResult>,
+        events: Map<Long, EmitterEvent>,
+        successCount: Int,
+        failedWillRetryCount: Int,
+        failedWontRetryCount: Int
+    ) {
+        metrics.counter(MetricNames.EVENTS_SENT).add(successCount.toLong())
+        metrics.counter(MetricNames.EVENTS_RETRIED).add(failedWillRetryCount.toLong())
+        metrics.counter(MetricNames.EVENTS_DROPPED).add(failedWontRetryCount.toLong())
+        
+        val now = System.currentTimeMillis()
+        val deliveryTime = metrics.histogram(MetricNames.EVENT_DELIVERY_TIME)
+        var bytesSent = 0L
+        for (res in results) {
+            if (!res.isSuccessful) continue
+            for (eventId in res.eventIds) {
+                val event = events[eventId] ?: continue
+                bytesSent += event.byteSize
+                val payload = event.payload
+                val deviceTimestamp = if (payload is WireFormatPayload) {
+                    payload.getString(Parameters.DEVICE_TIMESTAMP)
+                } else {
+                    payload.map[Parameters.DEVICE_TIMESTAMP] as? String
+                }
+                deviceTimestamp?.toLongOrNull()?.let {
+                    deliveryTime.record(now - it)
+                }
+            }
         }
+        metrics.counter(MetricNames.BYTES_SENT).add(bytesSent)
     }
 
     /**
@@ -611,34 +1616,37 @@ class Emitter(
     ): List<Request> {
         val requests: MutableList<Request> = ArrayList()
         val sendingTime = Util.timestamp()
+        val sendingTimeBytes = Util.getUTF8Length(",\"${Parameters.SENT_TIMESTAMP}\":\"$sendingTime\"")
         
         if (httpMethod === HttpMethod.GET) {
             for (event in events) {
-                val payload = event?.payload
-                if (payload != null) {
-                    addSendingTimeToPayload(payload, sendingTime)
-                    val isOversize = isOversize(payload, httpMethod)
-                    val request = Request(payload, event.eventId, isOversize)
-                    requests.add(request)
-                }
+                if (event == null) { continue }
+                val byteSize = event.byteSize + sendingTimeBytes
+                addSendingTimeToPayload(event.payload, sendingTime)
+                val isOversize = isOversize(byteSize, byteLimitGet)
+                val request = Request(event.payload, event.eventId, isOversize)
+                requests.add(request)
             }
         } else {
+            val byteLimit = effectiveByteLimitPost()
             var eventIds: MutableList<Long> = ArrayList()
             var eventPayloads: MutableList<Payload> = ArrayList()
+            var eventPayloadsByteSize: Long = 0
 
             for (event in events) {
                 if (event == null) { continue }
                 val payload = event.payload
                 val eventId = event.eventId
+                val byteSize = event.byteSize + sendingTimeBytes
                 addSendingTimeToPayload(payload, sendingTime)
 
                 // Oversize event -> separate requests
-                if (isOversize(payload, httpMethod)) {
+                if (isOversize(byteSize, byteLimit)) {
                     val request = Request(payload, eventId, true)
                     requests.add(request)
                 }
                 // Events up to this one are oversize -> create request for them
-                else if (isOversize(payload, eventPayloads, httpMethod)) {
+                else if (isOversize(byteSize, byteLimit, eventPayloadsByteSize, eventPayloads.size)) {
                     val request = Request(eventPayloads, eventIds)
                     requests.add(request)
 
@@ -649,11 +1657,13 @@ class Emitter(
                     // Build and store the request
                     eventPayloads.add(payload)
                     eventIds.add(eventId)
+                    eventPayloadsByteSize = byteSize
                 }
                 // Add to the list of events for the request
                 else {
                     eventPayloads.add(payload)
                     eventIds.add(eventId)
+                    eventPayloadsByteSize += byteSize
                 }
             }
 
@@ -667,50 +1677,35 @@ class Emitter(
     }
 
     /**
-     * Calculate if the payload exceeds the maximum amount of bytes allowed on configuration.
-     * @param payload to send.
-     * @param httpMethod HTTP method to use (passed in order to ensure consistency within attemptEmit)
-     * @return whether the payload exceeds the maximum size allowed.
+     * The POST byte limit to apply to uncompressed payloads.
+     * When limiting on the compressed size, the configured limit is scaled by the compression ratio
+     * observed by the network connection.
+     * @return the maximum amount of uncompressed bytes allowed in a POST request.
      */
-    private fun isOversize(payload: Payload, httpMethod: HttpMethod): Boolean {
-        return isOversize(payload, ArrayList(), httpMethod)
+    private fun effectiveByteLimitPost(): Long {
+        if (!byteLimitOnCompressedSize || !compressPostBody) return byteLimitPost
+        val current = networkConnection.let { if (it is FailoverNetworkConnection) it.currentConnection else it }
+        val connection = current as? OkHttpNetworkConnection ?: return byteLimitPost
+        val ratio = connection.compressionRatio ?: return byteLimitPost
+        return (byteLimitPost / ratio.coerceIn(MIN_COMPRESSION_RATIO, 1.0)).toLong()
     }
 
     /**
-     * Calculate if the payload bundle exceeds the maximum amount of bytes allowed on configuration.
-     * @param payload to add om the payload bundle.
-     * @param previousPayloads already in the payload bundle.
-     * @param httpMethod HTTP method to use (passed in order to ensure consistency within attemptEmit)
-     * @return whether the payload bundle exceeds the maximum size allowed.
-     */
-    private fun isOversize(
-        payload: Payload,
-        previousPayloads: List<Payload>,
-        httpMethod: HttpMethod
-    ): Boolean {
-        val byteLimit = if (httpMethod === HttpMethod.GET) byteLimitGet else byteLimitPost
-        return isOversize(payload, byteLimit, previousPayloads)
-    }
-
-    /**
-     * Calculate if the payload bundle exceeds the maximum amount of bytes allowed on configuration.
-     * @param payload to add om the payload bundle.
+     * Calculate if a payload, added to a payload bundle, exceeds the maximum amount of bytes allowed.
+     * @param byteSize of the payload to add to the payload bundle.
      * @param byteLimit maximum amount of bytes allowed.
-     * @param previousPayloads already in the payload bundle.
+     * @param previousByteSize of the payloads already in the payload bundle.
+     * @param previousCount number of payloads already in the payload bundle.
      * @return whether the payload bundle exceeds the maximum size allowed.
      */
     private fun isOversize(
-        payload: Payload,
+        byteSize: Long,
         byteLimit: Long,
-        previousPayloads: List<Payload>
+        previousByteSize: Long = 0,
+        previousCount: Int = 0
     ): Boolean {
-        var totalByteSize = payload.byteSize
-        for (previousPayload in previousPayloads) {
-            totalByteSize += previousPayload.byteSize
-        }
-        val wrapperBytes =
-            if (previousPayloads.isNotEmpty()) previousPayloads.size + POST_WRAPPER_BYTES else 0
-        return totalByteSize + wrapperBytes > byteLimit
+        val wrapperBytes = if (previousCount > 0) previousCount + POST_WRAPPER_BYTES else 0
+        return byteSize + previousByteSize + wrapperBytes > byteLimit
     }
 
     /**
@@ -725,6 +1720,18 @@ class Emitter(
     }
     
     companion object {
+        private const val BACKOFF_INITIAL_DELAY: Long = 5000 // milliseconds
+        private const val BACKOFF_MAX_DELAY: Long = 600000 // milliseconds
+        private const val MAX_BACKOFF_EXPONENT = 10
+        private const val MAX_RETRY_AFTER_DELAY: Long = 3600000 // milliseconds
+        private const val REJECTED_WAKE_UP_RETRY_DELAY: Long = 100 // milliseconds
+        private const val MIN_COMPRESSION_RATIO = 0.1
+        private const val HIGH_PRIORITY_EMIT_RANGE = 10
+        private val ALL_DELIVERY_CONDITIONS: Set<DeliveryCondition> = EnumSet.allOf(DeliveryCondition::class.java)
+        private const val DRAIN_MAX_IN_FLIGHT_BATCHES = 4
+        private const val DRAIN_STOP_CHECK_INTERVAL: Long = 1000 // milliseconds
+        private const val MAX_IDLE_DRAIN_WAKE_UPS = 2
+        private const val MAX_STORE_BATCH_SIZE = 100
         private const val POST_WRAPPER_BYTES =
             88 // "schema":"iglu:com.snowplowanalytics.snowplow/payload_data/jsonschema/1-0-3","data":[]
     }
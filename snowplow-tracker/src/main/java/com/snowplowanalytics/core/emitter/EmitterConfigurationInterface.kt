@@ -13,6 +13,8 @@
 package com.snowplowanalytics.core.emitter
 
 import com.snowplowanalytics.snowplow.emitter.BufferOption
+import com.snowplowanalytics.snowplow.emitter.DeliveryCondition
+import com.snowplowanalytics.snowplow.emitter.EventPriority
 import com.snowplowanalytics.snowplow.emitter.EventStore
 import com.snowplowanalytics.snowplow.network.RequestCallback
 import kotlin.time.Duration
@@ -36,7 +38,9 @@ interface EmitterConfigurationInterface {
     var emitRange: Int
 
     /**
-     * Maximum number of threads working in parallel in the tracker to send requests.
+     * Maximum number of threads working in parallel in the emitter to send requests.
+     * It limits the batches in flight of network connections that block while sending.
+     * It doesn't resize the thread pools shared by all the trackers.
      */
     val threadPoolSize: Int
     
@@ -84,4 +88,137 @@ interface EmitterConfigurationInterface {
      * Defaults to 1000.
      */
     var maxEventStoreSize: Long
+
+    /**
+     * Maximum number of batches of events read from the EventStore that can be sent at the same time.
+     * Defaults to 1, in which case the emitter waits for each batch to be sent before reading the next one.
+     */
+    var maxInFlightBatches: Int
+
+    /**
+     * Maximum number of payload bytes that can be in flight at the same time.
+     * A single batch is always sent even if it exceeds the limit.
+     * Defaults to 200000.
+     */
+    var maxInFlightBytes: Long
+
+    /**
+     * Whether the POST byte limit applies to the compressed size of the requests.
+     * Only has an effect if compression of POST bodies is enabled in the network configuration.
+     * The compressed size is estimated using the compression ratio observed on previous requests.
+     * Defaults to false.
+     */
+    var byteLimitOnCompressedSize: Boolean
+
+    /**
+     * Whether to adapt the number of events sent together to the network conditions.
+     * The emitter reads more events for each emit attempt and sends more batches at the same time
+     * while requests succeed quickly, and reduces them after timeouts or server errors.
+     * The values stay between [minEmitRange] and [maxEmitRange] events and up to [maxInFlightBatches] batches.
+     * Defaults to false.
+     */
+    var adaptiveBatching: Boolean
+
+    /**
+     * The minimum number of events to read for an emit attempt when using adaptive batching.
+     * Defaults to 5.
+     */
+    var minEmitRange: Int
+
+    /**
+     * The maximum number of events to read for an emit attempt when using adaptive batching.
+     * Defaults to 150.
+     */
+    var maxEmitRange: Int
+
+    /**
+     * The number of consecutive failed batches after which the circuit breaker opens.
+     * While open, no requests are sent to the collector until the cool-down period elapses,
+     * then a single event is sent to probe the collector and sending resumes if it succeeds.
+     * Set to 0 to disable the circuit breaker.
+     * Defaults to 5.
+     */
+    var circuitBreakerThreshold: Int
+
+    /**
+     * The time the circuit breaker stays open before probing the collector.
+     * Defaults to 60 seconds.
+     */
+    var circuitBreakerCooldown: Duration
+
+    /**
+     * The maximum number of payload bytes sent to the collector per second, e.g. to avoid
+     * competing with the app for bandwidth while catching up after being offline.
+     * Bursts of up to one second worth of bytes are allowed, and a single batch larger than that is still sent.
+     * Set to 0 for no limit.
+     * Defaults to 0.
+     */
+    var maxBytesPerSecond: Long
+
+    /**
+     * The maximum number of requests sent to the collector per second.
+     * Set to 0 for no limit.
+     * Defaults to 0.
+     */
+    var maxRequestsPerSecond: Double
+
+    /**
+     * Whether to send the events left in the event store with a background job when the app
+     * enters the background, even if its process is killed afterwards.
+     * The job is run by the system when a network is available and the battery isn't low.
+     * With a custom network connection, the job can only send events while the app process is alive.
+     * Defaults to false.
+     */
+    var backgroundUpload: Boolean
+
+    /**
+     * The maximum time the background upload job spends sending events.
+     * Defaults to 60 seconds.
+     */
+    var backgroundUploadTimeBudget: Duration
+
+    /**
+     * The maximum time spent sending the events in the event store when the app enters the background,
+     * so that the events of short sessions arrive within seconds rather than at the next launch.
+     * Events left after the timeout are sent by the background upload job if enabled.
+     * Set to 0 to disable the flush.
+     * Defaults to 0.
+     */
+    var backgroundFlushTimeout: Duration
+
+    /**
+     * The maximum time to defer sending events on a cellular network until the radio is already
+     * active for other traffic, to avoid waking it up for each small batch of events.
+     * High-priority events are never deferred.
+     * Set to 0 to never defer events.
+     * Defaults to 0.
+     */
+    var maxRadioDeferral: Duration
+
+    /**
+     * The priority of self-describing events by schema rule, e.g. `iglu:com.acme/purchase/jsonschema/1-*-*`.
+     * High-priority events are sent immediately in their own small batch, low-priority events are
+     * sent last and removed first when the event store is full.
+     * The priority set on an event takes precedence over the rules.
+     * Defaults to no rules, all events have the normal priority.
+     */
+    var eventPriorityRules: Map<String, EventPriority>
+
+    /**
+     * The condition under which self-describing events are sent by schema rule,
+     * e.g. `iglu:com.snowplowanalytics.snowplow/list_item_view/jsonschema/1-*-*`.
+     * Events whose condition is not satisfied, such as an unmetered network or a charging device,
+     * are kept in the event store until it is, while the other events are sent normally.
+     * Removing the rules sends the events kept by previous rules like the other events.
+     * Defaults to no rules, all events are sent on any network.
+     */
+    var deliveryConditionRules: Map<String, DeliveryCondition>
+
+    /**
+     * Whether to store the events in the format they are sent to the collector in, along with their
+     * payload, so that POST requests are assembled from the stored bytes without encoding the events again.
+     * Takes more space in the event store. Only applies to the default SQLite event store.
+     * Defaults to false.
+     */
+    var wireFormatStorage: Boolean
 }
@@ -13,13 +13,20 @@
 package com.snowplowanalytics.core.emitter
 
 import androidx.annotation.RestrictTo
+import androidx.core.util.Consumer
 import com.snowplowanalytics.core.Controller
 import com.snowplowanalytics.core.tracker.Logger
 import com.snowplowanalytics.core.tracker.ServiceProviderInterface
 import com.snowplowanalytics.snowplow.configuration.EmitterConfiguration
 import com.snowplowanalytics.snowplow.controller.EmitterController
 import com.snowplowanalytics.snowplow.emitter.BufferOption
+import com.snowplowanalytics.snowplow.emitter.CircuitBreakerState
+import com.snowplowanalytics.snowplow.emitter.DeliveryCondition
+import com.snowplowanalytics.snowplow.emitter.EmitterState
+import com.snowplowanalytics.snowplow.emitter.EventPriority
 import com.snowplowanalytics.snowplow.emitter.EventStore
+import com.snowplowanalytics.snowplow.emitter.FlushResult
+import com.snowplowanalytics.snowplow.metrics.MetricsSnapshot
 import com.snowplowanalytics.snowplow.network.RequestCallback
 import kotlin.time.Duration
 
@@ -48,7 +55,7 @@ class EmitterControllerImpl(serviceProvider: ServiceProviderInterface) :
         }
 
     override val threadPoolSize: Int
-        get() = Executor.threadCount
+        get() = emitter.threadPoolSize
     
     override var byteLimitGet: Long
         get() = emitter.byteLimitGet
@@ -106,6 +113,125 @@ class EmitterControllerImpl(serviceProvider: ServiceProviderInterface) :
             emitter.maxEventStoreSize = value
         }
 
+    override var maxInFlightBatches: Int
+        get() = emitter.maxInFlightBatches
+        set(value) {
+            dirtyConfig.maxInFlightBatches = value
+            emitter.maxInFlightBatches = value
+        }
+
+    override var maxInFlightBytes: Long
+        get() = emitter.maxInFlightBytes
+        set(value) {
+            dirtyConfig.maxInFlightBytes = value
+            emitter.maxInFlightBytes = value
+        }
+
+    override var byteLimitOnCompressedSize: Boolean
+        get() = emitter.byteLimitOnCompressedSize
+        set(value) {
+            dirtyConfig.byteLimitOnCompressedSize = value
+            emitter.byteLimitOnCompressedSize = value
+        }
+
+    override var adaptiveBatching: Boolean
+        get() = emitter.adaptiveBatching
+        set(value) {
+            dirtyConfig.adaptiveBatching = value
+            emitter.adaptiveBatching = value
+        }
+
+    override var minEmitRange: Int
+        get() = emitter.minEmitRange
+        set(value) {
+            dirtyConfig.minEmitRange = value
+            emitter.minEmitRange = value
+        }
+
+    override var maxEmitRange: Int
+        get() = emitter.maxEmitRange
+        set(value) {
+            dirtyConfig.maxEmitRange = value
+            emitter.maxEmitRange = value
+        }
+
+    override var circuitBreakerThreshold: Int
+        get() = emitter.circuitBreakerThreshold
+        set(value) {
+            dirtyConfig.circuitBreakerThreshold = value
+            emitter.circuitBreakerThreshold = value
+        }
+
+    override var circuitBreakerCooldown: Duration
+        get() = emitter.circuitBreakerCooldown
+        set(value) {
+            dirtyConfig.circuitBreakerCooldown = value
+            emitter.circuitBreakerCooldown = value
+        }
+
+    override var maxBytesPerSecond: Long
+        get() = emitter.maxBytesPerSecond
+        set(value) {
+            dirtyConfig.maxBytesPerSecond = value
+            emitter.maxBytesPerSecond = value
+        }
+
+    override var maxRequestsPerSecond: Double
+        get() = emitter.maxRequestsPerSecond
+        set(value) {
+            dirtyConfig.maxRequestsPerSecond = value
+            emitter.maxRequestsPerSecond = value
+        }
+
+    override var backgroundUpload: Boolean
+        get() = emitter.backgroundUpload
+        set(value) {
+            dirtyConfig.backgroundUpload = value
+            emitter.backgroundUpload = value
+        }
+
+    override var backgroundUploadTimeBudget: Duration
+        get() = emitter.backgroundUploadTimeBudget
+        set(value) {
+            dirtyConfig.backgroundUploadTimeBudget = value
+            emitter.backgroundUploadTimeBudget = value
+        }
+
+    override var backgroundFlushTimeout: Duration
+        get() = emitter.backgroundFlushTimeout
+        set(value) {
+            dirtyConfig.backgroundFlushTimeout = value
+            emitter.backgroundFlushTimeout = value
+        }
+
+    override var maxRadioDeferral: Duration
+        get() = emitter.maxRadioDeferral
+        set(value) {
+            dirtyConfig.maxRadioDeferral = value
+            emitter.maxRadioDeferral = value
+        }
+
+    override var eventPriorityRules: Map<String, EventPriority>
+        get() = emitter.eventPriorityRules
+        set(value) {
+            dirtyConfig.eventPriorityRules = value
+            emitter.eventPriorityRules = value
+        }
+
+    override var deliveryConditionRules: Map<String, DeliveryCondition>
+        get() = emitter.deliveryConditionRules
+        set(value) {
+            dirtyConfig.deliveryConditionRules = value
+            emitter.deliveryConditionRules = value
+        }
+
+    override var wireFormatStorage: Boolean
+        get() = emitter.wireFormatStorage
+        set(value) {
+            dirtyConfig.wireFormatStorage = value
+            emitter.wireFormatStorage = value
+        }
+
     override val dbCount: Long
         get() {
             val eventStore = emitter.eventStore
@@ -119,6 +245,29 @@ class EmitterControllerImpl(serviceProvider: ServiceProviderInterface) :
     override val isSending: Boolean
         get() = emitter.emitterStatus
 
+    override val state: EmitterState
+        get() = emitter.state
+
+    override val circuitBreakerState: CircuitBreakerState
+        get() = emitter.circuitBreakerState
+
+    override val currentEmitRange: Int
+        get() = emitter.currentEmitRange
+
+    override val currentMaxInFlightBatches: Int
+        get() = emitter.currentMaxInFlightBatches
+
+    override val metrics: MetricsSnapshot
+        get() = emitter.metrics.snapshot()
+
+    override fun addMetricsListener(intervalMillis: Long, listener: Consumer<MetricsSnapshot>) {
+        emitter.metrics.addListener(intervalMillis, listener)
+    }
+
+    override fun removeMetricsListener(listener: Consumer<MetricsSnapshot>) {
+        emitter.metrics.removeListener(listener)
+    }
+
     override fun pause() {
         dirtyConfig.isPaused = true
         emitter.pauseEmit()
@@ -129,6 +278,10 @@ class EmitterControllerImpl(serviceProvider: ServiceProviderInterface) :
         emitter.resumeEmit()
     }
 
+    override fun flush(timeout: Duration): FlushResult {
+        return emitter.flush(timeout)
+    }
+
     // Private methods
     private val dirtyConfig: EmitterConfiguration
         get() = serviceProvider.emitterConfiguration
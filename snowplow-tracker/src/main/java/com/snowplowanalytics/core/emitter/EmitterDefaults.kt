@@ -13,11 +13,14 @@
 package com.snowplowanalytics.core.emitter
 
 import com.snowplowanalytics.snowplow.emitter.BufferOption
+import com.snowplowanalytics.snowplow.emitter.DeliveryCondition
+import com.snowplowanalytics.snowplow.emitter.EventPriority
 import com.snowplowanalytics.snowplow.network.HttpMethod
 import com.snowplowanalytics.snowplow.network.Protocol
 
 import java.util.*
 import java.util.concurrent.TimeUnit
+import kotlin.time.Duration
 import kotlin.time.DurationUnit
 import kotlin.time.toDuration
 
@@ -38,4 +41,22 @@ object EmitterDefaults {
     var timeUnit = TimeUnit.SECONDS
     var maxEventStoreAge = 30.toDuration(DurationUnit.DAYS)
     var maxEventStoreSize: Long = 1000
+    var maxInFlightBatches = 1
+    var maxInFlightBytes: Long = 200000
+    var compressPostBody = false
+    var byteLimitOnCompressedSize = false
+    var adaptiveBatching = false
+    var minEmitRange = 5
+    var maxEmitRange = 150
+    var circuitBreakerThreshold = 5
+    var circuitBreakerCooldown = 60.toDuration(DurationUnit.SECONDS)
+    var maxBytesPerSecond: Long = 0
+    var maxRequestsPerSecond = 0.0
+    var backgroundUpload = false
+    var backgroundUploadTimeBudget = 60.toDuration(DurationUnit.SECONDS)
+    var backgroundFlushTimeout = Duration.ZERO
+    var maxRadioDeferral = Duration.ZERO
+    var eventPriorityRules: Map<String, EventPriority> = emptyMap()
+    var deliveryConditionRules: Map<String, DeliveryCondition> = emptyMap()
+    var wireFormatStorage = false
 }
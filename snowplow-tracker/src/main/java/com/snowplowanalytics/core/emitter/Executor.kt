@@ -14,22 +14,45 @@ package com.snowplowanalytics.core.emitter
 
 import androidx.annotation.RestrictTo
 import com.snowplowanalytics.core.tracker.Logger
+import java.util.*
 import java.util.concurrent.*
 
 /**
  * Static Class which holds the logic for controlling
- * the Thread Pool for the Tracker.
+ * the Thread Pools for the Tracker.
+ *
+ * The work is split in separate lanes so that slow work of one kind (e.g. waiting on
+ * a slow collector) can't delay work of another kind (e.g. processing tracked events):
+ * - [Lane.Cpu] for event processing (payload building, state machine callbacks)
+ * - [Lane.Disk] for the event store and other storage access
+ * - [Lane.Network] for the emission loop and other network requests
+ *
+ * Each lane has its own thread pool with a bounded queue, unless the app provided
+ * an executor for it with [setExecutor]. Delayed tasks are scheduled on a single timer thread
+ * and run on their lane when due.
  */
 @RestrictTo(RestrictTo.Scope.LIBRARY)
 object Executor {
-    private var executor: ExecutorService? = null
+    private var lanes: Map<Lane, ExecutorLane>? = null
+    private val customExecutors = EnumMap<Lane, java.util.concurrent.Executor>(Lane::class.java)
+    private var scheduler: ScheduledExecutorService? = null
+
+    /**
+     * Kind of work run by the executor.
+     */
+    enum class Lane {
+        Cpu, Disk, Network
+    }
     
+    /**
+     * The amount of threads of the network lane.
+     *
+     * NOTE: This can only be set before the executor is first accessed,
+     * after this point it will not effect anything.
+     */
     var threadCount = EmitterDefaults.threadPoolSize
         /**
-         * Changes the amount of threads the scheduler will be able to use.
-         *
-         * NOTE: This can only be set before the scheduler is first accessed, 
-         * after this point it will not effect anything.
+         * Changes the amount of threads the network lane will be able to use.
          *
          * @param count the thread count
          */
@@ -41,26 +64,119 @@ object Executor {
         }
 
     /**
-     * If the executor is null creates a
-     * new executor.
+     * The amount of threads of the CPU lane.
+     *
+     * NOTE: This can only be set before the executor is first accessed,
+     * after this point it will not effect anything.
+     */
+    var cpuThreadCount = Runtime.getRuntime().availableProcessors().coerceIn(2, 4)
+        @JvmStatic
+        set(count) {
+            if (count >= 1) {
+                field = count
+            }
+        }
+
+    /**
+     * The amount of threads of the disk lane.
+     *
+     * NOTE: This can only be set before the executor is first accessed,
+     * after this point it will not effect anything.
+     */
+    var diskThreadCount = 2
+        @JvmStatic
+        set(count) {
+            if (count >= 1) {
+                field = count
+            }
+        }
+
+    /**
+     * The maximum number of tasks waiting in the queue of each lane.
+     * When the queue of the CPU or disk lane is full, the submitting thread runs the task
+     * so that no event is lost. When the queue of the network lane is full, the task is rejected.
      *
-     * @return the executor
+     * NOTE: This can only be set before the executor is first accessed,
+     * after this point it will not effect anything.
+     */
+    var queueCapacity = 1000
+        @JvmStatic
+        set(capacity) {
+            if (capacity >= 1) {
+                field = capacity
+            }
+        }
+
+    /**
+     * If the lanes are null creates them.
+     *
+     * @return the lanes
      */
     @Synchronized
     @JvmStatic
-    private fun getExecutor(): ExecutorService? {
+    private fun getLanes(): Map<Lane, ExecutorLane>? {
+        if (lanes == null) {
+            try {
+                lanes = Lane.values().associateWith { makeLane(it) }
+            } catch (e: Exception) {
+                Logger.e("Executor", e.message ?: "Failed to create thread pools")
+            }
+        }
+        return lanes
+    }
+
+    private fun makeLane(lane: Lane): ExecutorLane {
+        val customExecutor = customExecutors[lane]
+        return when (lane) {
+            Lane.Cpu -> ExecutorLane("cpu", cpuThreadCount, queueCapacity, true, customExecutor)
+            Lane.Disk -> ExecutorLane("disk", diskThreadCount, queueCapacity, true, customExecutor)
+            Lane.Network -> ExecutorLane("network", threadCount, queueCapacity, false, customExecutor)
+        }
+    }
+
+    /**
+     * Sets the executor provided by the app to run the tasks of a lane instead of
+     * the own thread pool of the lane.
+     * If the lane is already running, it's replaced and its own thread pool is shut down
+     * once the queued tasks completed. The executor provided by the app is never shut down.
+     *
+     * @param lane the lane
+     * @param executor the executor, or null to use the own thread pool of the lane
+     */
+    @JvmStatic
+    @Synchronized
+    fun setExecutor(lane: Lane, executor: java.util.concurrent.Executor?) {
+        if (customExecutors[lane] === executor) return
         if (executor == null) {
+            customExecutors.remove(lane)
+        } else {
+            customExecutors[lane] = executor
+        }
+        val currentLanes = lanes ?: return
+        try {
+            lanes = currentLanes + (lane to makeLane(lane))
+            currentLanes[lane]?.executor?.shutdown()
+        } catch (e: Exception) {
+            Logger.e("Executor", e.message ?: "Failed to replace thread pool")
+        }
+    }
+
+    @Synchronized
+    private fun getScheduler(): ScheduledExecutorService? {
+        if (scheduler == null) {
             try {
-                executor = Executors.newScheduledThreadPool(threadCount)
+                scheduler = Executors.newSingleThreadScheduledExecutor { runnable ->
+                    Thread(runnable, "snowplow-timer")
+                }
             } catch (e: Exception) {
-                Logger.e("Executor", e.message ?: "Failed to create thread pool")
+                Logger.e("Executor", e.message ?: "Failed to create scheduler")
             }
         }
-        return executor
+        return scheduler
     }
 
     /**
-     * Sends a runnable to the executor service.
+     * Sends a runnable to the CPU lane.
      * Errors are logged but not tracked with the diagnostic feature.
      *
      * @param tag string indicating the source of the runnable for logging purposes in case of
@@ -69,11 +185,25 @@ object Executor {
      */
     @JvmStatic
     fun execute(tag: String?, runnable: Runnable?) {
-        execute(false, tag, runnable)
+        execute(Lane.Cpu, false, tag, runnable)
     }
 
     /**
-     * Sends a runnable to the executor service.
+     * Sends a runnable to a lane.
+     * Errors are logged but not tracked with the diagnostic feature.
+     *
+     * @param lane the lane to run the runnable on
+     * @param tag string indicating the source of the runnable for logging purposes in case of
+     * exceptions raised by the runnable
+     * @param runnable the runnable to be queued
+     */
+    @JvmStatic
+    fun execute(lane: Lane, tag: String?, runnable: Runnable?) {
+        execute(lane, false, tag, runnable)
+    }
+
+    /**
+     * Sends a runnable to the CPU lane.
      *
      * @param reportsOnDiagnostic weather or not the error has to be tracked with diagnostic feature
      * @param tag string indicating the source of the runnable for logging purposes in case of
@@ -82,8 +212,22 @@ object Executor {
      */
     @JvmStatic
     fun execute(reportsOnDiagnostic: Boolean, tag: String?, runnable: Runnable?) {
+        execute(Lane.Cpu, reportsOnDiagnostic, tag, runnable)
+    }
+
+    /**
+     * Sends a runnable to a lane.
+     *
+     * @param lane the lane to run the runnable on
+     * @param reportsOnDiagnostic weather or not the error has to be tracked with diagnostic feature
+     * @param tag string indicating the source of the runnable for logging purposes in case of
+     * exceptions raised by the runnable
+     * @param runnable the runnable to be queued
+     */
+    @JvmStatic
+    fun execute(lane: Lane, reportsOnDiagnostic: Boolean, tag: String?, runnable: Runnable?) {
         val loggerTag: String = tag ?: "Source not provided"
-        execute(runnable) { t: Throwable? ->
+        execute(lane, runnable) { t: Throwable? ->
             var message = t?.localizedMessage
             if (message == null) {
                 message = "No message provided."
@@ -97,16 +241,27 @@ object Executor {
     }
 
     /**
-     * Sends a runnable to the executor service.
+     * Sends a runnable to the CPU lane.
      *
      * @param runnable the runnable to be queued
      * @param exceptionHandler the handler of exception raised by the runnable
      */
     @JvmStatic
     fun execute(runnable: Runnable?, exceptionHandler: ExceptionHandler?) {
-        val executor = getExecutor()
+        execute(Lane.Cpu, runnable, exceptionHandler)
+    }
+
+    /**
+     * Sends a runnable to a lane.
+     *
+     * @param lane the lane to run the runnable on
+     * @param runnable the runnable to be queued
+     * @param exceptionHandler the handler of exception raised by the runnable
+     */
+    @JvmStatic
+    fun execute(lane: Lane, runnable: Runnable?, exceptionHandler: ExceptionHandler?) {
         try {
-            executor?.execute {
+            getLanes()?.get(lane)?.execute {
                 try {
                     runnable?.run()
                 } catch (t: Throwable) {
@@ -119,7 +274,85 @@ object Executor {
     }
 
     /**
-     * Sends a callable to the executor service and
+     * Sends a runnable to a lane, reporting whether it was accepted.
+     * Unlike [execute], the caller learns that the runnable was rejected, e.g. because the queue
+     * of the lane is full or the executor is shut down, so that it can run it otherwise.
+     * Errors raised by the runnable are logged.
+     *
+     * @param lane the lane to run the runnable on
+     * @param tag string indicating the source of the runnable for logging purposes in case of
+     * exceptions raised by the runnable
+     * @param runnable the runnable to be queued
+     * @return whether the runnable was queued
+     */
+    @JvmStatic
+    fun tryExecute(lane: Lane, tag: String?, runnable: Runnable): Boolean {
+        val loggerTag: String = tag ?: "Source not provided"
+        val executorLane = getLanes()?.get(lane) ?: return false
+        return try {
+            executorLane.execute {
+                try {
+                    runnable.run()
+                } catch (t: Throwable) {
+                    Logger.e(loggerTag, t.localizedMessage ?: "No message provided.", t)
+                }
+            }
+            true
+        } catch (e: RejectedExecutionException) {
+            Logger.e(loggerTag, "Task rejected by the %s lane", executorLane.name)
+            false
+        }
+    }
+
+    /**
+     * Schedules a runnable to be run on the CPU lane after a delay.
+     * Errors are logged but not tracked with the diagnostic feature.
+     *
+     * @param tag string indicating the source of the runnable for logging purposes in case of
+     * exceptions raised by the runnable
+     * @param delay the delay before running the runnable
+     * @param unit the time unit of the delay
+     * @param runnable the runnable to be scheduled
+     * @return the future that can be used to cancel the scheduled runnable
+     */
+    @JvmStatic
+    fun schedule(tag: String?, delay: Long, unit: TimeUnit, runnable: Runnable): ScheduledFuture<*>? {
+        return schedule(Lane.Cpu, tag, delay, unit, runnable)
+    }
+
+    /**
+     * Schedules a runnable to be run on a lane after a delay.
+     * Errors are logged but not tracked with the diagnostic feature.
+     *
+     * @param lane the lane to run the runnable on
+     * @param tag string indicating the source of the runnable for logging purposes in case of
+     * exceptions raised by the runnable
+     * @param delay the delay before running the runnable
+     * @param unit the time unit of the delay
+     * @param runnable the runnable to be scheduled
+     * @return the future that can be used to cancel the scheduled runnable
+     */
+    @JvmStatic
+    fun schedule(
+        lane: Lane,
+        tag: String?,
+        delay: Long,
+        unit: TimeUnit,
+        runnable: Runnable
+    ): ScheduledFuture<*>? {
+        val loggerTag: String = tag ?: "Source not provided"
+        return try {
+            getScheduler()?.schedule({
+                execute(lane, tag, runnable)
+            }, delay, unit)
+        } catch (e: Exception) {
+            Logger.e(loggerTag, e.message ?: "Failed to schedule task")
+            null
+        }
+    }
+
+    /**
+     * Sends a callable to the CPU lane and
      * returns a Future.
      *
      * @param callable the callable to be queued
@@ -127,8 +360,21 @@ object Executor {
      */
     @JvmStatic
     fun futureCallable(callable: Callable<*>): Future<*>? {
+        return futureCallable(Lane.Cpu, callable)
+    }
+
+    /**
+     * Sends a callable to a lane and
+     * returns a Future.
+     *
+     * @param lane the lane to run the callable on
+     * @param callable the callable to be queued
+     * @return the future object to be queried
+     */
+    @JvmStatic
+    fun futureCallable(lane: Lane, callable: Callable<*>): Future<*>? {
         return try {
-            getExecutor()?.submit(callable)
+            getLanes()?.get(lane)?.submit(callable)
         } catch (e: Exception) {
             Logger.e("Executor", e.message ?: "Failed to submit task")
             null
@@ -136,22 +382,37 @@ object Executor {
     }
 
     /**
-     * Shuts the executor service down and resets
+     * Returns a snapshot of the activity of a lane.
+     *
+     * @param lane the lane
+     * @return the metrics of the lane, or null if the executor is not running
+     */
+    @JvmStatic
+    @Synchronized
+    fun metrics(lane: Lane): ExecutorLane.Metrics? {
+        return lanes?.get(lane)?.metrics()
+    }
+
+    /**
+     * Shuts the lanes and the scheduler down and resets
      * the executor to a null state.
+     *
+     * @return the executor services shut down, empty if the executor was not running
      */
     @JvmStatic
-    fun shutdown(): ExecutorService? {
-        if (executor != null) {
+    @Synchronized
+    fun shutdown(): List<ExecutorService> {
+        val services = (lanes?.values?.mapNotNull { it.executor } ?: emptyList()) + listOfNotNull(scheduler)
+        for (service in services) {
             try {
-                executor?.shutdown()
+                service.shutdown()
             } catch (e: Exception) {
                 Logger.e("Executor", e.message ?: "Failed to shutdown")
             }
-            val es = executor
-            executor = null
-            return es
         }
-        return null
+        lanes = null
+        scheduler = null
+        return services
     }
 
     /**
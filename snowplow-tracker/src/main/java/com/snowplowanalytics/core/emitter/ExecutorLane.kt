@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter
+
+import androidx.annotation.RestrictTo
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A thread pool with a bounded queue dedicated to one kind of work of the tracker,
+ * which keeps track of the tasks it ran.
+ * The lane can run its tasks on an executor provided by the app instead of its own thread pool.
+ *
+ * @param name the name of the lane, used for the thread names
+ * @param threadCount the maximum number of threads of the lane
+ * @param queueCapacity the maximum number of tasks waiting for a thread
+ * @param callerRunsWhenFull whether the submitting thread runs the task when the queue is full,
+ * otherwise the task is rejected
+ * @param customExecutor the executor provided by the app, or null to use an own thread pool
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+class ExecutorLane @JvmOverloads constructor(
+    val name: String,
+    threadCount: Int,
+    queueCapacity: Int,
+    callerRunsWhenFull: Boolean,
+    private val customExecutor: java.util.concurrent.Executor? = null
+) {
+    private val submittedCount = AtomicLong()
+    private val rejectedCount = AtomicLong()
+    private val callerRunsCount = AtomicLong()
+    private val startedCount = AtomicLong()
+    private val completedCount = AtomicLong()
+    private val activeCount = AtomicInteger()
+    private val totalQueueTimeMillis = AtomicLong()
+    private val maxQueueTimeMillis = AtomicLong()
+    private val threadNumber = AtomicInteger()
+
+    /**
+     * The own thread pool of the lane, or null if it uses an executor provided by the app.
+     * Only the own thread pool is shut down by the tracker.
+     */
+    val executor: ThreadPoolExecutor? = if (customExecutor != null) null else ThreadPoolExecutor(
+        threadCount,
+        threadCount,
+        KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS,
+        LinkedBlockingQueue(queueCapacity),
+        { runnable -> Thread(runnable, "snowplow-$name-${threadNumber.incrementAndGet()}") },
+        { runnable, executor ->
+            if (callerRunsWhenFull && !executor.isShutdown) {
+                callerRunsCount.incrementAndGet()
+                runnable.run()
+            } else {
+                throw RejectedExecutionException("Executor lane $name is full")
+            }
+        }
+    ).apply { allowCoreThreadTimeOut(true) }
+
+    /**
+     * Queues a runnable in the lane.
+     * @throws RejectedExecutionException if the lane is shut down or its queue is full
+     */
+    fun execute(runnable: Runnable) {
+        val submitTime = System.currentTimeMillis()
+        submittedCount.incrementAndGet()
+        val task = Runnable {
+            recordQueueTime(System.currentTimeMillis() - submitTime)
+            activeCount.incrementAndGet()
+            try {
+                runnable.run()
+            } finally {
+                activeCount.decrementAndGet()
+                completedCount.incrementAndGet()
+            }
+        }
+        try {
+            (customExecutor ?: executor)?.execute(task)
+        } catch (e: RejectedExecutionException) {
+            rejectedCount.incrementAndGet()
+            throw e
+        }
+    }
+
+    /**
+     * Queues a callable in the lane.
+     * @return the future of the callable
+     * @throws RejectedExecutionException if the lane is shut down or its queue is full
+     */
+    fun <T> submit(callable: Callable<T>): Future<T> {
+        val future = FutureTask(callable)
+        execute(future)
+        return future
+    }
+
+    /**
+     * @return a snapshot of the activity of the lane
+     */
+    fun metrics(): Metrics {
+        val submitted = submittedCount.get()
+        val started = startedCount.get()
+        val rejected = rejectedCount.get()
+        return Metrics(
+            name = name,
+            poolSize = executor?.poolSize ?: 0,
+            activeCount = activeCount.get(),
+            queueSize = (submitted - started - rejected).coerceAtLeast(0).toInt(),
+            submittedCount = submitted,
+            completedCount = completedCount.get(),
+            rejectedCount = rejected,
+            callerRunsCount = callerRunsCount.get(),
+            averageQueueTimeMillis = if (started > 0) totalQueueTimeMillis.get() / started else 0,
+            maxQueueTimeMillis = maxQueueTimeMillis.get()
+        )
+    }
+    private fun recordQueueTime(millis: Long) {
+        startedCount.incrementAndGet()
+        totalQueueTimeMillis.addAndGet(millis)
+        var max = maxQueueTimeMillis.get()
+        while (millis > max && !maxQueueTimeMillis.compareAndSet(max, millis)) {
+            max = maxQueueTimeMillis.get()
+        }
+    }
+
+    /**
+     * Activity of an executor lane.
+     *
+     * @param name the name of the lane
+     * @param poolSize the current number of threads of the own thread pool, 0 with an executor provided by the app
+     * @param activeCount the number of tasks running
+     * @param queueSize the number of tasks waiting for a thread
+     * @param submittedCount the number of tasks submitted to the lane
+     * @param completedCount the number of tasks completed
+     * @param rejectedCount the number of tasks rejected by the executor
+     * @param callerRunsCount the number of tasks run by the submitting thread because the queue was full
+     * @param averageQueueTimeMillis the average time tasks waited in the queue
+     * @param maxQueueTimeMillis the longest time a task waited in the queue
+     */
+    data class Metrics(
+        val name: String,
+        val poolSize: Int,
+        val activeCount: Int,
+        val queueSize: Int,
+        val submittedCount: Long,
+        val completedCount: Long,
+        val rejectedCount: Long,
+        val callerRunsCount: Long,
+        val averageQueueTimeMillis: Long,
+        val maxQueueTimeMillis: Long
+    )
+
+    companion object {
+        private const val KEEP_ALIVE_SECONDS = 30L
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter
+
+import androidx.annotation.RestrictTo
+import okhttp3.MediaType
+import okhttp3.RequestBody
+import okio.Buffer
+import okio.BufferedSink
+import okio.ForwardingSink
+import okio.GzipSink
+import okio.Sink
+import okio.buffer
+
+/**
+ * Request body which compresses another request body with gzip while it is written to the request sink.
+ * The request must be sent with the `Content-Encoding: gzip` header.
+ * As the compressed size is only known once the body is written, it is sent with
+ * `Transfer-Encoding: chunked` instead of a `Content-Length` header.
+ *
+ * @param body The request body to compress.
+ * @param onCompressed Called with the uncompressed and compressed size each time the body is written.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+class GzipRequestBody(
+    private val body: RequestBody,
+    private val onCompressed: ((uncompressedSize: Long, compressedSize: Long) -> Unit)? = null
+) : RequestBody() {
+
+    override fun contentType(): MediaType? = body.contentType()
+
+    // The compressed size is only known once the body is written
+    override fun contentLength(): Long = -1
+
+    override fun writeTo(sink: BufferedSink) {
+        val compressed = CountingSink(sink)
+        val uncompressed = CountingSink(GzipSink(compressed))
+        val gzipSink = uncompressed.buffer()
+        body.writeTo(gzipSink)
+        gzipSink.close()
+        onCompressed?.invoke(uncompressed.byteCount, compressed.byteCount)
+    }
+
+    /**
+     * Sink which counts the bytes written through it.
+     */
+    private class CountingSink(delegate: Sink) : ForwardingSink(delegate) {
+        var byteCount: Long = 0
+            private set
+
+        override fun write(source: Buffer, byteCount: Long) {
+            super.write(source, byteCount)
+            this.byteCount += byteCount
+        }
+    }
+}
@@ -12,6 +12,7 @@
  */
 package com.snowplowanalytics.core.emitter
 
+import com.snowplowanalytics.snowplow.network.CollectorEndpoint
 import com.snowplowanalytics.snowplow.network.HttpMethod
 import com.snowplowanalytics.snowplow.network.NetworkConnection
 import com.snowplowanalytics.snowplow.network.Protocol
@@ -22,6 +23,11 @@ import okhttp3.OkHttpClient
 interface NetworkConfigurationInterface {
     /** URL (without schema/protocol) used to send events to the collector. */
     val endpoint: String?
+    /**
+     * Collector endpoints to send events to, e.g. in different regions, if there is more than one.
+     * Events are sent to the endpoint with the best latency and error score and fail over to the others.
+     */
+    val endpoints: List<CollectorEndpoint>?
     /** Method used to send events to the collector. */
     val method: HttpMethod?
     /** Protocol used to send events to the collector. */
@@ -51,4 +57,9 @@ interface NetworkConfigurationInterface {
     val okHttpCookieJar: CookieJar?
     /** Custom headers to add to HTTP requests to the collector. */
     val requestHeaders: Map<String, String>?
+    /**
+     * Whether to compress the bodies of POST requests using gzip.
+     * The collector must be configured to accept compressed requests.
+     */
+    val compressPostBody: Boolean
 }
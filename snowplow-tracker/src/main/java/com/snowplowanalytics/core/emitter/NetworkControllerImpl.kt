@@ -17,6 +17,7 @@ import com.snowplowanalytics.core.Controller
 import com.snowplowanalytics.core.tracker.ServiceProviderInterface
 import com.snowplowanalytics.snowplow.configuration.NetworkConfiguration
 import com.snowplowanalytics.snowplow.controller.NetworkController
+import com.snowplowanalytics.snowplow.network.CollectorEndpoint
 import com.snowplowanalytics.snowplow.network.HttpMethod
 import com.snowplowanalytics.snowplow.network.OkHttpNetworkConnection
 
@@ -36,6 +37,12 @@ class NetworkControllerImpl(serviceProvider: ServiceProviderInterface) :
         set(endpoint) {
             emitter.emitterUri = endpoint
         }
+
+    override var endpoints: List<CollectorEndpoint>
+        get() = emitter.endpoints
+        set(endpoints) {
+            emitter.endpoints = endpoints
+        }
     
     override var method: HttpMethod
         get() = emitter.httpMethod
@@ -56,6 +63,13 @@ class NetworkControllerImpl(serviceProvider: ServiceProviderInterface) :
             emitter.emitTimeout = timeout
         }
 
+    override var compressPostBody: Boolean
+        get() = emitter.compressPostBody
+        set(compressPostBody) {
+            dirtyConfig.compressPostBody = compressPostBody
+            emitter.compressPostBody = compressPostBody
+        }
+
     // Private methods
     private val emitter: Emitter
         get() = serviceProvider.getOrMakeEmitter()
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter
+
+import androidx.annotation.RestrictTo
+import com.snowplowanalytics.core.constants.TrackerConstants
+import com.snowplowanalytics.core.emitter.storage.WireFormatPayload
+import com.snowplowanalytics.snowplow.payload.Payload
+import okhttp3.MediaType
+import okhttp3.RequestBody
+import okio.BufferedSink
+import org.json.JSONObject
+
+/**
+ * Request body for a payload bundle which writes the `payload_data` self-describing JSON
+ * directly into the request sink, one payload at a time.
+ * This avoids building the serialized bundle in memory before sending it.
+ * Payloads stored in wire format are copied into the sink as they were stored.
+ *
+ * The content length is only known, and the body sent with a `Content-Length` header, if all the payloads
+ * are in wire format, as their byte size is the length of their JSON. Otherwise the length would take
+ * serializing every payload twice, so the body is sent with `Transfer-Encoding: chunked`.
+ *
+ * @param payloads The payloads to send as a payload bundle.
+ * @param contentType The media type of the body.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+class PayloadDataRequestBody(
+    private val payloads: List<Payload>,
+    private val contentType: MediaType?
+) : RequestBody() {
+
+    private val contentLength: Long by lazy {
+        if (payloads.all { it is WireFormatPayload }) {
+            PAYLOAD_DATA_PREFIX.length + PAYLOAD_DATA_SUFFIX.length +
+                    (payloads.size - 1).coerceAtLeast(0) + payloads.sumOf { it.byteSize }
+        } else {
+            -1
+        }
+    }
+
+    override fun contentType(): MediaType? = contentType
+
+    override fun contentLength(): Long = contentLength
+
+    override fun writeTo(sink: BufferedSink) {
+        sink.writeUtf8(PAYLOAD_DATA_PREFIX)
+        payloads.forEachIndexed { index, payload ->
+            if (index > 0) {
+                sink.writeByte(','.code)
+            }
+            if (payload is WireFormatPayload) {
+                payload.writeTo(sink)
+            } else {
+                sink.writeUtf8(payload.toString())
+            }
+        }
+        sink.writeUtf8(PAYLOAD_DATA_SUFFIX)
+    }
+
+    companion object {
+        private val PAYLOAD_DATA_PREFIX =
+            "{\"schema\":" + JSONObject.quote(TrackerConstants.SCHEMA_PAYLOAD_DATA) + ",\"data\":["
+        private const val PAYLOAD_DATA_SUFFIX = "]}"
+    }
+}
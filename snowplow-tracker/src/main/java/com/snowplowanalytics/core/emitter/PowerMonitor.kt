@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.os.BatteryManager
+import android.os.Build
+import androidx.annotation.RestrictTo
+import com.snowplowanalytics.core.tracker.Logger
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Keeps track of whether the device is charging using the power connection broadcasts,
+ * so that reading the current state doesn't require reading the battery status.
+ * Listeners are notified when the device is plugged in or unplugged.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+object PowerMonitor {
+    private val TAG = PowerMonitor::class.java.simpleName
+
+    private val listeners = CopyOnWriteArrayList<(Boolean) -> Unit>()
+    private var context: Context? = null
+    @Volatile
+    private var isMonitoring = false
+    @Volatile
+    private var monitoredIsCharging = false
+
+    /**
+     * Whether the device is charging.
+     * Before the monitor is started, or if it couldn't be started, the state is read from the battery status.
+     */
+    val isCharging: Boolean
+        get() = if (isMonitoring) monitoredIsCharging else readIsCharging(context)
+
+    /**
+     * Starts monitoring the power connection, if not already started.
+     * @param context the Android context.
+     */
+    @Synchronized
+    fun start(context: Context) {
+        if (this.context != null) {
+            return
+        }
+        val applicationContext = context.applicationContext ?: context
+        this.context = applicationContext
+        try {
+            monitoredIsCharging = readIsCharging(applicationContext)
+            val filter = IntentFilter()
+            filter.addAction(Intent.ACTION_POWER_CONNECTED)
+            filter.addAction(Intent.ACTION_POWER_DISCONNECTED)
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                applicationContext.registerReceiver(receiver, filter, Context.RECEIVER_NOT_EXPORTED)
+            } else {
+                applicationContext.registerReceiver(receiver, filter)
+            }
+            isMonitoring = true
+        } catch (e: Exception) {
+            Logger.e(TAG, "Unable to register power connection receiver: %s", e.toString())
+        }
+    }
+
+    /**
+     * Adds a listener called with the new state every time the device is plugged in or unplugged.
+     * @param listener the listener to add.
+     */
+    fun addListener(listener: (Boolean) -> Unit) {
+        listeners.add(listener)
+    }
+
+    /**
+     * Removes a listener previously added.
+     * @param listener the listener to remove.
+     */
+    fun removeListener(listener: (Boolean) -> Unit) {
+        listeners.remove(listener)
+    }
+
+    private val receiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            val isCharging = intent.action == Intent.ACTION_POWER_CONNECTED
+            if (isCharging == monitoredIsCharging) {
+                return
+            }
+            monitoredIsCharging = isCharging
+            Logger.d(TAG, "Power connection changed, charging: %s", isCharging)
+            listeners.forEach { it(isCharging) }
+        }
+    }
+
+    private fun readIsCharging(context: Context?): Boolean {
+        val context = context ?: return false
+        return try {
+            val batteryIntent = context.registerReceiver(null, IntentFilter(Intent.ACTION_BATTERY_CHANGED))
+            (batteryIntent?.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) ?: 0) != 0
+        } catch (e: Exception) {
+            Logger.e(TAG, "Unable to read the battery status: %s", e.toString())
+            false
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter
+
+import androidx.annotation.RestrictTo
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Encodes event payloads as URL query strings for GET requests.
+ *
+ * The encoding matches `Uri.Builder.appendQueryParameter`: all the characters except
+ * the unreserved ones (`A-Z a-z 0-9 - _ . ~ ! ' ( ) *`) are percent-encoded as UTF-8.
+ * The query is built in one pass into a buffer reused by each thread, and the encoded
+ * payload keys, which are a small constant set, are cached.
+ * It's safe to use from multiple threads.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+object QueryStringEncoder {
+    private const val MAX_RETAINED_CAPACITY = 64 * 1024
+    private const val MAX_CACHED_KEYS = 256
+    private val HEX_DIGITS = "0123456789ABCDEF".toCharArray()
+
+    private val UNRESERVED = BooleanArray(128).also {
+        for (c in 'a'..'z') it[c.code] = true
+        for (c in 'A'..'Z') it[c.code] = true
+        for (c in '0'..'9') it[c.code] = true
+        for (c in "-_.~!'()*") it[c.code] = true
+    }
+
+    private val encodedKeys = ConcurrentHashMap<String, String>()
+    private val buffer = object : ThreadLocal<StringBuilder>() {
+        override fun initialValue(): StringBuilder = StringBuilder(1024)
+    }
+
+    /**
+     * Encodes the entries of a payload as a query string.
+     * Entries with a null value are skipped.
+     *
+     * @param map the payload entries
+     * @return the encoded query string, without the leading `?`
+     */
+    @JvmStatic
+    fun encode(map: Map<String, Any?>): String {
+        var builder = buffer.get()!!
+        if (builder.capacity() > MAX_RETAINED_CAPACITY) {
+            builder = StringBuilder(1024)
+            buffer.set(builder)
+        }
+        builder.setLength(0)
+        for ((key, value) in map) {
+            if (value == null) continue
+            if (builder.isNotEmpty()) builder.append('&')
+            builder.append(encodedKey(key)).append('=')
+            percentEncode(value.toString(), builder)
+        }
+        return builder.toString()
+    }
+
+    private fun encodedKey(key: String): String {
+        encodedKeys[key]?.let { return it }
+        val encoded = StringBuilder(key.length).also { percentEncode(key, it) }.toString()
+        if (encodedKeys.size < MAX_CACHED_KEYS) {
+            encodedKeys[key] = encoded
+        }
+        return encoded
+    }
+
+    /**
+     * Appends the percent-encoded UTF-8 representation of a string.
+     *
+     * @param value the string to encode
+     * @param out the buffer to append to
+     */
+    @JvmStatic
+    fun percentEncode(value: String, out: StringBuilder) {
+        var i = 0
+        val length = value.length
+        while (i < length) {
+            val c = value[i]
+            if (c.code < 128 && UNRESERVED[c.code]) {
+                out.append(c)
+                i++
+                continue
+            }
+            var codePoint = c.code
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value[i + 1])) {
+                codePoint = Character.toCodePoint(c, value[i + 1])
+                i++
+            } else if (Character.isSurrogate(c)) {
+                codePoint = '?'.code
+            }
+            i++
+            when {
+                codePoint < 0x80 -> appendByte(codePoint, out)
+                codePoint < 0x800 -> {
+                    appendByte(0xC0 or (codePoint shr 6), out)
+                    appendByte(0x80 or (codePoint and 0x3F), out)
+                }
+                codePoint < 0x10000 -> {
+                    appendByte(0xE0 or (codePoint shr 12), out)
+                    appendByte(0x80 or ((codePoint shr 6) and 0x3F), out)
+                    appendByte(0x80 or (codePoint and 0x3F), out)
+                }
+                else -> {
+                    appendByte(0xF0 or (codePoint shr 18), out)
+                    appendByte(0x80 or ((codePoint shr 12) and 0x3F), out)
+                    appendByte(0x80 or ((codePoint shr 6) and 0x3F), out)
+                    appendByte(0x80 or (codePoint and 0x3F), out)
+                }
+            }
+        }
+    }
+
+    private fun appendByte(byte: Int, out: StringBuilder) {
+        out.append('%')
+            .append(HEX_DIGITS[(byte shr 4) and 0xF])
+            .append(HEX_DIGITS[byte and 0xF])
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter
+
+import androidx.annotation.RestrictTo
+
+/**
+ * Decides how long the emitter defers non-urgent requests on a cellular network
+ * until the radio is already active for other traffic, so that the tracker doesn't wake up
+ * the radio and keep it in its high-power state for each small batch of events.
+ * The deferral starts with the first request held back and lasts at most `maxDelayMillis`.
+ *
+ * @param maxDelayMillis The maximum time to defer requests, 0 to never defer them.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+class RadioDeferral(maxDelayMillis: Long) {
+    private var deferredSince: Long = 0
+
+    var maxDelayMillis: Long = maxDelayMillis
+        @Synchronized
+        get
+        @Synchronized
+        set(value) {
+            field = value
+            deferredSince = 0
+        }
+
+    /**
+     * Whether requests are currently held back waiting for the radio.
+     */
+    val isDeferring: Boolean
+        @Synchronized
+        get() = deferredSince > 0
+
+    /**
+     * Returns how long requests should still be deferred.
+     * @param isRadioActive Whether the radio is active or the requests don't need to wait for it.
+     * @param now The current time in milliseconds.
+     * @return the time to wait in milliseconds, 0 to send the requests now.
+     */
+    @Synchronized
+    fun delay(isRadioActive: Boolean, now: Long = System.currentTimeMillis()): Long {
+        if (maxDelayMillis <= 0 || isRadioActive) {
+            deferredSince = 0
+            return 0
+        }
+        if (deferredSince == 0L) {
+            deferredSince = now
+        }
+        val remaining = deferredSince + maxDelayMillis - now
+        if (remaining <= 0) {
+            deferredSince = 0
+            return 0
+        }
+        return remaining
+    }
+}
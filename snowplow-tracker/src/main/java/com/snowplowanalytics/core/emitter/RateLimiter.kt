@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter
+
+import androidx.annotation.RestrictTo
+import kotlin.math.ceil
+
+/**
+ * Limits the bandwidth and the rate of requests used by the emitter with two token buckets.
+ * Each bucket is refilled continuously at its rate and holds up to one second worth of tokens,
+ * so that short bursts are allowed after idle periods.
+ * A batch can be sent as soon as both buckets have tokens left and may overdraw them,
+ * so that batches larger than the bucket capacity are still sent. The debt delays the next batch.
+ *
+ * @param bytesPerSecond The maximum number of payload bytes sent per second, 0 for no limit.
+ * @param requestsPerSecond The maximum number of requests sent per second, 0 for no limit.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+class RateLimiter(bytesPerSecond: Long, requestsPerSecond: Double) {
+    private val bytesBucket = TokenBucket(bytesPerSecond.toDouble())
+    private val requestsBucket = TokenBucket(requestsPerSecond)
+
+    var bytesPerSecond: Long
+        @Synchronized
+        get() = bytesBucket.rate.toLong()
+        @Synchronized
+        set(value) { bytesBucket.rate = value.toDouble() }
+
+    var requestsPerSecond: Double
+        @Synchronized
+        get() = requestsBucket.rate
+        @Synchronized
+        set(value) { requestsBucket.rate = value }
+
+    /**
+     * The time to wait before both buckets have tokens to send a batch, 0 if it can be sent now.
+     */
+    val delayMillis: Long
+        @Synchronized
+        get() {
+            val now = System.currentTimeMillis()
+            return maxOf(bytesBucket.delayMillis(now), requestsBucket.delayMillis(now))
+        }
+
+    /**
+     * Takes the tokens for a batch being sent.
+     * @param bytes The number of payload bytes in the batch.
+     * @param requests The number of requests in the batch.
+     */
+    @Synchronized
+    fun consume(bytes: Long, requests: Int) {
+        val now = System.currentTimeMillis()
+        bytesBucket.consume(bytes.toDouble(), now)
+        requestsBucket.consume(requests.toDouble(), now)
+    }
+
+    private class TokenBucket(rate: Double) {
+        private var tokens = rate
+        private var lastRefill = System.currentTimeMillis()
+
+        /**
+         * Tokens added per second and capacity of the bucket. Changing it fills the bucket.
+         */
+        var rate: Double = rate
+            set(value) {
+                field = value
+                tokens = value
+                lastRefill = System.currentTimeMillis()
+            }
+
+        fun delayMillis(now: Long): Long {
+            if (rate <= 0) return 0
+            refill(now)
+            if (tokens > 0) return 0
+            return ceil(-tokens / rate * 1000).toLong().coerceAtLeast(1)
+        }
+
+        fun consume(amount: Double, now: Long) {
+            if (rate <= 0) return
+            refill(now)
+            tokens -= amount
+        }
+
+        private fun refill(now: Long) {
+            tokens = (tokens + (now - lastRefill) * rate / 1000).coerceAtMost(rate)
+            lastRefill = now
+        }
+    }
+}
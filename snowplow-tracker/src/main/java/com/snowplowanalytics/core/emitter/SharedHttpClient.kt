@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter
+
+import androidx.annotation.RestrictTo
+import com.snowplowanalytics.snowplow.network.OkHttpNetworkConnection
+import okhttp3.Dispatcher
+import okhttp3.OkHttpClient
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Process-wide OkHttp stack shared by all HTTP traffic of the tracker.
+ *
+ * The base [client] is created lazily on first use. Components that need specific settings
+ * (e.g. TLS versions or a cookie jar in [OkHttpNetworkConnection]) derive their client using
+ * `client.newBuilder()` so that the connection pool, dispatcher and thread pools are shared
+ * across tracker instances and connection rebuilds instead of being recreated each time.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+object SharedHttpClient {
+    private const val MAX_REQUESTS_PER_HOST = 32
+    private val tlsArgumentsCache = ConcurrentHashMap<EnumSet<TLSVersion>, TLSArguments>()
+
+    /**
+     * Base client from which all tracker clients are derived.
+     */
+    @JvmStatic
+    val client: OkHttpClient by lazy {
+        // The default dispatcher runs up to 5 calls per host, fewer than the requests of a single emit attempt
+        val dispatcher = Dispatcher()
+        dispatcher.maxRequestsPerHost = MAX_REQUESTS_PER_HOST
+        OkHttpClient.Builder()
+            .dispatcher(dispatcher)
+            .connectTimeout(15.seconds)
+            .readTimeout(15.seconds)
+            .build()
+    }
+
+    /**
+     * Returns cached TLS arguments for the given TLS versions.
+     * Reusing the same socket factory allows pooled connections to be shared between
+     * clients configured with the same TLS versions.
+     * @param tlsVersions accepted TLS versions
+     * @return the TLS arguments
+     */
+    @JvmStatic
+    fun tlsArguments(tlsVersions: EnumSet<TLSVersion>): TLSArguments {
+        return tlsArgumentsCache.getOrPut(EnumSet.copyOf(tlsVersions)) {
+            TLSArguments(tlsVersions)
+        }
+    }
+}
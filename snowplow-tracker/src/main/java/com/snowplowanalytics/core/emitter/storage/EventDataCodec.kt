@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter.storage
+
+import androidx.annotation.RestrictTo
+import com.snowplowanalytics.core.tracker.Logger
+import com.snowplowanalytics.core.utils.Util
+import java.io.ByteArrayOutputStream
+
+/**
+ * Encodes the event payloads stored in the `eventData` column of the event store.
+ *
+ * The compact format is a header of two magic bytes and a version byte, followed by the number of
+ * entries and the entries themselves, each one a key and a value as length-prefixed UTF-8 strings.
+ * Counts and lengths are unsigned LEB128 varints, so that most of them take a single byte.
+ *
+ * Rows stored before version 6 of the database hold Java-serialized maps, which are still decoded
+ * so that events are never lost, though they are converted when the database is upgraded.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+object EventDataCodec {
+    private val TAG = EventDataCodec::class.java.simpleName
+
+    private const val MAGIC_0 = 0x53.toByte() // 'S'
+    private const val MAGIC_1 = 0x50.toByte() // 'P'
+    const val VERSION: Byte = 1
+    private const val HEADER_SIZE = 3
+
+    // First bytes of a Java serialization stream
+    private const val JAVA_MAGIC_0 = 0xAC.toByte()
+    private const val JAVA_MAGIC_1 = 0xED.toByte()
+
+    /**
+     * Encodes the payload map in the compact format. Null values are left out
+     * and the other values are converted to strings.
+     * @param map the payload map.
+     * @return the encoded bytes.
+     */
+    @JvmStatic
+    fun encode(map: Map<String, Any?>): ByteArray {
+        val out = ByteArrayOutputStream(64 + map.size * 24)
+        out.write(MAGIC_0.toInt())
+        out.write(MAGIC_1.toInt())
+        out.write(VERSION.toInt())
+        val entries = map.entries.filter { it.value != null }
+        writeVarint(out, entries.size)
+        for ((key, value) in entries) {
+            writeString(out, key)
+            writeString(out, value.toString())
+        }
+        return out.toByteArray()
+    }
+
+    /**
+     * Decodes a payload map stored in the compact format or with Java serialization.
+     * @param bytes the stored bytes.
+     * @return the payload map, or null if the bytes can't be decoded.
+     */
+    @JvmStatic
+    fun decode(bytes: ByteArray): Map<String, String>? {
+        if (isLegacy(bytes)) {
+            return Util.deserializer(bytes)
+        }
+        if (bytes.size < HEADER_SIZE || bytes[0] != MAGIC_0 || bytes[1] != MAGIC_1) {
+            Logger.e(TAG, "Unknown event data encoding.")
+            return null
+        }
+        if (bytes[2] != VERSION) {
+            Logger.e(TAG, "Unsupported event data encoding version: %s", bytes[2])
+            return null
+        }
+        return try {
+            val reader = Reader(bytes, HEADER_SIZE)
+            val count = reader.readCount()
+            val map = HashMap<String, String>(count * 4 / 3 + 1)
+            repeat(count) {
+                val key = reader.readString()
+                map[key] = reader.readString()
+            }
+            map
+        } catch (e: IndexOutOfBoundsException) {
+            Logger.e(TAG, "Truncated event data.")
+            null
+        }
+    }
+
+    /**
+     * Finds the value of a single key without decoding the other values.
+     * @param bytes the stored bytes.
+     * @param key the key to look for.
+     * @return the value, or null if the key is missing or the bytes can't be decoded.
+     */
+    @JvmStatic
+    fun findValue(bytes: ByteArray, key: String): String? {
+        if (bytes.size < HEADER_SIZE || bytes[0] != MAGIC_0 || bytes[1] != MAGIC_1 || bytes[2] != VERSION) {
+            return decode(bytes)?.get(key)
+        }
+        val keyBytes = key.toByteArray(Charsets.UTF_8)
+        return try {
+            val reader = Reader(bytes, HEADER_SIZE)
+            repeat(reader.readCount()) {
+                if (reader.matches(keyBytes)) {
+                    return reader.readString()
+                }
+                reader.skipString()
+            }
+            null
+        } catch (e: IndexOutOfBoundsException) {
+            Logger.e(TAG, "Truncated event data.")
+            null
+        }
+    }
+
+    /**
+     * Whether the bytes were stored with Java serialization before the compact format.
+     */
+    @JvmStatic
+    fun isLegacy(bytes: ByteArray): Boolean {
+        return bytes.size >= 2 && bytes[0] == JAVA_MAGIC_0 && bytes[1] == JAVA_MAGIC_1
+    }
+
+    private fun writeString(out: ByteArrayOutputStream, string: String) {
+        val bytes = string.toByteArray(Charsets.UTF_8)
+        writeVarint(out, bytes.size)
+        out.write(bytes, 0, bytes.size)
+    }
+
+    private fun writeVarint(out: ByteArrayOutputStream, value: Int) {
+        var remaining = value
+        while (remaining and 0x7F.inv() != 0) {
+            out.write((remaining and 0x7F) or 0x80)
+            remaining = remaining ushr 7
+        }
+        out.write(remaining)
+    }
+
+    private class Reader(private val bytes: ByteArray, private var position: Int) {
+        fun readVarint(): Int {
+            var result = 0
+            var shift = 0
+            while (true) {
+                val byte = bytes[position++].toInt()
+                result = result or ((byte and 0x7F) shl shift)
+                if (byte and 0x80 == 0) {
+                    return result
+                }
+                shift += 7
+                if (shift > 28) {
+                    throw IndexOutOfBoundsException("Varint too long")
+                }
+            }
+        }
+
+        /** Reads a count of entries, which can't be more than the remaining bytes hold. */
+        fun readCount(): Int {
+            val count = readVarint()
+            // every entry takes at least one byte for the key length and one for the value length
+            if (count < 0 || count > (bytes.size - position) / 2) {
+                throw IndexOutOfBoundsException("Entry count out of bounds")
+            }
+            return count
+        }
+
+        fun readString(): String {
+            val length = readLength()
+            val string = String(bytes, position, length, Charsets.UTF_8)
+            position += length
+            return string
+        }
+
+        fun skipString() {
+            position += readLength()
+        }
+
+        /** Reads a string and compares it with the expected bytes without decoding it. */
+        fun matches(expected: ByteArray): Boolean {
+            val length = readLength()
+            var matches = length == expected.size
+            var i = 0
+            while (matches && i < length) {
+                matches = bytes[position + i] == expected[i]
+                i++
+            }
+            position += length
+            return matches
+        }
+
+        private fun readLength(): Int {
+            val length = readVarint()
+            if (length < 0 || position + length > bytes.size) {
+                throw IndexOutOfBoundsException("String out of bounds")
+            }
+            return length
+        }
+    }
+}
@@ -17,6 +17,7 @@ import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteOpenHelper
 import androidx.annotation.RestrictTo
 import com.snowplowanalytics.core.tracker.Logger
+import com.snowplowanalytics.core.utils.Util
 import java.io.File
 
 /**
@@ -32,12 +33,92 @@ private constructor(context: Context, databaseName: String) :
     SQLiteOpenHelper(context, databaseName, null, DATABASE_VERSION) {
     override fun onCreate(database: SQLiteDatabase) {
         database.execSQL(queryCreateTable)
+        database.execSQL(queryCreateDeliveryConditionIndex)
     }
 
     override fun onUpgrade(database: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
-        Logger.d(TAG, "Upgrade not implemented, resetting database...")
-        database.execSQL(queryDropTable)
-        onCreate(database)
+        if (oldVersion < 2 && !hasColumn(database, COLUMN_BYTE_SIZE)) {
+            // The byte size of events stored before version 2 is calculated when they are read
+            Logger.d(TAG, "Upgrading database to version 2...")
+            database.execSQL(queryAddByteSizeColumn)
+        }
+        if (oldVersion < 3 && !hasColumn(database, COLUMN_ATTEMPTS)) {
+            // Events stored before version 3 have no failed attempts and can be sent immediately
+            Logger.d(TAG, "Upgrading database to version 3...")
+            database.execSQL(queryAddAttemptsColumn)
+            database.execSQL(queryAddNextAttemptTimeColumn)
+        }
+        if (oldVersion < 4 && !hasColumn(database, COLUMN_PRIORITY)) {
+            // Events stored before version 4 have the normal priority
+            Logger.d(TAG, "Upgrading database to version 4...")
+            database.execSQL(queryAddPriorityColumn)
+        }
+        if (oldVersion < 5) {
+            // Events stored before version 5 can be sent on any network
+            Logger.d(TAG, "Upgrading database to version 5...")
+            if (!hasColumn(database, COLUMN_DELIVERY_CONDITION)) {
+                database.execSQL(queryAddDeliveryConditionColumn)
+            }
+            database.execSQL(queryCreateDeliveryConditionIndex)
+        }
+        if (oldVersion < 6) {
+            // Events stored before version 6 are Java-serialized and are re-encoded in place
+            Logger.d(TAG, "Upgrading database to version 6...")
+            migrateEventData(database)
+        }
+        if (oldVersion < 7 && !hasColumn(database, COLUMN_WIRE_DATA)) {
+            // Events stored before version 7 are not in wire format
+            Logger.d(TAG, "Upgrading database to version 7...")
+            database.execSQL(queryAddWireDataColumn)
+        }
+    }
+
+    private fun migrateEventData(database: SQLiteDatabase) {
+        val update = database.compileStatement(queryUpdateEventData)
+        var lastId = -1L
+        var migrated = 0
+        try {
+            while (true) {
+                var rows = 0
+                database.rawQuery(
+                    querySelectEventDataChunk,
+                    arrayOf(lastId.toString(), MIGRATION_CHUNK_SIZE.toString())
+                ).use { cursor ->
+                    while (cursor.moveToNext()) {
+                        rows++
+                        lastId = cursor.getLong(0)
+                        val bytes = cursor.getBlob(1)
+                        // Undecodable rows are left untouched and dropped when they are read
+                        val map = if (bytes != null && EventDataCodec.isLegacy(bytes)) {
+                            Util.deserializer(bytes)
+                        } else null
+                        if (map != null) {
+                            update.bindBlob(1, EventDataCodec.encode(map))
+                            update.bindLong(2, lastId)
+                            update.executeUpdateDelete()
+                            update.clearBindings()
+                            migrated++
+                        }
+                    }
+                }
+                if (rows < MIGRATION_CHUNK_SIZE) break
+            }
+        } finally {
+            update.close()
+        }
+        Logger.d(TAG, "Re-encoded %s events.", migrated)
+    }
+
+    private fun hasColumn(database: SQLiteDatabase, column: String): Boolean {
+        database.rawQuery("PRAGMA table_info('$TABLE_EVENTS')", null).use { cursor ->
+            val nameIndex = cursor.getColumnIndex("name")
+            while (cursor.moveToNext()) {
+                if (cursor.getString(nameIndex) == column) {
+                    return true
+                }
+            }
+        }
+        return false
     }
 
     companion object {
@@ -45,16 +126,45 @@ private constructor(context: Context, databaseName: String) :
         const val COLUMN_ID = "id"
         const val COLUMN_EVENT_DATA = "eventData"
         const val COLUMN_DATE_CREATED = "dateCreated"
+        const val COLUMN_BYTE_SIZE = "byteSize"
+        const val COLUMN_ATTEMPTS = "attempts"
+        const val COLUMN_NEXT_ATTEMPT_TIME = "nextAttemptTime"
+        const val COLUMN_PRIORITY = "priority"
+        const val COLUMN_DELIVERY_CONDITION = "deliveryCondition"
+        const val COLUMN_WIRE_DATA = "wireData"
         const val METADATA_ID = "id"
         const val METADATA_EVENT_DATA = "eventData"
         const val METADATA_DATE_CREATED = "dateCreated"
+        const val METADATA_BYTE_SIZE = "byteSize"
+        const val METADATA_ATTEMPTS = "attempts"
+        const val METADATA_PRIORITY = "priority"
+        const val METADATA_DELIVERY_CONDITION = "deliveryCondition"
         private const val DATABASE_NAME = "snowplowEvents"
         private val TAG = EventStoreHelper::class.java.name
-        private const val DATABASE_VERSION = 1
-        private const val queryDropTable = "DROP TABLE IF EXISTS '$TABLE_EVENTS'"
+        private const val DATABASE_VERSION = 7
+        private const val MIGRATION_CHUNK_SIZE = 100
         private const val queryCreateTable = "CREATE TABLE IF NOT EXISTS 'events' " +
                 "(id INTEGER PRIMARY KEY, eventData BLOB, " +
-                "dateCreated TIMESTAMP DEFAULT CURRENT_TIMESTAMP)"
+                "dateCreated TIMESTAMP DEFAULT CURRENT_TIMESTAMP, byteSize INTEGER, " +
+                "attempts INTEGER NOT NULL DEFAULT 0, nextAttemptTime INTEGER NOT NULL DEFAULT 0, " +
+                "priority INTEGER NOT NULL DEFAULT 1, deliveryCondition INTEGER NOT NULL DEFAULT 0, " +
+                "wireData BLOB)"
+        private const val queryAddByteSizeColumn = "ALTER TABLE 'events' ADD COLUMN byteSize INTEGER"
+        private const val queryAddAttemptsColumn =
+            "ALTER TABLE 'events' ADD COLUMN attempts INTEGER NOT NULL DEFAULT 0"
+        private const val queryAddNextAttemptTimeColumn =
+            "ALTER TABLE 'events' ADD COLUMN nextAttemptTime INTEGER NOT NULL DEFAULT 0"
+        private const val queryAddPriorityColumn =
+            "ALTER TABLE 'events' ADD COLUMN priority INTEGER NOT NULL DEFAULT 1"
+        private const val queryAddDeliveryConditionColumn =
+            "ALTER TABLE 'events' ADD COLUMN deliveryCondition INTEGER NOT NULL DEFAULT 0"
+        private const val queryAddWireDataColumn = "ALTER TABLE 'events' ADD COLUMN wireData BLOB"
+        // Lets the emitter select the events whose delivery condition is satisfied without a full table scan
+        private const val queryCreateDeliveryConditionIndex =
+            "CREATE INDEX IF NOT EXISTS 'events_delivery_condition' ON 'events' (deliveryCondition, priority, id)"
+        private const val querySelectEventDataChunk =
+            "SELECT id, eventData FROM 'events' WHERE id > ? ORDER BY id LIMIT ?"
+        private const val queryUpdateEventData = "UPDATE 'events' SET eventData = ? WHERE id = ?"
 
         // Prevents multiple instances being created and avoids memory leaks.
         private val instances = HashMap<String, EventStoreHelper>()
@@ -12,19 +12,25 @@
  */
 package com.snowplowanalytics.core.emitter.storage
 
-import android.content.ContentValues
 import android.content.Context
 import android.database.Cursor
 import android.database.DatabaseUtils
+import android.database.SQLException
 import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteStatement
+import androidx.annotation.RestrictTo
 
 import com.snowplowanalytics.core.emitter.Executor
 import com.snowplowanalytics.core.tracker.Logger
 import com.snowplowanalytics.core.utils.Util
+import com.snowplowanalytics.snowplow.emitter.DeliveryCondition
 import com.snowplowanalytics.snowplow.emitter.EmitterEvent
+import com.snowplowanalytics.snowplow.emitter.EventPriority
 import com.snowplowanalytics.snowplow.emitter.EventStore
 import com.snowplowanalytics.snowplow.payload.Payload
 import com.snowplowanalytics.snowplow.payload.TrackerPayload
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
 import kotlin.time.Duration
 
 /**
@@ -39,15 +45,32 @@ import kotlin.time.Duration
  * yet ready.
  */
 class SQLiteEventStore(context: Context, private val namespace: String) : EventStore {
-    private val payloadWaitingList: MutableList<Payload> = ArrayList()
+    private val payloadWaitingList: MutableList<WaitingEvent> = ArrayList()
+    // Serializes the inserts and the removal of all the events, without blocking the readers of the waiting list
+    private val commitLock = ReentrantLock()
+    private var insertStatement: SQLiteStatement? = null
     private var database: SQLiteDatabase? = null
     private var dbHelper: EventStoreHelper? = null
     private val allColumns = arrayOf(
         EventStoreHelper.COLUMN_ID,
         EventStoreHelper.COLUMN_EVENT_DATA,
-        EventStoreHelper.COLUMN_DATE_CREATED
+        EventStoreHelper.COLUMN_DATE_CREATED,
+        EventStoreHelper.COLUMN_BYTE_SIZE,
+        EventStoreHelper.COLUMN_ATTEMPTS,
+        EventStoreHelper.COLUMN_PRIORITY,
+        EventStoreHelper.COLUMN_DELIVERY_CONDITION,
+        EventStoreHelper.COLUMN_WIRE_DATA
     )
 
+    /**
+     * Whether to also store the JSON of the events as it is sent to the collector.
+     * Events stored in wire format are written into POST requests without being decoded
+     * and serialized again, at the cost of more space in the database.
+     * Events already stored keep the format they were stored in.
+     */
+    @Volatile
+    var wireFormat: Boolean = false
+
     /**
      * Returns the last rowId to be inserted.
      *
@@ -68,7 +91,7 @@ class SQLiteEventStore(context: Context, private val namespace: String) : EventS
      * Creates a new Event Store
      */
     init {
-        Executor.futureCallable {
+        Executor.futureCallable(Executor.Lane.Disk) {
             dbHelper = EventStoreHelper.getInstance(context, namespace)
             open()
             Logger.d(TAG, "DB Path: %s", database?.path)
@@ -77,11 +100,45 @@ class SQLiteEventStore(context: Context, private val namespace: String) : EventS
     }
 
     override fun add(payload: Payload) {
-        if (!databaseOpen) {
-            synchronized(this) { payloadWaitingList.add(payload) }
-        } else {
-            insertWaitingEventsIfReady()
-            insertEvent(payload)
+        add(payload, EventPriority.Normal)
+    }
+
+    override fun add(payload: Payload, priority: EventPriority) {
+        add(payload, priority, DeliveryCondition.Always)
+    }
+
+    /**
+     * Adds the event to the database in its own transaction, see [addAll] to add several events at once.
+     */
+    override fun add(payload: Payload, priority: EventPriority, deliveryCondition: DeliveryCondition) {
+        addAll(listOf(WaitingEvent(payload, priority, deliveryCondition)))
+    }
+
+    /**
+     * Adds the events to the database in a single transaction, so that a burst of events
+     * pays for one commit instead of one commit per event.
+     * If the database is not open yet or the transaction failed, the events are kept in the waiting list
+     * and committed with the next events.
+     *
+     * @param events The events to add, in order
+     * @return whether the events were committed, false if they were kept in the waiting list
+     */
+    fun addAll(events: List<WaitingEvent>): Boolean {
+        if (events.isEmpty()) {
+            return true
+        }
+        synchronized(this) {
+            if (!databaseOpen) {
+                payloadWaitingList.addAll(events)
+                return false
+            }
+        }
+        commitLock.withLock {
+            if (insertWaitingEvents(events)) {
+                return true
+            }
+            synchronized(this) { payloadWaitingList.addAll(events) }
+            return false
         }
     }
 
@@ -100,6 +157,11 @@ class SQLiteEventStore(context: Context, private val namespace: String) : EventS
      * Closes the database
      */
     fun close() {
+        commitLock.withLock {
+            insertWaitingEventsIfReady()
+            insertStatement?.close()
+            insertStatement = null
+        }
         dbHelper?.close()
         EventStoreHelper.removeInstance(namespace)
     }
@@ -109,21 +171,76 @@ class SQLiteEventStore(context: Context, private val namespace: String) : EventS
      *
      * @param payload The event payload to
      * be stored
+     * @param priority The priority of the event
+     * @param deliveryCondition The condition under
+     * which the event can be sent
      * @return a boolean stating if the insert
      * was a success or not
      */
-    fun insertEvent(payload: Payload): Long? {
-        if (databaseOpen) {
-            val database = database ?: return null
-            val bytes = Util.serialize(Util.objectMapToString(payload.map))
-            val values = ContentValues(2)
-            values.put(EventStoreHelper.COLUMN_EVENT_DATA, bytes)
-            lastInsertedRowId =
-                database.insert(EventStoreHelper.TABLE_EVENTS, null, values)
-            Logger.d(TAG, "Added event to database: %s", lastInsertedRowId)
-            return lastInsertedRowId
-        }
-        return null
+    @JvmOverloads
+    fun insertEvent(
+        payload: Payload,
+        priority: EventPriority = EventPriority.Normal,
+        deliveryCondition: DeliveryCondition = DeliveryCondition.Always
+    ): Long? {
+        commitLock.withLock {
+            insertWaitingEventsIfReady()
+            return insertEvents(listOf(WaitingEvent(payload, priority, deliveryCondition)))?.firstOrNull()
+        }
+    }
+
+    /**
+     * Inserts the events into the database in a single transaction,
+     * reusing the same compiled statement for each of them.
+     * Called with the commit lock held.
+     *
+     * @param events The events to be stored, in order
+     * @return the row IDs of the stored events, or null if the
+     * database is not open or the transaction failed
+     */
+    private fun insertEvents(events: List<WaitingEvent>): List<Long>? {
+        if (!databaseOpen || events.isEmpty()) {
+            return null
+        }
+        val database = database ?: return null
+        val ids = ArrayList<Long>(events.size)
+        try {
+            val statement = insertStatement
+                ?: database.compileStatement(queryInsertEvent).also { insertStatement = it }
+            database.beginTransaction()
+            try {
+                for (event in events) {
+                    bindEvent(statement, event)
+                    ids.add(statement.executeInsert())
+                    statement.clearBindings()
+                }
+                database.setTransactionSuccessful()
+            } finally {
+                database.endTransaction()
+            }
+        } catch (e: SQLException) {
+            Logger.e(TAG, "Failed to add events to database: %s", e.message)
+            return null
+        }
+        lastInsertedRowId = ids.last()
+        Logger.d(TAG, "Added events to database: %s", ids.size)
+        return ids
+    }
+
+    private fun bindEvent(statement: SQLiteStatement, event: WaitingEvent) {
+        val payload = event.payload
+        statement.bindBlob(1, EventDataCodec.encode(payload.map))
+        if (wireFormat) {
+            // The payload is serialized once, its byte size is the length of the JSON
+            val json = payload.toString().toByteArray(Charsets.UTF_8)
+            statement.bindLong(2, json.size.toLong())
+            statement.bindBlob(5, json)
+        } else {
+            statement.bindLong(2, payload.byteSize)
+            statement.bindNull(5)
+        }
+        statement.bindLong(3, event.priority.value.toLong())
+        statement.bindLong(4, event.deliveryCondition.code.toLong())
     }
 
     override fun removeEvent(id: Long): Boolean {
@@ -156,33 +273,44 @@ class SQLiteEventStore(context: Context, private val namespace: String) : EventS
     override fun removeAllEvents(): Boolean {
         var retval = 0
         Logger.d(TAG, "Removing all events from database.")
-        if (databaseOpen) {
-            retval = database?.delete(EventStoreHelper.TABLE_EVENTS, null, null) ?: retval
-        } else {
-            Logger.e(TAG, "Database is not open.")
+        // A commit in progress either completes before the events are removed or starts after
+        commitLock.withLock {
+            if (databaseOpen) {
+                retval = database?.delete(EventStoreHelper.TABLE_EVENTS, null, null) ?: retval
+            } else {
+                Logger.e(TAG, "Database is not open.")
+            }
+            synchronized(this) {
+                retval += payloadWaitingList.size
+                payloadWaitingList.clear()
+            }
         }
-        retval += payloadWaitingList.size
-        payloadWaitingList.clear()
         return retval >= 0
     }
 
     override fun removeOldEvents(maxSize: Long, maxAge: Duration) {
+        removeOldEventsCounting(maxSize, maxAge)
+    }
+
+    override fun removeOldEventsCounting(maxSize: Long, maxAge: Duration): Long {
         if (databaseOpen) {
             insertWaitingEventsIfReady()
 
-            database?.execSQL(
+            val statement = database?.compileStatement(
                 """
                 DELETE FROM ${EventStoreHelper.TABLE_EVENTS}
                 WHERE ${EventStoreHelper.COLUMN_ID} NOT IN (
                     SELECT ${EventStoreHelper.COLUMN_ID}
                     FROM ${EventStoreHelper.TABLE_EVENTS}
                     WHERE ${EventStoreHelper.COLUMN_DATE_CREATED} >= datetime('now','-${maxAge.inWholeSeconds} seconds')
-                    ORDER BY ${EventStoreHelper.COLUMN_DATE_CREATED} DESC, ${EventStoreHelper.COLUMN_ID} DESC
+                    ORDER BY ${EventStoreHelper.COLUMN_PRIORITY} DESC, ${EventStoreHelper.COLUMN_DATE_CREATED} DESC, ${EventStoreHelper.COLUMN_ID} DESC
                     LIMIT $maxSize
                 )
                 """.trimIndent()
-            )
+            ) ?: return 0
+            return statement.use { it.executeUpdateDelete().toLong() }
         }
+        return 0
     }
 
     /**
@@ -196,8 +324,34 @@ class SQLiteEventStore(context: Context, private val namespace: String) : EventS
      * the query
      */
     private fun queryDatabase(query: String?, orderBy: String?): List<Map<String, Any?>> {
-        val res: MutableList<Map<String, Any?>> = ArrayList()
+        return queryDatabase(query, orderBy) { cursor ->
+            val eventMetadata: MutableMap<String, Any?> = HashMap()
+            eventMetadata[EventStoreHelper.METADATA_ID] = cursor.getLong(0)
+            eventMetadata[EventStoreHelper.METADATA_EVENT_DATA] =
+                EventDataCodec.decode(cursor.getBlob(1))
+            eventMetadata[EventStoreHelper.METADATA_DATE_CREATED] =
+                cursor.getString(2)
+            eventMetadata[EventStoreHelper.METADATA_BYTE_SIZE] =
+                if (cursor.isNull(3)) null else cursor.getLong(3)
+            eventMetadata[EventStoreHelper.METADATA_ATTEMPTS] = cursor.getInt(4)
+            eventMetadata[EventStoreHelper.METADATA_PRIORITY] = cursor.getInt(5)
+            eventMetadata[EventStoreHelper.METADATA_DELIVERY_CONDITION] = cursor.getInt(6)
+            eventMetadata
+        }
+    }
+
+    /**
+     * Reads the rows that validate a specific query.
+     *
+     * @param query the query to be passed against the database
+     * @param orderBy what to order the query by
+     * @param read converts the current row of the cursor
+     * @return the rows that satisfied the query
+     */
+    private fun <T> queryDatabase(query: String?, orderBy: String?, read: (Cursor) -> T?): List<T> {
+        val res: MutableList<T> = ArrayList()
         if (databaseOpen) {
+            insertWaitingEventsIfReady()
             val database = database ?: return res
             var cursor: Cursor? = null
             try {
@@ -212,14 +366,8 @@ class SQLiteEventStore(context: Context, private val namespace: String) : EventS
                 )
                 cursor.moveToFirst()
                 while (!cursor.isAfterLast) {
-                    val eventMetadata: MutableMap<String, Any?> = HashMap()
-                    eventMetadata[EventStoreHelper.METADATA_ID] = cursor.getLong(0)
-                    eventMetadata[EventStoreHelper.METADATA_EVENT_DATA] =
-                        Util.deserializer(cursor.getBlob(1))
-                    eventMetadata[EventStoreHelper.METADATA_DATE_CREATED] =
-                        cursor.getString(2)
+                    read(cursor)?.let { res.add(it) }
                     cursor.moveToNext()
-                    res.add(eventMetadata)
                 }
             } finally {
                 cursor?.close()
@@ -230,42 +378,134 @@ class SQLiteEventStore(context: Context, private val namespace: String) : EventS
 
     // Getters
     override fun size(): Long {
+        // Events waiting to be committed are counted without committing them
+        val waitingCount = synchronized(this) { payloadWaitingList.size.toLong() }
         return if (databaseOpen) {
-            insertWaitingEventsIfReady()
-            DatabaseUtils.queryNumEntries(database, EventStoreHelper.TABLE_EVENTS)
+            DatabaseUtils.queryNumEntries(database, EventStoreHelper.TABLE_EVENTS) + waitingCount
         } else {
-            payloadWaitingList.size.toLong()
+            waitingCount
+        }
+    }
+
+    /**
+     * Returns the number of stored events with one of the given delivery conditions.
+     *
+     * @param deliveryConditions the delivery conditions of the events to count
+     * @return the count of events, 0 if the database is not open
+     */
+    fun count(deliveryConditions: Set<DeliveryCondition>): Long {
+        if (!databaseOpen || deliveryConditions.isEmpty()) {
+            return 0
         }
+        return DatabaseUtils.queryNumEntries(
+            database,
+            EventStoreHelper.TABLE_EVENTS,
+            EventStoreHelper.COLUMN_DELIVERY_CONDITION + " IN (" +
+                    deliveryConditions.joinToString(",") { it.code.toString() } + ")"
+        )
     }
 
     override fun getEmittableEvents(queryLimit: Int): List<EmitterEvent> {
-        if (!databaseOpen) {
+        return getEmittableEvents(queryLimit, emptySet())
+    }
+
+    override fun getEmittableEvents(queryLimit: Int, excludedIds: Set<Long>): List<EmitterEvent> {
+        return getEmittableEvents(queryLimit, excludedIds, EventPriority.Low)
+    }
+
+    override fun getEmittableEvents(
+        queryLimit: Int,
+        excludedIds: Set<Long>,
+        minPriority: EventPriority
+    ): List<EmitterEvent> {
+        return getEmittableEvents(queryLimit, excludedIds, minPriority, DeliveryCondition.values().toSet())
+    }
+
+    override fun getEmittableEvents(
+        queryLimit: Int,
+        excludedIds: Set<Long>,
+        minPriority: EventPriority,
+        deliveryConditions: Set<DeliveryCondition>
+    ): List<EmitterEvent> {
+        if (!databaseOpen || deliveryConditions.isEmpty()) {
             return emptyList<EmitterEvent>()
         }
         insertWaitingEventsIfReady()
-        val events = ArrayList<EmitterEvent>()
+        // Leave out events waiting to be retried after failing
+        var query = EventStoreHelper.COLUMN_NEXT_ATTEMPT_TIME + " <= " + System.currentTimeMillis()
+        if (excludedIds.isNotEmpty()) {
+            query += " AND " + EventStoreHelper.COLUMN_ID + " NOT IN (" + Util.joinLongList(excludedIds.toList()) + ")"
+        }
+        if (minPriority != EventPriority.Low) {
+            query += " AND " + EventStoreHelper.COLUMN_PRIORITY + " >= " + minPriority.value
+        }
+        // Leave out events held back until their delivery condition is satisfied
+        if (deliveryConditions.size < DeliveryCondition.values().size) {
+            query += " AND " + EventStoreHelper.COLUMN_DELIVERY_CONDITION + " IN (" +
+                    deliveryConditions.joinToString(",") { it.code.toString() } + ")"
+        }
 
-        // FIFO Pattern for sending events
-        for (eventMetadata in getDescEventsInRange(queryLimit)) {
+        // Higher priority events first, LIFO Pattern within the same priority
+        val orderBy = EventStoreHelper.COLUMN_PRIORITY + " DESC, " + EventStoreHelper.COLUMN_ID + " DESC LIMIT " + queryLimit
+        return queryDatabase(query, orderBy) { cursor -> readEmitterEvent(cursor) }
+    }
 
+    /**
+     * Creates an event from the current row of the cursor.
+     * Events stored in wire format keep their JSON bytes and are only decoded if needed.
+     */
+    private fun readEmitterEvent(cursor: Cursor): EmitterEvent? {
+        if (cursor.isNull(0)) {
+            Logger.e(TAG, "Unable to get ID of an event extracted from the database.")
+            return null
+        }
+        val eventData = cursor.getBlob(1)
+        val wireData = cursor.getBlob(7)
+        val payload: Payload = if (wireData != null) {
+            WireFormatPayload(wireData, eventData)
+        } else {
             // Create a TrackerPayload for each event
             val payload = TrackerPayload()
-            val eventData =
-                eventMetadata[EventStoreHelper.METADATA_EVENT_DATA] as? Map<String, Any>
-            if (eventData != null) {
-                payload.addMap(eventData)
-            }
+            eventData?.let { EventDataCodec.decode(it) }?.let { payload.addMap(it) }
+            payload
+        }
+        return EmitterEvent(
+            payload,
+            cursor.getLong(0),
+            if (cursor.isNull(3)) null else cursor.getLong(3),
+            cursor.getInt(4),
+            EventPriority.fromValue(cursor.getInt(5)),
+            DeliveryCondition.fromCode(cursor.getInt(6))
+        )
+    }
 
-            // Create EmitterEvent
-            val eventId = eventMetadata[EventStoreHelper.METADATA_ID] as? Long?
-            if (eventId == null) {
-                Logger.e(TAG, "Unable to get ID of an event extracted from the database.")
-                continue
-            }
-            val event = EmitterEvent(payload, eventId)
-            events.add(event)
+    override fun recordFailedAttempt(ids: List<Long>, nextAttemptTime: Long) {
+        if (ids.isEmpty() || !databaseOpen) {
+            return
+        }
+        database?.execSQL(
+            """
+            UPDATE ${EventStoreHelper.TABLE_EVENTS}
+            SET ${EventStoreHelper.COLUMN_ATTEMPTS} = ${EventStoreHelper.COLUMN_ATTEMPTS} + 1,
+                ${EventStoreHelper.COLUMN_NEXT_ATTEMPT_TIME} = $nextAttemptTime
+            WHERE ${EventStoreHelper.COLUMN_ID} IN (${Util.joinLongList(ids)})
+            """.trimIndent()
+        )
+        Logger.d(TAG, "Delayed events in database until: %s", nextAttemptTime)
+    }
+
+    override fun getNextAttemptTime(): Long? {
+        if (!databaseOpen) {
+            return null
+        }
+        val database = database ?: return null
+        database.rawQuery(
+            "SELECT MIN(${EventStoreHelper.COLUMN_NEXT_ATTEMPT_TIME}) FROM ${EventStoreHelper.TABLE_EVENTS} " +
+                    "WHERE ${EventStoreHelper.COLUMN_NEXT_ATTEMPT_TIME} > ${System.currentTimeMillis()}",
+            null
+        ).use { cursor ->
+            return if (cursor.moveToFirst() && !cursor.isNull(0)) cursor.getLong(0) else null
         }
-        return events
     }
 
     /**
@@ -306,18 +546,48 @@ class SQLiteEventStore(context: Context, private val namespace: String) : EventS
     }
 
     private fun insertWaitingEventsIfReady() {
-        if (databaseOpen && payloadWaitingList.size > 0) {
-            synchronized(this) {
-                for (p in payloadWaitingList) {
-                    insertEvent(p)
-                }
-                payloadWaitingList.clear()
-            }
+        if (!databaseOpen) {
+            return
         }
+        commitLock.withLock { insertWaitingEvents(emptyList()) }
     }
 
+    /**
+     * Inserts the events of the waiting list followed by the given events in a single transaction.
+     * The waiting list is only cleared if the transaction succeeded.
+     * Called with the commit lock held.
+     *
+     * @return whether the transaction succeeded
+     */
+    private fun insertWaitingEvents(events: List<WaitingEvent>): Boolean {
+        val waitingEvents = synchronized(this) { payloadWaitingList.toList() }
+        if (waitingEvents.isEmpty() && events.isEmpty()) {
+            return true
+        }
+        if (insertEvents(waitingEvents + events) == null) {
+            return false
+        }
+        // Events are only appended to the waiting list, so the inserted ones are at its start
+        synchronized(this) { payloadWaitingList.subList(0, waitingEvents.size).clear() }
+        return true
+    }
+
+    /**
+     * An event waiting to be added to the database.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    class WaitingEvent(
+        val payload: Payload,
+        val priority: EventPriority,
+        val deliveryCondition: DeliveryCondition
+    )
+
     companion object {
         private val TAG = SQLiteEventStore::class.java.simpleName
+        private val queryInsertEvent = "INSERT INTO ${EventStoreHelper.TABLE_EVENTS} (" +
+                "${EventStoreHelper.COLUMN_EVENT_DATA}, ${EventStoreHelper.COLUMN_BYTE_SIZE}, " +
+                "${EventStoreHelper.COLUMN_PRIORITY}, ${EventStoreHelper.COLUMN_DELIVERY_CONDITION}, " +
+                "${EventStoreHelper.COLUMN_WIRE_DATA}) VALUES (?, ?, ?, ?, ?)"
         
         fun removeUnsentEventsExceptForNamespaces(
             context: Context,
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.emitter.storage
+
+import androidx.annotation.RestrictTo
+import com.snowplowanalytics.core.constants.Parameters
+import com.snowplowanalytics.core.tracker.Logger
+import com.snowplowanalytics.snowplow.payload.Payload
+import com.snowplowanalytics.snowplow.payload.TrackerPayload
+import okio.Buffer
+import okio.BufferedSink
+import org.json.JSONException
+import org.json.JSONObject
+
+/**
+ * A payload read from the event store in wire format, holding the JSON bytes as they are sent
+ * to the collector so that they can be written into a request without being decoded and serialized again.
+ *
+ * The sending time added by the emitter is spliced into the JSON at the end of the object.
+ * The payload map is only decoded if it's accessed, e.g. for GET requests, and any other change
+ * to the payload makes it fall back to a regular [TrackerPayload].
+ *
+ * @param json The UTF-8 JSON bytes of the payload.
+ * @param eventData The payload encoded by [EventDataCodec], used to read the map without parsing the JSON.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+class WireFormatPayload(
+    private val json: ByteArray,
+    private val eventData: ByteArray?
+) : Payload {
+    private var sentTimestamp: String? = null
+    private var decodedMap: HashMap<String, Any>? = null
+    private var modified: TrackerPayload? = null
+
+    override val map: Map<String, Any>
+        get() = modified?.map ?: decodeMap()
+
+    override val byteSize: Long
+        get() = modified?.byteSize ?: (json.size + sentTimestampField().size).toLong()
+
+    override fun add(key: String, value: String?) {
+        if (key == Parameters.SENT_TIMESTAMP && modified == null && !value.isNullOrEmpty()) {
+            sentTimestamp = value
+            decodedMap?.put(key, value)
+        } else {
+            modifiable().add(key, value)
+        }
+    }
+
+    override fun add(key: String, value: Any?) {
+        if (value is String?) {
+            add(key, value)
+        } else {
+            modifiable().add(key, value)
+        }
+    }
+
+    override fun addMap(map: Map<String, Any?>) {
+        modifiable().addMap(map)
+    }
+
+    override fun addMap(
+        map: Map<*, *>,
+        base64_encoded: Boolean,
+        type_encoded: String,
+        type_no_encoded: String
+    ) {
+        modifiable().addMap(map, base64_encoded, type_encoded, type_no_encoded)
+    }
+
+    /**
+     * Reads a single value of the payload, without decoding the whole map if possible.
+     * @param key The key of the value.
+     * @return the value, or null if missing.
+     */
+    fun getString(key: String): String? {
+        modified?.let { return it.map[key]?.toString() }
+        if (key == Parameters.SENT_TIMESTAMP && sentTimestamp != null) return sentTimestamp
+        decodedMap?.let { return it[key]?.toString() }
+        return eventData?.let { EventDataCodec.findValue(it, key) } ?: decodeMap()[key]?.toString()
+    }
+
+    /**
+     * Writes the JSON of the payload into the sink, with the sending time spliced in.
+     * @param sink The sink of the request body.
+     */
+    fun writeTo(sink: BufferedSink) {
+        val modified = modified
+        if (modified != null) {
+            sink.writeUtf8(modified.toString())
+            return
+        }
+        val field = sentTimestampField()
+        if (field.isEmpty() || !isObject()) {
+            sink.write(json)
+            return
+        }
+        sink.write(json, 0, json.size - 1)
+        sink.write(field)
+        sink.writeByte('}'.code)
+    }
+
+    override fun toString(): String {
+        modified?.let { return it.toString() }
+        val buffer = Buffer()
+        writeTo(buffer)
+        return buffer.readUtf8()
+    }
+
+    // Private methods
+
+    /** The bytes of the sending time field to insert before the closing brace of the JSON object. */
+    private fun sentTimestampField(): ByteArray {
+        val timestamp = sentTimestamp ?: return EMPTY
+        if (!isObject()) return EMPTY
+        val separator = if (json.size > 2) "," else ""
+        return (separator + JSONObject.quote(Parameters.SENT_TIMESTAMP) + ":" + JSONObject.quote(timestamp))
+            .toByteArray(Charsets.UTF_8)
+    }
+
+    private fun isObject(): Boolean {
+        return json.size >= 2 && json[0] == '{'.code.toByte() && json[json.size - 1] == '}'.code.toByte()
+    }
+
+    private fun decodeMap(): HashMap<String, Any> {
+        decodedMap?.let { return it }
+        val map = HashMap<String, Any>()
+        val decoded = eventData?.let { EventDataCodec.decode(it) }
+        if (decoded != null) {
+            map.putAll(decoded)
+        } else {
+            try {
+                val jsonObject = JSONObject(String(json, Charsets.UTF_8))
+                for (key in jsonObject.keys()) {
+                    val value = jsonObject.get(key)
+                    if (value != JSONObject.NULL) map[key] = value
+                }
+            } catch (e: JSONException) {
+                Logger.e(TAG, "Unable to parse the stored event: %s", e.message)
+            }
+        }
+        sentTimestamp?.let { map[Parameters.SENT_TIMESTAMP] = it }
+        decodedMap = map
+        return map
+    }
+
+    private fun modifiable(): TrackerPayload {
+        modified?.let { return it }
+        val payload = TrackerPayload()
+        payload.addMap(decodeMap())
+        modified = payload
+        return payload
+    }
+
+    companion object {
+        private val TAG = WireFormatPayload::class.java.simpleName
+        private val EMPTY = ByteArray(0)
+    }
+}
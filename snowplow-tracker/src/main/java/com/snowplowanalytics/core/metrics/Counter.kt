@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.metrics
+
+import androidx.annotation.RestrictTo
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A monotonic count that can be increased without locking.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+class Counter {
+    private val value = AtomicLong()
+
+    val count: Long
+        get() = value.get()
+
+    fun increment() {
+        value.incrementAndGet()
+    }
+
+    fun add(delta: Long) {
+        if (delta > 0) {
+            value.addAndGet(delta)
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.metrics
+
+import androidx.annotation.RestrictTo
+import com.snowplowanalytics.snowplow.metrics.HistogramSnapshot
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * A distribution of measured values counted in fixed buckets, that can be updated without locking.
+ *
+ * @param bucketBounds the inclusive upper bounds of the buckets in ascending order,
+ * values above the last bound are counted in an extra bucket
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+class Histogram(private val bucketBounds: LongArray = DEFAULT_LATENCY_BOUNDS) {
+    private val bucketCounts = AtomicLongArray(bucketBounds.size + 1)
+    private val count = AtomicLong()
+    private val sum = AtomicLong()
+    private val min = AtomicLong(Long.MAX_VALUE)
+    private val max = AtomicLong(Long.MIN_VALUE)
+
+    /**
+     * Records a measured value, negative values are counted as 0.
+     */
+    fun record(value: Long) {
+        val v = value.coerceAtLeast(0)
+        var bucket = bucketBounds.binarySearch(v)
+        if (bucket < 0) bucket = -bucket - 1
+        bucketCounts.incrementAndGet(bucket)
+        sum.addAndGet(v)
+        count.incrementAndGet()
+        var current = min.get()
+        while (v < current && !min.compareAndSet(current, v)) {
+            current = min.get()
+        }
+        current = max.get()
+        while (v > current && !max.compareAndSet(current, v)) {
+            current = max.get()
+        }
+    }
+
+    /**
+     * The values are read one by one, so a snapshot taken while values are recorded
+     * can be slightly inconsistent (e.g. the count not matching the bucket counts).
+     */
+    fun snapshot(): HistogramSnapshot {
+        val count = count.get()
+        return HistogramSnapshot(
+            count = count,
+            sum = sum.get(),
+            min = if (count > 0) min.get() else 0,
+            max = if (count > 0) max.get() else 0,
+            bucketBounds = bucketBounds.toList(),
+            bucketCounts = (0 until bucketCounts.length()).map { bucketCounts.get(it) }
+        )
+    }
+
+    companion object {
+        /**
+         * Bucket bounds suited to durations in milliseconds, from 1 ms to 5 minutes.
+         */
+        val DEFAULT_LATENCY_BOUNDS = longArrayOf(
+            1, 2, 5, 10, 20, 50, 100, 200, 500,
+            1000, 2000, 5000, 10000, 20000, 60000, 300000
+        )
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.core.metrics
+
+import androidx.annotation.RestrictTo
+import androidx.core.util.Consumer
+import com.snowplowanalytics.core.emitter.Executor
+import com.snowplowanalytics.core.tracker.Logger
+import com.snowplowanalytics.snowplow.metrics.MetricsSnapshot
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Holds the metrics of a component of the tracker.
+ * Metrics are created on first use and updated without locking.
+ * Listeners can subscribe to snapshots exported periodically.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+class MetricsRegistry {
+    private val TAG = MetricsRegistry::class.java.simpleName
+
+    private val counters = ConcurrentHashMap<String, Counter>()
+    private val histograms = ConcurrentHashMap<String, Histogram>()
+    private val gauges = ConcurrentHashMap<String, () -> Long>()
+    private val exporters = ConcurrentHashMap<Consumer<MetricsSnapshot>, Exporter>()
+
+    /**
+     * @return the counter with the given name, created if missing
+     */
+    fun counter(name: String): Counter {
+        return counters[name] ?: counters.putIfAbsent(name, Counter()) ?: counters[name]!!
+    }
+
+    /**
+     * @return the histogram with the given name, created if missing
+     */
+    fun histogram(name: String): Histogram {
+        return histograms[name] ?: histograms.putIfAbsent(name, Histogram()) ?: histograms[name]!!
+    }
+
+    /**
+     * Registers a gauge whose value is read when taking a snapshot.
+     */
+    fun gauge(name: String, value: () -> Long) {
+        gauges[name] = value
+    }
+
+    /**
+     * @return the current value of all the metrics
+     */
+    fun snapshot(): MetricsSnapshot {
+        val gaugeValues = HashMap<String, Long>()
+        for ((name, gauge) in gauges) {
+            try {
+                gaugeValues[name] = gauge()
+            } catch (e: Exception) {
+                Logger.e(TAG, "Unable to read gauge %s: %s", name, e.message)
+            }
+        }
+        return MetricsSnapshot(
+            System.currentTimeMillis(),
+            counters.mapValues { it.value.count },
+            gaugeValues,
+            histograms.mapValues { it.value.snapshot() }
+        )
+    }
+
+    /**
+     * Calls the listener with a snapshot at every interval, until it's removed.
+     *
+     * @param intervalMillis the interval between exports
+     * @param listener the listener receiving the snapshots
+     * @param snapshot the function taking the snapshot to export
+     */
+    fun addListener(
+        intervalMillis: Long,
+        listener: Consumer<MetricsSnapshot>,
+        snapshot: () -> MetricsSnapshot = ::snapshot
+    ) {
+        val exporter = Exporter(intervalMillis.coerceAtLeast(MIN_EXPORT_INTERVAL), listener, snapshot)
+        exporters.put(listener, exporter)?.cancel()
+        exporter.schedule()
+    }
+
+    /**
+     * Stops the periodic export to the listener.
+     */
+    fun removeListener(listener: Consumer<MetricsSnapshot>) {
+        exporters.remove(listener)?.cancel()
+    }
+
+    /**
+     * Stops all the periodic exports.
+     */
+    fun removeAllListeners() {
+        exporters.values.forEach { it.cancel() }
+        exporters.clear()
+    }
+
+    private inner class Exporter(
+        private val intervalMillis: Long,
+        private val listener: Consumer<MetricsSnapshot>,
+        private val snapshot: () -> MetricsSnapshot
+    ) {
+        @Volatile
+        private var isCancelled = false
+        @Volatile
+        private var future: ScheduledFuture<*>? = null
+
+        fun schedule() {
+            if (isCancelled) return
+            future = Executor.schedule(Executor.Lane.Cpu, TAG, intervalMillis, TimeUnit.MILLISECONDS) {
+                if (!isCancelled) {
+                    try {
+                        listener.accept(snapshot())
+                    } finally {
+                        schedule()
+                    }
+                }
+            }
+        }
+
+        fun cancel() {
+            isCancelled = true
+            future?.cancel(false)
+        }
+    }
+
+    companion object {
+        private const val MIN_EXPORT_INTERVAL = 1000L
+    }
+}
@@ -17,7 +17,9 @@ import android.net.TrafficStats
 import android.net.Uri
 import androidx.core.util.Consumer
 
+import com.snowplowanalytics.core.emitter.Executor
 import com.snowplowanalytics.core.emitter.Executor.execute
+import com.snowplowanalytics.core.emitter.SharedHttpClient
 import com.snowplowanalytics.core.tracker.Logger
 import com.snowplowanalytics.snowplow.configuration.RemoteConfiguration
 
@@ -27,7 +29,6 @@ import okhttp3.ResponseBody
 
 import org.json.JSONException
 import org.json.JSONObject
-import kotlin.time.Duration.Companion.seconds
 import java.io.IOException
 
 import java.util.concurrent.TimeUnit
@@ -40,7 +41,7 @@ class RemoteConfigurationFetcher(
     private val TAG = RemoteConfigurationFetcher::class.java.simpleName
 
     init {
-        execute(getRunnable(context)) { t: Throwable? -> exceptionHandler(t) }
+        execute(Executor.Lane.Network, getRunnable(context)) { t: Throwable? -> exceptionHandler(t) }
     }
 
     // Private methods
@@ -59,10 +60,7 @@ class RemoteConfigurationFetcher(
     private fun performRequest(endpoint: String): ResponseBody? {
         val uriBuilder = Uri.parse(endpoint).buildUpon()
         val uri = uriBuilder.build().toString()
-        val client: OkHttpClient = OkHttpClient.Builder()
-            .connectTimeout(15.seconds)
-            .readTimeout(15.seconds)
-            .build()
+        val client: OkHttpClient = SharedHttpClient.client
         val request: Request = Request.Builder()
             .url(uri)
             .get()
@@ -70,9 +68,11 @@ class RemoteConfigurationFetcher(
         TrafficStats.setThreadStatsTag(TRAFFIC_STATS_TAG)
         val resp = client.newCall(request).execute()
         val body = resp.body
-        return if (resp.isSuccessful && body != null) {
-            body
-        } else null
+        if (resp.isSuccessful && body != null) {
+            return body
+        }
+        resp.close()
+        return null
     }
 
     @Throws(IOException::class, JSONException::class)
@@ -233,6 +233,7 @@ class ServiceProvider(
             networkConfiguration.protocol?.let { emitter.requestSecurity = it }
             
             emitter.networkConnection = networkConfiguration.networkConnection
+            emitter.endpoints = networkConfiguration.endpoints ?: emptyList()
             emitter.customPostPath = networkConfiguration.customPostPath
             emitter.client = networkConfiguration.okHttpClient
             emitter.cookieJar = networkConfiguration.okHttpCookieJar
@@ -246,9 +247,27 @@ class ServiceProvider(
             emitter.customRetryForStatusCodes = emitterConfiguration.customRetryForStatusCodes
             emitter.serverAnonymisation = emitterConfiguration.serverAnonymisation
             emitter.requestHeaders = networkConfiguration.requestHeaders
+            emitter.compressPostBody = networkConfiguration.compressPostBody
             emitter.retryFailedRequests = emitterConfiguration.retryFailedRequests
             emitter.maxEventStoreAge = emitterConfiguration.maxEventStoreAge
             emitter.maxEventStoreSize = emitterConfiguration.maxEventStoreSize
+            emitter.maxInFlightBatches = emitterConfiguration.maxInFlightBatches
+            emitter.maxInFlightBytes = emitterConfiguration.maxInFlightBytes
+            emitter.byteLimitOnCompressedSize = emitterConfiguration.byteLimitOnCompressedSize
+            emitter.adaptiveBatching = emitterConfiguration.adaptiveBatching
+            emitter.minEmitRange = emitterConfiguration.minEmitRange
+            emitter.maxEmitRange = emitterConfiguration.maxEmitRange
+            emitter.circuitBreakerThreshold = emitterConfiguration.circuitBreakerThreshold
+            emitter.circuitBreakerCooldown = emitterConfiguration.circuitBreakerCooldown
+            emitter.maxBytesPerSecond = emitterConfiguration.maxBytesPerSecond
+            emitter.maxRequestsPerSecond = emitterConfiguration.maxRequestsPerSecond
+            emitter.backgroundUpload = emitterConfiguration.backgroundUpload
+            emitter.backgroundUploadTimeBudget = emitterConfiguration.backgroundUploadTimeBudget
+            emitter.backgroundFlushTimeout = emitterConfiguration.backgroundFlushTimeout
+            emitter.maxRadioDeferral = emitterConfiguration.maxRadioDeferral
+            emitter.eventPriorityRules = emitterConfiguration.eventPriorityRules
+            emitter.deliveryConditionRules = emitterConfiguration.deliveryConditionRules
+            emitter.wireFormatStorage = emitterConfiguration.wireFormatStorage
         }
         
         val emitter = Emitter(
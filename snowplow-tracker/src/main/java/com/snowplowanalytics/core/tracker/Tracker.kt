@@ -18,6 +18,7 @@ import com.snowplowanalytics.core.constants.TrackerConstants
 import com.snowplowanalytics.core.emitter.Emitter
 import com.snowplowanalytics.core.emitter.Executor.execute
 import com.snowplowanalytics.core.gdpr.Gdpr
+import com.snowplowanalytics.core.metrics.MetricsRegistry
 import com.snowplowanalytics.core.screenviews.ScreenState
 import com.snowplowanalytics.core.screenviews.ScreenStateMachine
 import com.snowplowanalytics.core.screenviews.ScreenSummaryStateMachine
@@ -38,6 +39,7 @@ import com.snowplowanalytics.core.utils.Util.truncateUrlScheme
 import com.snowplowanalytics.snowplow.configuration.PlatformContextProperty
 import com.snowplowanalytics.snowplow.entity.DeepLink
 import com.snowplowanalytics.snowplow.event.*
+import com.snowplowanalytics.snowplow.metrics.MetricNames
 import com.snowplowanalytics.snowplow.payload.Payload
 import com.snowplowanalytics.snowplow.payload.TrackerPayload
 import com.snowplowanalytics.snowplow.tracker.*
@@ -68,6 +70,11 @@ class Tracker(
     private var builderFinished = false
     private val context: Context
     private val stateManager = StateManager()
+
+    /**
+     * Counters and histograms of the tracker, see [MetricNames].
+     */
+    val metrics = MetricsRegistry()
     
     fun getScreenState(): ScreenState? {
         val state = stateManager.trackerState.getState(ScreenStateMachine.ID)
@@ -474,6 +481,8 @@ class Tracker(
     }
 
     fun close() {
+        metrics.removeAllListeners()
+        emitter.metrics.removeAllListeners()
         unregisterNotificationHandlers()
         pauseSessionChecking()
         emitter.shutdown()
@@ -504,16 +513,24 @@ class Tracker(
             }
         }
 
+        metrics.counter(MetricNames.EVENTS_TRACKED).add(trackerEvents.size.toLong())
         val reportsOnDiagnostic = event !is TrackerError
         execute(reportsOnDiagnostic, TAG) {
             trackerEvents.forEach { (event, trackerEvent) ->
-                payloadWithEvent(trackerEvent)?.let { payload ->
+                val startTime = System.nanoTime()
+                val payload = payloadWithEvent(trackerEvent)
+                metrics.histogram(MetricNames.EVENT_PROCESSING_TIME)
+                    .record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime))
+                payload?.let {
                     v(TAG, "Adding new payload to event storage: %s", payload)
-                    emitter.add(payload)
+                    val priority = (event as? AbstractEvent)?.priority
+                        ?: emitter.priorityForSchema(trackerEvent.schema)
+                    emitter.add(payload, priority, emitter.deliveryConditionForSchema(trackerEvent.schema))
                     event.endProcessing(this)
                     stateManager.afterTrack(trackerEvent)
                 } ?: run {
                     d(TAG, "Event not tracked due to filtering: %s", trackerEvent.eventId)
+                    metrics.counter(MetricNames.EVENTS_FILTERED).increment()
                     event.endProcessing(this)
                 }
             }
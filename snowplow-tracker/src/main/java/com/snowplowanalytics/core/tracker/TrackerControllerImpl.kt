@@ -14,6 +14,7 @@ package com.snowplowanalytics.core.tracker
 
 import android.net.Uri
 import androidx.annotation.RestrictTo
+import androidx.core.util.Consumer
 import com.snowplowanalytics.core.Controller
 import com.snowplowanalytics.core.ecommerce.EcommerceControllerImpl
 import com.snowplowanalytics.core.session.SessionControllerImpl
@@ -22,6 +23,7 @@ import com.snowplowanalytics.snowplow.configuration.TrackerConfiguration
 import com.snowplowanalytics.snowplow.controller.*
 import com.snowplowanalytics.snowplow.event.Event
 import com.snowplowanalytics.snowplow.media.controller.MediaController
+import com.snowplowanalytics.snowplow.metrics.MetricsSnapshot
 import com.snowplowanalytics.snowplow.tracker.BuildConfig
 import com.snowplowanalytics.snowplow.tracker.CrossDeviceParameterConfiguration
 import com.snowplowanalytics.snowplow.tracker.DevicePlatform
@@ -69,6 +71,20 @@ class TrackerControllerImpl  // Constructors
         tracker.resumeEventTracking()
     }
 
+    override val metrics: MetricsSnapshot
+        get() = tracker.metrics.snapshot() + tracker.emitter.metrics.snapshot()
+
+    override fun addMetricsListener(intervalMillis: Long, listener: Consumer<MetricsSnapshot>) {
+        val tracker = tracker
+        tracker.metrics.addListener(intervalMillis, listener) {
+            tracker.metrics.snapshot() + tracker.emitter.metrics.snapshot()
+        }
+    }
+
+    override fun removeMetricsListener(listener: Consumer<MetricsSnapshot>) {
+        tracker.metrics.removeListener(listener)
+    }
+
     override fun track(event: Event): UUID? {
         return tracker.track(event)
     }
@@ -17,6 +17,7 @@ import android.webkit.WebView
 import androidx.core.util.Consumer
 import androidx.core.util.Pair
 
+import com.snowplowanalytics.core.emitter.Executor as TrackerExecutor
 import com.snowplowanalytics.snowplow.configuration.ConfigurationBundle
 import com.snowplowanalytics.core.remoteconfiguration.RemoteConfigurationProvider
 import com.snowplowanalytics.snowplow.configuration.ConfigurationState
@@ -30,6 +31,7 @@ import com.snowplowanalytics.snowplow.controller.TrackerController
 import com.snowplowanalytics.snowplow.network.HttpMethod
 
 import java.util.*
+import java.util.concurrent.Executor
 
 /**
  * Instance a new Snowplow tracker for local or remote configuration, and manage multiple trackers.
@@ -360,6 +362,48 @@ object Snowplow {
         webView.addJavascriptInterface(TrackerWebViewInterfaceV2(), TrackerWebViewInterfaceV2.TAG)
     }
 
+    // Background work
+
+    /**
+     * Set the executor used by all the trackers for their background work, instead of the
+     * thread pools created by the tracker.
+     * This allows to share threads with the app or limit the total number of threads.
+     * A Kotlin `CoroutineDispatcher` can be used through the `asExecutor()` adapter of
+     * kotlinx-coroutines, e.g. `Snowplow.setExecutor(Dispatchers.IO.asExecutor())`.
+     *
+     * Delayed work, such as retries after a backoff and the export of metrics,
+     * is still timed by a timer thread of the tracker and then run on the executor.
+     * Don't use an executor that runs tasks on the calling thread: the emission waits for the collector
+     * while sending events, which would block the thread tracking the events, often the main thread.
+     *
+     * The executor is never shut down by the tracker. It should be set before creating the trackers.
+     * @param executor The executor, or null to use the thread pools of the tracker.
+     * @see [Snowplow.setExecutors]
+     */
+    @JvmStatic
+    fun setExecutor(executor: Executor?) {
+        setExecutors(executor, executor, executor)
+    }
+
+    /**
+     * Set separate executors for the kinds of background work of the trackers.
+     * Each executor replaces the thread pool created by the tracker for that kind of work.
+     *
+     * The executors are never shut down by the tracker. They should be set before creating the trackers.
+     * @param tracking The executor processing tracked events, or null to use the tracker thread pool.
+     * @param storage The executor accessing the event store, or null to use the tracker thread pool.
+     * @param emission The executor sending events to the collector, or null to use the tracker thread pool.
+     * The emission can block a thread while waiting for a collector that is not using
+     * [OkHttpNetworkConnection](com.snowplowanalytics.snowplow.network.OkHttpNetworkConnection),
+     * so it should be an executor suited to I/O, and never one that runs tasks on the calling thread.
+     */
+    @JvmStatic
+    fun setExecutors(tracking: Executor?, storage: Executor?, emission: Executor?) {
+        TrackerExecutor.setExecutor(TrackerExecutor.Lane.Cpu, tracking)
+        TrackerExecutor.setExecutor(TrackerExecutor.Lane.Disk, storage)
+        TrackerExecutor.setExecutor(TrackerExecutor.Lane.Network, emission)
+    }
+
     // Private methods
 
     @JvmStatic
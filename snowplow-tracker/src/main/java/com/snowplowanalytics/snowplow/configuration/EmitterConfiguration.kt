@@ -15,6 +15,8 @@ package com.snowplowanalytics.snowplow.configuration
 import com.snowplowanalytics.core.emitter.EmitterConfigurationInterface
 import com.snowplowanalytics.core.emitter.EmitterDefaults
 import com.snowplowanalytics.snowplow.emitter.BufferOption
+import com.snowplowanalytics.snowplow.emitter.DeliveryCondition
+import com.snowplowanalytics.snowplow.emitter.EventPriority
 import com.snowplowanalytics.snowplow.emitter.EventStore
 import com.snowplowanalytics.snowplow.network.RequestCallback
 import org.json.JSONObject
@@ -33,6 +35,23 @@ import kotlin.time.toDuration
  *   - byteLimitGet: 40000 bytes
  *   - byteLimitPost: 40000 bytes
  *   - retryFailedRequests: true
+ *   - maxInFlightBatches: 1
+ *   - maxInFlightBytes: 200000 bytes
+ *   - byteLimitOnCompressedSize: false
+ *   - adaptiveBatching: false
+ *   - minEmitRange: 5
+ *   - maxEmitRange: 150
+ *   - circuitBreakerThreshold: 5
+ *   - circuitBreakerCooldown: 60 seconds
+ *   - maxBytesPerSecond: 0 - no limit
+ *   - maxRequestsPerSecond: 0 - no limit
+ *   - backgroundUpload: false
+ *   - backgroundUploadTimeBudget: 60 seconds
+ *   - backgroundFlushTimeout: 0 - disabled
+ *   - maxRadioDeferral: 0 - disabled
+ *   - eventPriorityRules: no rules
+ *   - deliveryConditionRules: no rules
+ *   - wireFormatStorage: false
  */
 open class EmitterConfiguration() : Configuration, EmitterConfigurationInterface {
 
@@ -105,6 +124,91 @@ open class EmitterConfiguration() : Configuration, EmitterConfigurationInterface
     override var maxEventStoreSize: Long
         get() = _maxEventStoreSize ?: sourceConfig?.maxEventStoreSize ?: EmitterDefaults.maxEventStoreSize
         set(value) { _maxEventStoreSize = value }
+
+    private var _maxInFlightBatches: Int? = null
+    override var maxInFlightBatches: Int
+        get() = _maxInFlightBatches ?: sourceConfig?.maxInFlightBatches ?: EmitterDefaults.maxInFlightBatches
+        set(value) { _maxInFlightBatches = value }
+
+    private var _maxInFlightBytes: Long? = null
+    override var maxInFlightBytes: Long
+        get() = _maxInFlightBytes ?: sourceConfig?.maxInFlightBytes ?: EmitterDefaults.maxInFlightBytes
+        set(value) { _maxInFlightBytes = value }
+
+    private var _byteLimitOnCompressedSize: Boolean? = null
+    override var byteLimitOnCompressedSize: Boolean
+        get() = _byteLimitOnCompressedSize ?: sourceConfig?.byteLimitOnCompressedSize ?: EmitterDefaults.byteLimitOnCompressedSize
+        set(value) { _byteLimitOnCompressedSize = value }
+
+    private var _adaptiveBatching: Boolean? = null
+    override var adaptiveBatching: Boolean
+        get() = _adaptiveBatching ?: sourceConfig?.adaptiveBatching ?: EmitterDefaults.adaptiveBatching
+        set(value) { _adaptiveBatching = value }
+
+    private var _minEmitRange: Int? = null
+    override var minEmitRange: Int
+        get() = _minEmitRange ?: sourceConfig?.minEmitRange ?: EmitterDefaults.minEmitRange
+        set(value) { _minEmitRange = value }
+
+    private var _maxEmitRange: Int? = null
+    override var maxEmitRange: Int
+        get() = _maxEmitRange ?: sourceConfig?.maxEmitRange ?: EmitterDefaults.maxEmitRange
+        set(value) { _maxEmitRange = value }
+
+    private var _circuitBreakerThreshold: Int? = null
+    override var circuitBreakerThreshold: Int
+        get() = _circuitBreakerThreshold ?: sourceConfig?.circuitBreakerThreshold ?: EmitterDefaults.circuitBreakerThreshold
+        set(value) { _circuitBreakerThreshold = value }
+
+    private var _circuitBreakerCooldown: Duration? = null
+    override var circuitBreakerCooldown: Duration
+        get() = _circuitBreakerCooldown ?: sourceConfig?.circuitBreakerCooldown ?: EmitterDefaults.circuitBreakerCooldown
+        set(value) { _circuitBreakerCooldown = value }
+
+    private var _maxBytesPerSecond: Long? = null
+    override var maxBytesPerSecond: Long
+        get() = _maxBytesPerSecond ?: sourceConfig?.maxBytesPerSecond ?: EmitterDefaults.maxBytesPerSecond
+        set(value) { _maxBytesPerSecond = value }
+
+    private var _maxRequestsPerSecond: Double? = null
+    override var maxRequestsPerSecond: Double
+        get() = _maxRequestsPerSecond ?: sourceConfig?.maxRequestsPerSecond ?: EmitterDefaults.maxRequestsPerSecond
+        set(value) { _maxRequestsPerSecond = value }
+
+    private var _backgroundUpload: Boolean? = null
+    override var backgroundUpload: Boolean
+        get() = _backgroundUpload ?: sourceConfig?.backgroundUpload ?: EmitterDefaults.backgroundUpload
+        set(value) { _backgroundUpload = value }
+
+    private var _backgroundUploadTimeBudget: Duration? = null
+    override var backgroundUploadTimeBudget: Duration
+        get() = _backgroundUploadTimeBudget ?: sourceConfig?.backgroundUploadTimeBudget ?: EmitterDefaults.backgroundUploadTimeBudget
+        set(value) { _backgroundUploadTimeBudget = value }
+
+    private var _backgroundFlushTimeout: Duration? = null
+    override var backgroundFlushTimeout: Duration
+        get() = _backgroundFlushTimeout ?: sourceConfig?.backgroundFlushTimeout ?: EmitterDefaults.backgroundFlushTimeout
+        set(value) { _backgroundFlushTimeout = value }
+
+    private var _maxRadioDeferral: Duration? = null
+    override var maxRadioDeferral: Duration
+        get() = _maxRadioDeferral ?: sourceConfig?.maxRadioDeferral ?: EmitterDefaults.maxRadioDeferral
+        set(value) { _maxRadioDeferral = value }
+
+    private var _eventPriorityRules: Map<String, EventPriority>? = null
+    override var eventPriorityRules: Map<String, EventPriority>
+        get() = _eventPriorityRules ?: sourceConfig?.eventPriorityRules ?: EmitterDefaults.eventPriorityRules
+        set(value) { _eventPriorityRules = value }
+
+    private var _deliveryConditionRules: Map<String, DeliveryCondition>? = null
+    override var deliveryConditionRules: Map<String, DeliveryCondition>
+        get() = _deliveryConditionRules ?: sourceConfig?.deliveryConditionRules ?: EmitterDefaults.deliveryConditionRules
+        set(value) { _deliveryConditionRules = value }
+
+    private var _wireFormatStorage: Boolean? = null
+    override var wireFormatStorage: Boolean
+        get() = _wireFormatStorage ?: sourceConfig?.wireFormatStorage ?: EmitterDefaults.wireFormatStorage
+        set(value) { _wireFormatStorage = value }
     
     // Builders
     
@@ -126,7 +230,9 @@ open class EmitterConfiguration() : Configuration, EmitterConfigurationInterface
     }
 
     /**
-     * Maximum number of threads working in parallel in the tracker to send requests.
+     * Maximum number of threads working in parallel in the emitter to send requests.
+     * It limits the batches in flight of network connections that block while sending.
+     * It doesn't resize the thread pools shared by all the trackers.
      */
     fun threadPoolSize(threadPoolSize: Int): EmitterConfiguration {
         this.threadPoolSize = threadPoolSize
@@ -214,6 +320,201 @@ open class EmitterConfiguration() : Configuration, EmitterConfigurationInterface
         return this
     }
 
+    /**
+     * Maximum number of batches of events read from the EventStore that can be sent at the same time.
+     * When set to more than 1, the emitter reads and prepares the next batch while earlier batches
+     * are still waiting for a response from the collector, which speeds up sending a large backlog
+     * on high-latency connections.
+     * Defaults to 1.
+     */
+    fun maxInFlightBatches(maxInFlightBatches: Int): EmitterConfiguration {
+        this.maxInFlightBatches = maxInFlightBatches
+        return this
+    }
+
+    /**
+     * Maximum number of payload bytes that can be in flight at the same time.
+     * A single batch is always sent even if it exceeds the limit.
+     * Defaults to 200000.
+     */
+    fun maxInFlightBytes(maxInFlightBytes: Long): EmitterConfiguration {
+        this.maxInFlightBytes = maxInFlightBytes
+        return this
+    }
+
+    /**
+     * Whether the POST byte limit applies to the compressed size of the requests.
+     * Only has an effect if compression of POST bodies is enabled using
+     * [NetworkConfiguration.compressPostBody].
+     * The compressed size is estimated using the compression ratio observed on previous requests,
+     * so the limit applies to the uncompressed size until the first compressed request is sent.
+     * Defaults to false.
+     */
+    fun byteLimitOnCompressedSize(byteLimitOnCompressedSize: Boolean): EmitterConfiguration {
+        this.byteLimitOnCompressedSize = byteLimitOnCompressedSize
+        return this
+    }
+
+    /**
+     * Whether to adapt the number of events sent together to the network conditions.
+     * The emitter reads more events for each emit attempt and sends more batches at the same time
+     * while requests succeed quickly, and reduces them after timeouts or server errors.
+     * The values stay between [minEmitRange] and [maxEmitRange] events and up to [maxInFlightBatches] batches,
+     * and replace [emitRange].
+     * Defaults to false.
+     */
+    fun adaptiveBatching(adaptiveBatching: Boolean): EmitterConfiguration {
+        this.adaptiveBatching = adaptiveBatching
+        return this
+    }
+
+    /**
+     * The minimum number of events to read for an emit attempt when using adaptive batching.
+     * Defaults to 5.
+     */
+    fun minEmitRange(minEmitRange: Int): EmitterConfiguration {
+        this.minEmitRange = minEmitRange
+        return this
+    }
+
+    /**
+     * The maximum number of events to read for an emit attempt when using adaptive batching.
+     * Defaults to 150.
+     */
+    fun maxEmitRange(maxEmitRange: Int): EmitterConfiguration {
+        this.maxEmitRange = maxEmitRange
+        return this
+    }
+
+    /**
+     * The number of consecutive failed batches after which the circuit breaker opens.
+     * While open, no requests are sent to the collector until the cool-down period elapses,
+     * then a single event is sent to probe the collector and sending resumes if it succeeds.
+     * Set to 0 to disable the circuit breaker.
+     * Defaults to 5.
+     */
+    fun circuitBreakerThreshold(circuitBreakerThreshold: Int): EmitterConfiguration {
+        this.circuitBreakerThreshold = circuitBreakerThreshold
+        return this
+    }
+
+    /**
+     * The time the circuit breaker stays open before probing the collector.
+     * Defaults to 60 seconds.
+     */
+    fun circuitBreakerCooldown(circuitBreakerCooldown: Duration): EmitterConfiguration {
+        this.circuitBreakerCooldown = circuitBreakerCooldown
+        return this
+    }
+
+    /**
+     * The maximum number of payload bytes sent to the collector per second, e.g. to avoid
+     * competing with the app for bandwidth while catching up after being offline.
+     * Bursts of up to one second worth of bytes are allowed, and a single batch larger than that is still sent.
+     * The time the emitter waited because of the limit is reported in the emitter metrics.
+     * Set to 0 for no limit.
+     * Defaults to 0.
+     */
+    fun maxBytesPerSecond(maxBytesPerSecond: Long): EmitterConfiguration {
+        this.maxBytesPerSecond = maxBytesPerSecond
+        return this
+    }
+
+    /**
+     * The maximum number of requests sent to the collector per second.
+     * The time the emitter waited because of the limit is reported in the emitter metrics.
+     * Set to 0 for no limit.
+     * Defaults to 0.
+     */
+    fun maxRequestsPerSecond(maxRequestsPerSecond: Double): EmitterConfiguration {
+        this.maxRequestsPerSecond = maxRequestsPerSecond
+        return this
+    }
+
+    /**
+     * Whether to send the events left in the event store with a background job when the app
+     * enters the background, even if its process is killed afterwards.
+     * The job is scheduled with the JobScheduler and run by the system when a network is available
+     * and the battery isn't low. It stops once the events are sent, the collector fails or
+     * the [backgroundUploadTimeBudget] runs out, and is retried later if events are left.
+     * With a custom network connection, the job can only send events while the app process is alive.
+     * Defaults to false.
+     */
+    fun backgroundUpload(backgroundUpload: Boolean): EmitterConfiguration {
+        this.backgroundUpload = backgroundUpload
+        return this
+    }
+
+    /**
+     * The maximum time the background upload job spends sending events.
+     * Defaults to 60 seconds.
+     */
+    fun backgroundUploadTimeBudget(backgroundUploadTimeBudget: Duration): EmitterConfiguration {
+        this.backgroundUploadTimeBudget = backgroundUploadTimeBudget
+        return this
+    }
+
+    /**
+     * The maximum time spent sending the events in the event store when the app enters the background,
+     * so that the events of short sessions arrive within seconds rather than at the next launch.
+     * The events are sent with more requests in flight at the same time than usual,
+     * and the ones left after the timeout are sent by the background upload job if [backgroundUpload] is enabled.
+     * Set to 0 to disable the flush.
+     * Defaults to 0.
+     */
+    fun backgroundFlushTimeout(backgroundFlushTimeout: Duration): EmitterConfiguration {
+        this.backgroundFlushTimeout = backgroundFlushTimeout
+        return this
+    }
+
+    /**
+     * The maximum time to defer sending events on a cellular network until the radio is already
+     * active for other traffic. Waking up the radio keeps it in a high-power state for several seconds,
+     * so sending the events together with other traffic saves battery.
+     * High-priority events and flushes with a timeout are never deferred.
+     * Set to 0 to never defer events.
+     * Defaults to 0.
+     */
+    fun maxRadioDeferral(maxRadioDeferral: Duration): EmitterConfiguration {
+        this.maxRadioDeferral = maxRadioDeferral
+        return this
+    }
+
+    /**
+     * The priority of self-describing events by schema rule, e.g. `iglu:com.acme/purchase/jsonschema/1-*-*`.
+     * Events are stored with the priority of the first matching rule unless they set their own priority.
+     * High-priority events are sent immediately in their own small batch regardless of the [bufferOption],
+     * low-priority events are sent last and removed first when the event store is full.
+     * Defaults to no rules, all events have the normal priority.
+     */
+    fun eventPriorityRules(eventPriorityRules: Map<String, EventPriority>): EmitterConfiguration {
+        this.eventPriorityRules = eventPriorityRules
+        return this
+    }
+
+    /**
+     * The condition under which self-describing events are sent by schema rule,
+     * e.g. `iglu:com.snowplowanalytics.snowplow/list_item_view/jsonschema/1-*-*`.
+     * Bulky but not urgent events can be kept in the event store until the network is unmetered
+     * or the device is charging, while the other events are sent normally.
+     * Defaults to no rules, all events are sent on any network.
+     */
+    fun deliveryConditionRules(deliveryConditionRules: Map<String, DeliveryCondition>): EmitterConfiguration {
+        this.deliveryConditionRules = deliveryConditionRules
+        return this
+    }
+
+    /**
+     * Whether to store the events in the format they are sent to the collector in, along with their
+     * payload, so that POST requests are assembled from the stored bytes without encoding the events again.
+     * Takes more space in the event store. Only applies to the default SQLite event store.
+     * Defaults to false.
+     */
+    fun wireFormatStorage(wireFormatStorage: Boolean): EmitterConfiguration {
+        this.wireFormatStorage = wireFormatStorage
+        return this
+    }
+
     // Copyable
     override fun copy(): EmitterConfiguration {
         return EmitterConfiguration()
@@ -229,6 +530,23 @@ open class EmitterConfiguration() : Configuration, EmitterConfigurationInterface
             .retryFailedRequests(retryFailedRequests)
             .maxEventStoreSize(maxEventStoreSize)
             .maxEventStoreAge(maxEventStoreAge)
+            .maxInFlightBatches(maxInFlightBatches)
+            .maxInFlightBytes(maxInFlightBytes)
+            .byteLimitOnCompressedSize(byteLimitOnCompressedSize)
+            .adaptiveBatching(adaptiveBatching)
+            .minEmitRange(minEmitRange)
+            .maxEmitRange(maxEmitRange)
+            .circuitBreakerThreshold(circuitBreakerThreshold)
+            .circuitBreakerCooldown(circuitBreakerCooldown)
+            .maxBytesPerSecond(maxBytesPerSecond)
+            .maxRequestsPerSecond(maxRequestsPerSecond)
+            .backgroundUpload(backgroundUpload)
+            .backgroundUploadTimeBudget(backgroundUploadTimeBudget)
+            .backgroundFlushTimeout(backgroundFlushTimeout)
+            .maxRadioDeferral(maxRadioDeferral)
+            .eventPriorityRules(eventPriorityRules)
+            .deliveryConditionRules(deliveryConditionRules)
+            .wireFormatStorage(wireFormatStorage)
     }
 
     // JSON Formatter
@@ -257,5 +575,42 @@ open class EmitterConfiguration() : Configuration, EmitterConfigurationInterface
         if (jsonObject.has("retryFailedRequests")) { _retryFailedRequests = jsonObject.getBoolean("retryFailedRequests") }
         if (jsonObject.has("maxEventStoreAge")) { _maxEventStoreAge = jsonObject.getDouble("maxEventStoreAge").toDuration(DurationUnit.SECONDS) }
         if (jsonObject.has("maxEventStoreSize")) { _maxEventStoreSize = jsonObject.getLong("maxEventStoreSize") }
+        if (jsonObject.has("maxInFlightBatches")) { _maxInFlightBatches = jsonObject.getInt("maxInFlightBatches") }
+        if (jsonObject.has("maxInFlightBytes")) { _maxInFlightBytes = jsonObject.getLong("maxInFlightBytes") }
+        if (jsonObject.has("byteLimitOnCompressedSize")) { _byteLimitOnCompressedSize = jsonObject.getBoolean("byteLimitOnCompressedSize") }
+        if (jsonObject.has("adaptiveBatching")) { _adaptiveBatching = jsonObject.getBoolean("adaptiveBatching") }
+        if (jsonObject.has("minEmitRange")) { _minEmitRange = jsonObject.getInt("minEmitRange") }
+        if (jsonObject.has("maxEmitRange")) { _maxEmitRange = jsonObject.getInt("maxEmitRange") }
+        if (jsonObject.has("circuitBreakerThreshold")) { _circuitBreakerThreshold = jsonObject.getInt("circuitBreakerThreshold") }
+        if (jsonObject.has("circuitBreakerCooldown")) { _circuitBreakerCooldown = jsonObject.getDouble("circuitBreakerCooldown").toDuration(DurationUnit.SECONDS) }
+        if (jsonObject.has("maxBytesPerSecond")) { _maxBytesPerSecond = jsonObject.getLong("maxBytesPerSecond") }
+        if (jsonObject.has("maxRequestsPerSecond")) { _maxRequestsPerSecond = jsonObject.getDouble("maxRequestsPerSecond") }
+        if (jsonObject.has("backgroundUpload")) { _backgroundUpload = jsonObject.getBoolean("backgroundUpload") }
+        if (jsonObject.has("backgroundUploadTimeBudget")) { _backgroundUploadTimeBudget = jsonObject.getDouble("backgroundUploadTimeBudget").toDuration(DurationUnit.SECONDS) }
+        if (jsonObject.has("backgroundFlushTimeout")) { _backgroundFlushTimeout = jsonObject.getDouble("backgroundFlushTimeout").toDuration(DurationUnit.SECONDS) }
+        if (jsonObject.has("maxRadioDeferral")) { _maxRadioDeferral = jsonObject.getDouble("maxRadioDeferral").toDuration(DurationUnit.SECONDS) }
+        if (jsonObject.has("eventPriorityRules")) {
+            val eventPriorityRules = mutableMapOf<String, EventPriority>()
+            val eventPriorityRulesJson = jsonObject.getJSONObject("eventPriorityRules")
+            val keys = eventPriorityRulesJson.keys()
+            while (keys.hasNext()) {
+                val key = keys.next()
+                val priority = eventPriorityRulesJson.getString(key)
+                EventPriority.values().firstOrNull { it.name == priority }?.let { eventPriorityRules[key] = it }
+            }
+            _eventPriorityRules = eventPriorityRules
+        }
+        if (jsonObject.has("deliveryConditionRules")) {
+            val deliveryConditionRules = mutableMapOf<String, DeliveryCondition>()
+            val deliveryConditionRulesJson = jsonObject.getJSONObject("deliveryConditionRules")
+            val keys = deliveryConditionRulesJson.keys()
+            while (keys.hasNext()) {
+                val key = keys.next()
+                val condition = deliveryConditionRulesJson.getString(key)
+                DeliveryCondition.values().firstOrNull { it.name == condition }?.let { deliveryConditionRules[key] = it }
+            }
+            _deliveryConditionRules = deliveryConditionRules
+        }
+        if (jsonObject.has("wireFormatStorage")) { _wireFormatStorage = jsonObject.getBoolean("wireFormatStorage") }
     }
 }
@@ -14,12 +14,12 @@
 package com.snowplowanalytics.snowplow.configuration
 
 import android.net.Uri
+import com.snowplowanalytics.core.emitter.Executor
+import com.snowplowanalytics.core.emitter.SharedHttpClient
 import com.snowplowanalytics.core.tracker.Logger
 import com.snowplowanalytics.snowplow.entity.ClientSessionEntity
-import okhttp3.OkHttpClient
 import okhttp3.Request
 import java.io.IOException
-import kotlin.time.Duration.Companion.seconds
 
 /**
  * This configuration tells the tracker to send requests with the user ID in session context entity
@@ -46,7 +46,9 @@ class FocalMeterConfiguration(
             session?.userId?.let { newUserId ->
                 if (shouldUpdate(newUserId)) {
                     val processedUserId = processUserId?.invoke(newUserId) ?: newUserId
-                    makeRequest(processedUserId)
+                    Executor.execute(Executor.Lane.Network, TAG) {
+                        makeRequest(processedUserId)
+                    }
                 }
             }
         }
@@ -67,21 +69,19 @@ class FocalMeterConfiguration(
         uriBuilder.appendQueryParameter("cs_fpid", userId)
         uriBuilder.appendQueryParameter("c12", "not_set")
 
-        val client = OkHttpClient.Builder()
-            .connectTimeout(15.seconds)
-            .readTimeout(15.seconds)
-            .build()
+        val client = SharedHttpClient.client
 
         val request = Request.Builder()
             .url(uriBuilder.build().toString())
             .build()
 
         try {
-            val response = client.newCall(request).execute()
-            if (response.isSuccessful) {
-                Logger.d(TAG, "Request to Kantar endpoint sent with user ID: $userId")
-            } else {
-                Logger.e(TAG, "Request to Kantar endpoint failed with code: ${response.code}")
+            client.newCall(request).execute().use { response ->
+                if (response.isSuccessful) {
+                    Logger.d(TAG, "Request to Kantar endpoint sent with user ID: $userId")
+                } else {
+                    Logger.e(TAG, "Request to Kantar endpoint failed with code: ${response.code}")
+                }
             }
         } catch (e: IOException) {
             Logger.e(TAG, "Request to Kantar endpoint failed with exception: ${e.message}")
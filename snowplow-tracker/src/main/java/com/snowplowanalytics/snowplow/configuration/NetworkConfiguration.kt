@@ -16,6 +16,7 @@ import android.net.Uri
 import com.snowplowanalytics.core.emitter.NetworkConfigurationInterface
 import com.snowplowanalytics.core.tracker.Logger
 import com.snowplowanalytics.core.emitter.EmitterDefaults
+import com.snowplowanalytics.snowplow.network.CollectorEndpoint
 import com.snowplowanalytics.snowplow.network.HttpMethod
 import com.snowplowanalytics.snowplow.network.NetworkConnection
 import com.snowplowanalytics.snowplow.network.Protocol
@@ -35,6 +36,8 @@ import java.util.*
  * protocol: [Protocol.HTTPS]
  * 
  * timeout: 5 seconds
+ * 
+ * compressPostBody: false
  */
 class NetworkConfiguration : NetworkConfigurationInterface, Configuration {
 
@@ -51,6 +54,14 @@ class NetworkConfiguration : NetworkConfigurationInterface, Configuration {
         get() = _endpoint ?: sourceConfig?.endpoint
         set(value) { _endpoint = value }
 
+    private var _endpoints: List<CollectorEndpoint>? = null
+    /**
+     * @return Collector endpoints to send events to, if more than one is configured.
+     */
+    override var endpoints: List<CollectorEndpoint>?
+        get() = _endpoints ?: sourceConfig?.endpoints
+        set(value) { _endpoints = value }
+
     private var _method: HttpMethod? = null
     /**
      * @return Method (GET or POST) used to send events to the collector.
@@ -97,6 +108,11 @@ class NetworkConfiguration : NetworkConfigurationInterface, Configuration {
         get() = _requestHeaders ?: sourceConfig?.requestHeaders
         set(value) { _requestHeaders = value }
 
+    private var _compressPostBody: Boolean? = null
+    override var compressPostBody: Boolean
+        get() = _compressPostBody ?: sourceConfig?.compressPostBody ?: EmitterDefaults.compressPostBody
+        set(value) { _compressPostBody = value }
+
     // Constructors
     
     /**
@@ -132,9 +148,25 @@ class NetworkConfiguration : NetworkConfigurationInterface, Configuration {
         }
     }
 
+    /**
+     * @param endpoints Collector endpoints to send events to, e.g. collectors in different regions,
+     * in the order of preference. Events are sent to the endpoint with the best latency and error score.
+     * When requests to it fail, the endpoint is demoted, the events are sent to the next best endpoint and
+     * the demoted endpoint is probed again later. The protocol is taken from the first endpoint.
+     * @param method The method used to send the requests (GET or POST).
+     * @see com.snowplowanalytics.snowplow.network.FailoverNetworkConnection
+     */
+    @JvmOverloads
+    constructor(endpoints: List<CollectorEndpoint>, method: HttpMethod = HttpMethod.POST) :
+        this(endpoints.first().endpoint, method) {
+        this.endpoints = endpoints
+    }
+
     /**
      * @param networkConnection A [NetworkConnection] component which will control the
      * communication between the tracker and the collector.
+     * To send events to several collectors with custom connections, use a
+     * [FailoverNetworkConnection](com.snowplowanalytics.snowplow.network.FailoverNetworkConnection).
      */
     constructor(networkConnection: NetworkConnection) {
         this.networkConnection = networkConnection
@@ -194,6 +226,17 @@ class NetworkConfiguration : NetworkConfigurationInterface, Configuration {
         return this
     }
 
+    /**
+     * Whether to compress the bodies of POST requests using gzip.
+     * Compressed requests are sent with the `Content-Encoding: gzip` header,
+     * so the collector must be configured to accept them.
+     * Ignored if a custom [NetworkConnection] is configured.
+     */
+    fun compressPostBody(compressPostBody: Boolean): NetworkConfiguration {
+        this.compressPostBody = compressPostBody
+        return this
+    }
+
     // Copyable
     override fun copy(): Configuration {
         val copy: NetworkConfiguration = if (networkConnection != null) {
@@ -202,8 +245,10 @@ class NetworkConfiguration : NetworkConfigurationInterface, Configuration {
             val scheme = if (protocol == Protocol.HTTPS) "https://" else "http://"
             NetworkConfiguration(scheme + endpoint, method)
         }
+        copy.endpoints = endpoints
         copy.customPostPath = customPostPath
         copy.timeout = timeout
+        copy.compressPostBody = compressPostBody
         return copy
     }
 
@@ -216,6 +261,16 @@ class NetworkConfiguration : NetworkConfigurationInterface, Configuration {
             endpoint = jsonObject.getString("endpoint")
             val methodStr = jsonObject.getString("method")
             method = HttpMethod.valueOf(methodStr.uppercase(Locale.getDefault()))
+            jsonObject.optJSONArray("endpoints")?.let { endpointsJson ->
+                endpoints = (0 until endpointsJson.length()).map { i ->
+                    val endpointJson = endpointsJson.optJSONObject(i)
+                    if (endpointJson == null) {
+                        CollectorEndpoint(endpointsJson.getString(i))
+                    } else {
+                        CollectorEndpoint(endpointJson.getString("endpoint"), endpointJson.optDouble("weight", 1.0))
+                    }
+                }
+            }
         } catch (e: Exception) {
             Logger.e(TAG, "Unable to get remote configuration")
         }
@@ -12,7 +12,14 @@
  */
 package com.snowplowanalytics.snowplow.controller
 
+import androidx.core.util.Consumer
 import com.snowplowanalytics.core.emitter.EmitterConfigurationInterface
+import com.snowplowanalytics.snowplow.emitter.CircuitBreakerState
+import com.snowplowanalytics.snowplow.emitter.EmitterState
+import com.snowplowanalytics.snowplow.emitter.FlushResult
+import com.snowplowanalytics.snowplow.metrics.MetricNames
+import com.snowplowanalytics.snowplow.metrics.MetricsSnapshot
+import kotlin.time.Duration
 
 /**
  * Controller for managing how events are sent.
@@ -28,6 +35,50 @@ interface EmitterController : EmitterConfigurationInterface {
      */
     val isSending: Boolean
 
+    /**
+     * The current state of the emitter: idle, sending, backing off after failures or paused.
+     */
+    val state: EmitterState
+
+    /**
+     * The state of the circuit breaker that stops sending requests to the collector
+     * after consecutive failures: closed, open or half-open while probing the collector.
+     */
+    val circuitBreakerState: CircuitBreakerState
+
+    /**
+     * The number of events currently read from the EventStore for each emit attempt.
+     * With adaptive batching, it changes with the network conditions.
+     */
+    val currentEmitRange: Int
+
+    /**
+     * The number of batches of events that can currently be sent at the same time.
+     * With adaptive batching, it changes with the network conditions.
+     */
+    val currentMaxInFlightBatches: Int
+
+    /**
+     * Snapshot of the metrics of the emitter: events stored, sent, retried, dropped or expired,
+     * requests and bytes sent, queue size, batches in flight and latency histograms.
+     * See [MetricNames] for the metric names.
+     */
+    val metrics: MetricsSnapshot
+
+    /**
+     * Export snapshots of the emitter metrics to the listener periodically.
+     * The export stops when the listener is removed or the tracker is removed or reconfigured.
+     * @param intervalMillis The interval between exports in milliseconds, at least 1 second.
+     * @param listener The listener receiving the snapshots.
+     */
+    fun addMetricsListener(intervalMillis: Long, listener: Consumer<MetricsSnapshot>)
+
+    /**
+     * Stop exporting the emitter metrics to the listener.
+     * @param listener The listener previously added.
+     */
+    fun removeMetricsListener(listener: Consumer<MetricsSnapshot>)
+
     /**
      * Pause emitting events.
      * Emitting events will be suspended until resumed again.
@@ -40,4 +91,13 @@ interface EmitterController : EmitterConfigurationInterface {
      * The emitter will resume emitting events again.
      */
     fun resume()
+
+    /**
+     * Send as many events from the EventStore as possible within the timeout, with more requests
+     * in flight at the same time than usual. It blocks the calling thread, so it must not be called on the main thread.
+     * It ends early if the EventStore is emptied, or if the emitter is paused, offline or backing off after failures.
+     * @param timeout The maximum time to spend sending events.
+     * @return The number of events delivered and the number of events left in the EventStore.
+     */
+    fun flush(timeout: Duration): FlushResult
 }
@@ -12,6 +12,7 @@
  */
 package com.snowplowanalytics.snowplow.controller
 
+import com.snowplowanalytics.snowplow.network.CollectorEndpoint
 import com.snowplowanalytics.snowplow.network.HttpMethod
 
 /**
@@ -23,6 +24,12 @@ interface NetworkController {
      */
     var endpoint: String
 
+    /**
+     * Collector endpoints to send events to if there is more than one, empty otherwise.
+     * Setting the [endpoint] replaces them.
+     */
+    var endpoints: List<CollectorEndpoint>
+
     /**
      * Method used to send events to the collector.
      */
@@ -38,4 +45,9 @@ interface NetworkController {
      * The timeout set for the requests to the collector.
      */
     var timeout: Int?
+
+    /**
+     * Whether the bodies of POST requests are compressed using gzip.
+     */
+    var compressPostBody: Boolean
 }
@@ -13,11 +13,14 @@
 package com.snowplowanalytics.snowplow.controller
 
 import android.net.Uri
+import androidx.core.util.Consumer
 import com.snowplowanalytics.snowplow.tracker.CrossDeviceParameterConfiguration
 import com.snowplowanalytics.core.tracker.TrackerConfigurationInterface
 import com.snowplowanalytics.snowplow.ecommerce.EcommerceController
 import com.snowplowanalytics.snowplow.event.Event
 import com.snowplowanalytics.snowplow.media.controller.MediaController
+import com.snowplowanalytics.snowplow.metrics.MetricNames
+import com.snowplowanalytics.snowplow.metrics.MetricsSnapshot
 import java.util.*
 
 /**
@@ -119,6 +122,27 @@ interface TrackerController : TrackerConfigurationInterface {
      */
     fun resume()
 
+    /**
+     * Snapshot of the metrics of the tracker and its emitter: events tracked and filtered,
+     * processing time, and the emitter metrics (see [EmitterController.metrics]).
+     * See [MetricNames] for the metric names.
+     */
+    val metrics: MetricsSnapshot
+
+    /**
+     * Export snapshots of the tracker and emitter metrics to the listener periodically.
+     * The export stops when the listener is removed or the tracker is removed or reconfigured.
+     * @param intervalMillis The interval between exports in milliseconds, at least 1 second.
+     * @param listener The listener receiving the snapshots.
+     */
+    fun addMetricsListener(intervalMillis: Long, listener: Consumer<MetricsSnapshot>)
+
+    /**
+     * Stop exporting the tracker metrics to the listener.
+     * @param listener The listener previously added.
+     */
+    fun removeMetricsListener(listener: Consumer<MetricsSnapshot>)
+
     /**
      * Adds user and session information to a URI.
      *
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.emitter
+
+/**
+ * The state of the circuit breaker that stops requests to a failing collector, as reported by the 
+ * [EmitterController](com.snowplowanalytics.snowplow.controller.EmitterController).
+ */
+enum class CircuitBreakerState(val code: Int) {
+    /**
+     * Requests are sent normally.
+     */
+    Closed(0),
+
+    /**
+     * Too many consecutive requests failed, no requests are sent until the cool-down period elapses.
+     */
+    Open(1),
+
+    /**
+     * The cool-down period elapsed, a single batch is sent to probe the collector.
+     * The breaker closes if it succeeds and opens again if it fails.
+     */
+    HalfOpen(2)
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.emitter
+
+/**
+ * The condition under which events are sent, assigned by the emitter's `deliveryConditionRules`.
+ * Events whose condition is not satisfied are kept in the event store until it is,
+ * e.g. bulky but not urgent events can wait for an unmetered network.
+ */
+enum class DeliveryCondition(val code: Int) {
+    /**
+     * Events are sent on any network.
+     * This is the default condition.
+     */
+    Always(0),
+
+    /**
+     * Events are only sent on an unmetered network, e.g. Wi-Fi.
+     */
+    Unmetered(1),
+
+    /**
+     * Events are only sent while the device is charging.
+     */
+    Charging(2),
+
+    /**
+     * Events are sent on an unmetered network or while the device is charging.
+     */
+    UnmeteredOrCharging(3);
+
+    /**
+     * Whether events with this condition can be sent in the given device state.
+     * @param isUnmetered Whether the device is connected to an unmetered network.
+     * @param isCharging Whether the device is charging.
+     */
+    fun isSatisfied(isUnmetered: Boolean, isCharging: Boolean): Boolean {
+        return code == 0
+                || (isUnmetered && code and UNMETERED_FLAG != 0)
+                || (isCharging && code and CHARGING_FLAG != 0)
+    }
+
+    companion object {
+        private const val UNMETERED_FLAG = 1
+        private const val CHARGING_FLAG = 2
+
+        @JvmStatic
+        fun fromCode(code: Int): DeliveryCondition {
+            return values().firstOrNull { it.code == code } ?: Always
+        }
+    }
+}
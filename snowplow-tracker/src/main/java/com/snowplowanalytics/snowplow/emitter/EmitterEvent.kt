@@ -16,5 +16,25 @@ import com.snowplowanalytics.snowplow.payload.Payload
 
 /**
  * A wrapper for event data while it is being processed for sending.
+ *
+ * @param payload The event payload.
+ * @param eventId The identifier of the event in the event store.
+ * @param byteSize The byte size of the payload if known by the event store.
+ * @param attempts The number of failed attempts to send the event.
+ * @param priority The priority of the event in the event store.
+ * @param deliveryCondition The condition under which the event can be sent.
  */
-class EmitterEvent(val payload: Payload, val eventId: Long)
+class EmitterEvent @JvmOverloads constructor(
+    val payload: Payload,
+    val eventId: Long,
+    byteSize: Long? = null,
+    val attempts: Int = 0,
+    val priority: EventPriority = EventPriority.Normal,
+    val deliveryCondition: DeliveryCondition = DeliveryCondition.Always
+) {
+    /**
+     * The byte size of the payload as it was stored.
+     * It's calculated on first access if not provided by the event store.
+     */
+    val byteSize: Long by lazy { byteSize ?: payload.byteSize }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.emitter
+
+/**
+ * The state of the emitter, as reported by the 
+ * [EmitterController](com.snowplowanalytics.snowplow.controller.EmitterController).
+ */
+enum class EmitterState {
+    /**
+     * No events are being sent.
+     * The emitter holds no thread and wakes up as soon as events are added, 
+     * a flush is requested or the network becomes available.
+     */
+    Idle,
+
+    /**
+     * Events are being read from the event store and sent to the collector.
+     */
+    Sending,
+
+    /**
+     * The last requests failed and the emitter is waiting before trying again.
+     */
+    BackingOff,
+
+    /**
+     * Emitting has been paused and will only restart once resumed.
+     */
+    Paused
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.emitter
+
+/**
+ * The priority of an event in the event store, set on the event or assigned by the emitter's
+ * `eventPriorityRules`.
+ */
+enum class EventPriority(val value: Int) {
+    /**
+     * Events that can wait to be batched with other events.
+     * They are sent after the other events and are the first removed when the event store is full.
+     */
+    Low(0),
+
+    /**
+     * Events batched according to the [BufferOption].
+     * This is the default priority.
+     */
+    Normal(1),
+
+    /**
+     * Critical events, e.g. purchases or crashes.
+     * They are sent immediately in their own small batch regardless of the [BufferOption],
+     * and are the last removed when the event store is full.
+     */
+    High(2);
+
+    companion object {
+        @JvmStatic
+        fun fromValue(value: Int): EventPriority {
+            return values().firstOrNull { it.value == value } ?: Normal
+        }
+    }
+}
@@ -17,6 +17,10 @@ import kotlin.time.Duration
 
 /**
  * The component that persists and buffers events before sending.
+ *
+ * Only the abstract methods need to be implemented, from Kotlin or Java.
+ * The other methods have default implementations that stores can override
+ * to support retries, priorities and delivery conditions.
  */
 interface EventStore {
     /**
@@ -25,6 +29,27 @@ interface EventStore {
      */
     fun add(payload: Payload)
 
+    /**
+     * Adds an event to the store with the given priority.
+     * The default implementation ignores the priority.
+     * @param payload the payload to be added
+     * @param priority the priority of the event
+     */
+    fun add(payload: Payload, priority: EventPriority) {
+        add(payload)
+    }
+
+    /**
+     * Adds an event to the store with the given priority and delivery condition.
+     * The default implementation ignores the delivery condition, so the event can be sent on any network.
+     * @param payload the payload to be added
+     * @param priority the priority of the event
+     * @param deliveryCondition the condition under which the event can be sent
+     */
+    fun add(payload: Payload, priority: EventPriority, deliveryCondition: DeliveryCondition) {
+        add(payload, priority)
+    }
+
     /**
      * Removes an event from the store.
      * @param id the identifier of the event in the store.
@@ -57,10 +82,92 @@ interface EventStore {
      */
     fun getEmittableEvents(queryLimit: Int): List<EmitterEvent>
 
+    /**
+     * Returns a list of [EmitterEvent] objects leaving out the events with the given IDs.
+     * The emitter uses it to avoid selecting events that are already being sent.
+     * The default implementation filters the result of [getEmittableEvents].
+     * @param queryLimit the maximum number of events to return.
+     * @param excludedIds the identifiers of the events that should not be returned.
+     * @return EmitterEvent objects containing eventIds and event payloads.
+     */
+    fun getEmittableEvents(queryLimit: Int, excludedIds: Set<Long>): List<EmitterEvent> {
+        if (excludedIds.isEmpty()) {
+            return getEmittableEvents(queryLimit)
+        }
+        return getEmittableEvents(queryLimit + excludedIds.size)
+            .filter { !excludedIds.contains(it.eventId) }
+            .take(queryLimit)
+    }
+
+    /**
+     * Returns a list of [EmitterEvent] objects with at least the given priority,
+     * leaving out the events with the given IDs.
+     * The emitter uses it to send high-priority events in their own batch.
+     * The default implementation filters the result of [getEmittableEvents].
+     * @param queryLimit the maximum number of events to return.
+     * @param excludedIds the identifiers of the events that should not be returned.
+     * @param minPriority the minimum priority of the events to return.
+     * @return EmitterEvent objects containing eventIds and event payloads.
+     */
+    fun getEmittableEvents(queryLimit: Int, excludedIds: Set<Long>, minPriority: EventPriority): List<EmitterEvent> {
+        return getEmittableEvents(queryLimit, excludedIds)
+            .filter { it.priority.value >= minPriority.value }
+    }
+
+    /**
+     * Returns a list of [EmitterEvent] objects with at least the given priority and one of the given
+     * delivery conditions, leaving out the events with the given IDs.
+     * The emitter uses it to hold back the events whose delivery condition is not satisfied.
+     * The default implementation filters the result of [getEmittableEvents].
+     * @param queryLimit the maximum number of events to return.
+     * @param excludedIds the identifiers of the events that should not be returned.
+     * @param minPriority the minimum priority of the events to return.
+     * @param deliveryConditions the delivery conditions of the events to return.
+     * @return EmitterEvent objects containing eventIds and event payloads.
+     */
+    fun getEmittableEvents(
+        queryLimit: Int,
+        excludedIds: Set<Long>,
+        minPriority: EventPriority,
+        deliveryConditions: Set<DeliveryCondition>
+    ): List<EmitterEvent> {
+        return getEmittableEvents(queryLimit, excludedIds, minPriority)
+            .filter { deliveryConditions.contains(it.deliveryCondition) }
+    }
+
+    /**
+     * Records a failed attempt to send events that will be retried,
+     * and delays them so that [getEmittableEvents] leaves them out until `nextAttemptTime`.
+     * The default implementation doesn't keep retry metadata, so the events can be sent again immediately.
+     * @param ids the identifiers of the events that failed to be sent.
+     * @param nextAttemptTime the earliest time to send the events again, in milliseconds since epoch.
+     */
+    fun recordFailedAttempt(ids: List<Long>, nextAttemptTime: Long) {}
+
+    /**
+     * Returns the earliest time when an event delayed by [recordFailedAttempt] can be sent again.
+     * @return the time in milliseconds since epoch, or null if no event is delayed.
+     */
+    fun getNextAttemptTime(): Long? = null
+
     /**
      * Remove events older than `maxAge` seconds and keep only the latest `maxSize` events.
+     * Stores that keep the event priority should keep the events with the highest priority first.
      * @param maxSize the maximum number of events to keep.
      * @param maxAge the maximum age of events to keep.
      */
     fun removeOldEvents(maxSize: Long, maxAge: Duration)
+
+    /**
+     * Same as [removeOldEvents] but returns the number of removed events.
+     * The default implementation compares the size of the store before and after the removal.
+     * @param maxSize the maximum number of events to keep.
+     * @param maxAge the maximum age of events to keep.
+     * @return the number of removed events.
+     */
+    fun removeOldEventsCounting(maxSize: Long, maxAge: Duration): Long {
+        val sizeBefore = size()
+        removeOldEvents(maxSize, maxAge)
+        return (sizeBefore - size()).coerceAtLeast(0)
+    }
 }
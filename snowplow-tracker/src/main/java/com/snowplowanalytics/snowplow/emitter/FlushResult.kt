@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.emitter
+
+/**
+ * The result of a flush bounded by a timeout.
+ *
+ * @param delivered The number of events successfully sent to the collector during the flush.
+ * @param remaining The number of events left in the event store when the flush ended,
+ * not counting the held events.
+ * @param held The number of events in the event store held back because their delivery condition,
+ * e.g. an unmetered network, was not satisfied during the flush.
+ */
+data class FlushResult @JvmOverloads constructor(
+    val delivered: Long,
+    val remaining: Long,
+    val held: Long = 0
+) {
+    /**
+     * Whether all the events that could be sent were sent before the timeout.
+     */
+    val isComplete: Boolean
+        get() = remaining == 0L
+}
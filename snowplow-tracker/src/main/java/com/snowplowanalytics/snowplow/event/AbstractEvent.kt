@@ -13,6 +13,7 @@
 package com.snowplowanalytics.snowplow.event
 
 import com.snowplowanalytics.core.tracker.Tracker
+import com.snowplowanalytics.snowplow.emitter.EventPriority
 import com.snowplowanalytics.snowplow.payload.SelfDescribingJson
 import java.util.*
 
@@ -20,6 +21,7 @@ import java.util.*
  * Base AbstractEvent class which contains common elements that can be added to all events:
  * - Entities: list of custom context entities
  * - "True" timestamp: user-defined custom event timestamp
+ * - Priority: user-defined priority of the event in the event store
  */
 abstract class AbstractEvent : Event {
     private var _entities = mutableListOf<SelfDescribingJson>()
@@ -48,6 +50,11 @@ abstract class AbstractEvent : Event {
      * @return the optional "true" (custom) event timestamp
      */
     override var trueTimestamp: Long? = null
+
+    /**
+     * @return the optional priority of the event, it overrides the emitter's `eventPriorityRules`
+     */
+    var priority: EventPriority? = null
     
     /** Used for events whose properties are added as entities, e.g. Ecommerce events */
     open val entitiesForProcessing: List<SelfDescribingJson>?
@@ -72,6 +79,16 @@ abstract class AbstractEvent : Event {
         this.trueTimestamp = trueTimestamp
         return this
     }
+
+    /**
+     * Set the priority of the event in the event store.
+     * High-priority events are sent immediately in their own small batch,
+     * low-priority events are sent last and removed first when the event store is full.
+     */
+    fun priority(priority: EventPriority?): AbstractEvent {
+        this.priority = priority
+        return this
+    }
     
 
     private var isProcessing = false
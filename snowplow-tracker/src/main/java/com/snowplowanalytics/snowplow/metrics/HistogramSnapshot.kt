@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.metrics
+
+/**
+ * Snapshot of a histogram of measured values (e.g. latencies in milliseconds).
+ * The values are counted in buckets, so percentiles are estimated with the bucket bounds.
+ *
+ * @param count The number of measured values.
+ * @param sum The sum of the measured values.
+ * @param min The smallest measured value, or 0 if no value was measured.
+ * @param max The largest measured value, or 0 if no value was measured.
+ * @param bucketBounds The inclusive upper bounds of the buckets, the last bucket has no upper bound.
+ * @param bucketCounts The number of values in each bucket, it has one more element than [bucketBounds].
+ */
+data class HistogramSnapshot(
+    val count: Long,
+    val sum: Long,
+    val min: Long,
+    val max: Long,
+    val bucketBounds: List<Long>,
+    val bucketCounts: List<Long>
+) {
+    /**
+     * The average of the measured values, or 0 if no value was measured.
+     */
+    val mean: Double
+        get() = if (count > 0) sum.toDouble() / count else 0.0
+
+    /** The estimated median. */
+    val p50: Long
+        get() = percentile(0.5)
+
+    /** The estimated 90th percentile. */
+    val p90: Long
+        get() = percentile(0.9)
+
+    /** The estimated 99th percentile. */
+    val p99: Long
+        get() = percentile(0.99)
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket containing it,
+     * limited to the range of the measured values.
+     * @param quantile The quantile between 0 and 1 (e.g. 0.95 for the 95th percentile).
+     * @return the estimated percentile, or 0 if no value was measured.
+     */
+    fun percentile(quantile: Double): Long {
+        if (count == 0L) return 0
+        val rank = (quantile.coerceIn(0.0, 1.0) * count).toLong().coerceAtLeast(1)
+        var cumulative = 0L
+        for ((i, bucketCount) in bucketCounts.withIndex()) {
+            cumulative += bucketCount
+            if (cumulative >= rank) {
+                val bound = bucketBounds.getOrNull(i) ?: max
+                return bound.coerceIn(min, max)
+            }
+        }
+        return max
+    }
+}
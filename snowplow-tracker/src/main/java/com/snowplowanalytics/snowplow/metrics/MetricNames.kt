@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.metrics
+
+import com.snowplowanalytics.snowplow.emitter.CircuitBreakerState
+
+/**
+ * Names of the metrics reported in [MetricsSnapshot].
+ * Durations are in milliseconds unless stated otherwise, sizes are in bytes.
+ */
+object MetricNames {
+    // Tracker
+
+    /** Counter of events tracked. */
+    const val EVENTS_TRACKED = "tracker.events.tracked"
+    /** Counter of tracked events left out by the event filters. */
+    const val EVENTS_FILTERED = "tracker.events.filtered"
+    /** Histogram of the time to process a tracked event into a payload, in microseconds. */
+    const val EVENT_PROCESSING_TIME = "tracker.events.processing_time_us"
+
+    // Emitter
+
+    /** Counter of events added to the event store. */
+    const val EVENTS_STORED = "emitter.events.stored"
+    /** Counter of events successfully sent to the collector. */
+    const val EVENTS_SENT = "emitter.events.sent"
+    /** Counter of events whose request failed and that will be retried. */
+    const val EVENTS_RETRIED = "emitter.events.retried"
+    /** Counter of events dropped because their request failed and can't be retried. */
+    const val EVENTS_DROPPED = "emitter.events.dropped"
+    /** Counter of events removed from the event store for exceeding its maximum size or age. */
+    const val EVENTS_EXPIRED = "emitter.events.expired"
+    /** Counter of requests sent to the collector. */
+    const val REQUESTS_SENT = "emitter.requests.sent"
+    /** Counter of requests that failed. */
+    const val REQUESTS_FAILED = "emitter.requests.failed"
+    /** Counter of the bytes of the event payloads successfully sent. */
+    const val BYTES_SENT = "emitter.bytes.sent"
+    /** Gauge of the number of events in the event store. */
+    const val QUEUE_SIZE = "emitter.queue.size"
+    /** Gauge of the number of batches being sent. */
+    const val BATCHES_IN_FLIGHT = "emitter.batches.in_flight"
+    /** Gauge of the number of events read from the event store for each batch. */
+    const val EMIT_RANGE = "emitter.emit_range"
+    /** Gauge of the state of the circuit breaker: 0 closed, 1 open, 2 half-open, see [CircuitBreakerState]. */
+    const val CIRCUIT_BREAKER_STATE = "emitter.circuit_breaker.state"
+    /** Counter of the times the circuit breaker opened after consecutive failures. */
+    const val CIRCUIT_BREAKER_OPENED = "emitter.circuit_breaker.opened"
+    /** Counter of the time the emitter waited on the rate limiter before sending. */
+    const val THROTTLED_TIME = "emitter.rate_limiter.throttled_time"
+    /** Histogram of the time to send a batch of requests. */
+    const val REQUEST_LATENCY = "emitter.requests.latency"
+    /** Histogram of the time from tracking an event to sending it successfully. */
+    const val EVENT_DELIVERY_TIME = "emitter.events.delivery_time"
+}
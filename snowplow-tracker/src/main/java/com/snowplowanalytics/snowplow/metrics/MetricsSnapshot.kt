@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.metrics
+
+/**
+ * Snapshot of the metrics of a tracker or an emitter at a point in time.
+ * The metric names are listed in [MetricNames].
+ *
+ * @param timestamp The time of the snapshot in milliseconds since epoch.
+ * @param counters Monotonic counts since the tracker was created.
+ * @param gauges Current values.
+ * @param histograms Distributions of measured values since the tracker was created.
+ */
+data class MetricsSnapshot(
+    val timestamp: Long,
+    val counters: Map<String, Long>,
+    val gauges: Map<String, Long>,
+    val histograms: Map<String, HistogramSnapshot>
+) {
+    /**
+     * @param name The name of a counter.
+     * @return the value of the counter, or 0 if it's missing.
+     */
+    fun counter(name: String): Long = counters[name] ?: 0
+
+    /**
+     * @param name The name of a gauge.
+     * @return the value of the gauge, or null if it's missing.
+     */
+    fun gauge(name: String): Long? = gauges[name]
+
+    /**
+     * @param name The name of a histogram.
+     * @return the histogram, or null if it's missing.
+     */
+    fun histogram(name: String): HistogramSnapshot? = histograms[name]
+
+    /**
+     * Combines the metrics of two snapshots, e.g. of a tracker and its emitter.
+     * @param other The other snapshot.
+     * @return the combined snapshot, with the metrics of `other` replacing those with the same name.
+     */
+    operator fun plus(other: MetricsSnapshot): MetricsSnapshot {
+        return MetricsSnapshot(
+            maxOf(timestamp, other.timestamp),
+            counters + other.counters,
+            gauges + other.gauges,
+            histograms + other.histograms
+        )
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.network
+
+import androidx.core.util.Consumer
+
+/**
+ * Interface for a [NetworkConnection] able to send requests without blocking the calling thread.
+ * The emitter uses it to keep many requests in flight without holding a thread for each of them.
+ */
+interface AsyncNetworkConnection : NetworkConnection {
+    /**
+     * Send requests to the collector asynchronously.
+     * The callback is called exactly once, when every request either completed, failed or
+     * timed out, with the results in the same order as the requests.
+     * @param requests to send.
+     * @param onComplete callback receiving the results of the sending operation.
+     */
+    fun sendRequests(requests: List<Request>, onComplete: Consumer<List<RequestResult>>)
+}
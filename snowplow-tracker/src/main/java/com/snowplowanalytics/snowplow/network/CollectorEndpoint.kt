@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.network
+
+/**
+ * A collector endpoint in a list of endpoints that the tracker can send events to.
+ * The emitter sends events to the endpoint with the best latency and error score,
+ * and fails over to the other endpoints when requests to it fail.
+ *
+ * @param endpoint URL of the collector. If the URL doesn't include the protocol, the configured protocol is used.
+ * @param weight Preference for the endpoint relative to the others, the score of the endpoint is divided by it.
+ * Endpoints with equal scores are preferred in the order of the list.
+ */
+data class CollectorEndpoint @JvmOverloads constructor(
+    val endpoint: String,
+    val weight: Double = 1.0
+)
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2015-present Snowplow Analytics Ltd. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package com.snowplowanalytics.snowplow.network
+
+import android.net.Uri
+import androidx.core.util.Consumer
+import com.snowplowanalytics.core.emitter.Executor
+import com.snowplowanalytics.core.tracker.Logger
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * A [NetworkConnection] that sends events to several collector endpoints, e.g. in different regions.
+ * 
+ * Each endpoint is scored by the average latency of its requests, penalised by its rate of errors
+ * (timeouts, network errors and 5xx responses) and divided by its weight.
+ * Requests are sent to the endpoint with the best score. When requests to it fail, the endpoint is
+ * demoted and the failed requests are sent again to the next best endpoint.
+ * Demoted endpoints are probed again with a single batch after the [reprobeInterval], which doubles
+ * after each failed probe, and are used again if the probe succeeds.
+ * 
+ * The tracker creates this connection with [OkHttpNetworkConnection]s when more than one endpoint
+ * is configured in the
+ * [NetworkConfiguration](com.snowplowanalytics.snowplow.configuration.NetworkConfiguration).
+ * It can also be used with custom [NetworkConnection] implementations, which are called 
+ * asynchronously if they implement [AsyncNetworkConnection] or on a background thread otherwise.
+ *
+ * @param connections The connections to the collector endpoints, in the order of preference.
+ * @param weights The weights of the endpoints in the same order, 1 for missing weights.
+ */
+class FailoverNetworkConnection @JvmOverloads constructor(
+    connections: List<NetworkConnection>,
+    weights: List<Double> = emptyList()
+) : AsyncNetworkConnection {
+    private val TAG = FailoverNetworkConnection::class.java.simpleName
+
+    private val endpoints: List<Endpoint>
+
+    /**
+     * The time before a demoted endpoint is probed again.
+     * It doubles after each failed probe, up to 16 times the interval.
+     */
+    @Volatile
+    var reprobeInterval: Duration = 30.seconds
+
+    init {
+        require(connections.isNotEmpty()) { "At least one network connection is required." }
+        endpoints = connections.mapIndexed { index, connection ->
+            Endpoint(connection, weights.getOrNull(index)?.takeIf { it > 0 } ?: 1.0)
+        }
+    }
+
+    /**
+     * The connections to the collector endpoints.
+     */
+    val connections: List<NetworkConnection>
+        get() = endpoints.map { it.connection }
+
+    /**
+     * The connection that the next requests will be sent to.
+     */
+    val currentConnection: NetworkConnection
+        @Synchronized
+        get() = bestEndpoint()?.connection ?: leastDemotedEndpoint().connection
+
+    override val httpMethod: HttpMethod
+        get() = endpoints[0].connection.httpMethod
+
+    override val uri: Uri
+        get() = currentConnection.uri
+
+    override fun sendRequests(requests: List<Request>): List<RequestResult> {
+        val endpoint = selectEndpoint()
+        val results = send(endpoint, requests)
+        val failedRequests = failedRequests(requests, results)
+        if (failedRequests.isEmpty()) {
+            return results
+        }
+        val fallback = selectFailoverEndpoint(endpoint) ?: return results
+        Logger.d(TAG, "Failing over to %s.", fallback.connection.uri)
+        return mergeResults(results, send(fallback, failedRequests))
+    }
+
+    override fun sendRequests(requests: List<Request>, onComplete: Consumer<List<RequestResult>>) {
+        val endpoint = selectEndpoint()
+        sendAsync(endpoint, requests) { results ->
+            val failedRequests = failedRequests(requests, results)
+            val fallback = if (failedRequests.isEmpty()) null else selectFailoverEndpoint(endpoint)
+            if (fallback == null) {
+                onComplete.accept(results)
+            } else {
+                Logger.d(TAG, "Failing over to %s.", fallback.connection.uri)
+                sendAsync(fallback, failedRequests) { onComplete.accept(mergeResults(results, it)) }
+            }
+        }
+    }
+
+    // Private methods
+
+    private fun send(endpoint: Endpoint, requests: List<Request>): List<RequestResult> {
+        val startTime = System.currentTimeMillis()
+        val results = try {
+            endpoint.connection.sendRequests(requests)
+        } catch (e: Exception) {
+            Logger.e(TAG, "Sending to %s failed: %s", endpoint.connection.uri, e.message)
+            errorResults(requests)
+        }
+        recordResults(endpoint, results, System.currentTimeMillis() - startTime)
+        return results
+    }
+
+    private fun sendAsync(endpoint: Endpoint, requests: List<Request>, onComplete: (List<RequestResult>) -> Unit) {
+        val connection = endpoint.connection
+        if (connection !is AsyncNetworkConnection) {
+            Executor.execute(Executor.Lane.Network, TAG) { onComplete(send(endpoint, requests)) }
+            return
+        }
+        val startTime = System.currentTimeMillis()
+        try {
+            connection.sendRequests(requests) { results ->
+                recordResults(endpoint, results, System.currentTimeMillis() - startTime)
+                onComplete(results)
+            }
+        } catch (e: Exception) {
+            Logger.e(TAG, "Sending to %s failed: %s", connection.uri, e.message)
+            val results = errorResults(requests)
+            recordResults(endpoint, results, System.currentTimeMillis() - startTime)
+            onComplete(results)
+        }
+    }
+
+    /**
+     * Selects a demoted endpoint due to be probed again, or the endpoint with the best score,
+     * or the endpoint whose demotion ends first if all of them are demoted.
+     */
+    @Synchronized
+    private fun selectEndpoint(): Endpoint {
+        val now = System.currentTimeMillis()
+        endpoints.firstOrNull { it.demotedUntil in 1..now && !it.isProbing }?.let {
+            Logger.d(TAG, "Probing demoted endpoint %s.", it.connection.uri)
+            it.isProbing = true
+            return it
+        }
+        return bestEndpoint() ?: leastDemotedEndpoint()
+    }
+
+    /**
+     * Selects the healthy endpoint with the best score other than the one that failed, if any.
+     */
+    @Synchronized
+    private fun selectFailoverEndpoint(failed: Endpoint): Endpoint? {
+        return endpoints.filter { it !== failed && it.demotedUntil == 0L }.minByOrNull { it.score }
+    }
+
+    private fun bestEndpoint(): Endpoint? {
+        return endpoints.filter { it.demotedUntil == 0L }.minByOrNull { it.score }
+    }
+
+    private fun leastDemotedEndpoint(): Endpoint {
+        return endpoints.minBy { it.demotedUntil }
+    }
+
+    @Synchronized
+    private fun recordResults(endpoint: Endpoint, results: List<RequestResult>, latencyMillis: Long) {
+        endpoint.isProbing = false
+        endpoint.latency = endpoint.latency?.let { it + (latencyMillis - it) * SMOOTHING_FACTOR } ?: latencyMillis.toDouble()
+        if (results.none { isEndpointError(it) }) {
+            if (endpoint.demotedUntil > 0) {
+                Logger.d(TAG, "Endpoint %s recovered.", endpoint.connection.uri)
+                endpoint.errorRate = 0.0
+            }
+            endpoint.errorRate *= 1 - SMOOTHING_FACTOR
+            endpoint.consecutiveFailures = 0
+            endpoint.demotedUntil = 0
+        } else {
+            endpoint.errorRate += (1 - endpoint.errorRate) * SMOOTHING_FACTOR
+            endpoint.consecutiveFailures++
+            val exponent = (endpoint.consecutiveFailures - 1).coerceAtMost(MAX_REPROBE_EXPONENT)
+            endpoint.demotedUntil = System.currentTimeMillis() + (reprobeInterval.inWholeMilliseconds shl exponent)
+            Logger.d(TAG, "Endpoint %s demoted.", endpoint.connection.uri)
+        }
+    }
+
+    private fun failedRequests(requests: List<Request>, results: List<RequestResult>): List<Request> {
+        val failedEventIds = results.filter { isEndpointError(it) }.flatMap { it.eventIds }.toHashSet()
+        if (failedEventIds.isEmpty()) {
+            return emptyList()
+        }
+        return requests.filter { request -> request.emitterEventIds.any { it in failedEventIds } }
+    }
+
+    private fun mergeResults(results: List<RequestResult>, failoverResults: List<RequestResult>): List<RequestResult> {
+        val failover = failoverResults.iterator()
+        val merged = results.map { if (isEndpointError(it) && failover.hasNext()) failover.next() else it }
+        return merged + failover.asSequence().toList()
+    }
+
+    private fun errorResults(requests: List<Request>): List<RequestResult> {
+        return requests.map { RequestResult(-1, it.oversize, it.emitterEventIds) }
+    }
+
+    /**
+     * Timeouts, network errors and server errors count against the endpoint, other failures
+     * (e.g. invalid or oversize requests) would fail with any endpoint.
+     */
+    private fun isEndpointError(result: RequestResult): Boolean {
+        return !result.oversize && (result.statusCode < 0 || result.statusCode >= 500)
+    }
+
+    private class Endpoint(val connection: NetworkConnection, val weight: Double) {
+        var latency: Double? = null
+        var errorRate = 0.0
+        var consecutiveFailures = 0
+        var demotedUntil: Long = 0
+        var isProbing = false
+
+        val score: Double
+            get() = ((latency ?: UNKNOWN_LATENCY) + errorRate * ERROR_PENALTY) / weight
+    }
+
+    companion object {
+        private const val SMOOTHING_FACTOR = 0.2
+        private const val UNKNOWN_LATENCY = 1000.0 // milliseconds
+        private const val ERROR_PENALTY = 10000.0 // milliseconds
+        private const val MAX_REPROBE_EXPONENT = 4
+    }
+}
@@ -16,16 +16,23 @@ import android.content.Context
 import android.net.TrafficStats
 import android.net.Uri
 import android.os.Build
+import androidx.core.util.Consumer
 
 import com.snowplowanalytics.core.constants.TrackerConstants
 import com.snowplowanalytics.core.emitter.EmitterDefaults
-import com.snowplowanalytics.core.emitter.Executor
-import com.snowplowanalytics.core.emitter.TLSArguments
+import com.snowplowanalytics.core.emitter.GzipRequestBody
+import com.snowplowanalytics.core.emitter.PayloadDataRequestBody
+import com.snowplowanalytics.core.emitter.QueryStringEncoder
+import com.snowplowanalytics.core.emitter.SharedHttpClient
 import com.snowplowanalytics.core.emitter.TLSVersion
 import com.snowplowanalytics.core.tracker.Logger
 import com.snowplowanalytics.snowplow.tracker.BuildConfig
 
+import okhttp3.Call
+import okhttp3.Callback
 import okhttp3.CookieJar
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import okhttp3.MediaType.Companion.toMediaTypeOrNull
 import okhttp3.OkHttpClient
 import okhttp3.RequestBody.Companion.toRequestBody
@@ -33,14 +40,16 @@ import okhttp3.RequestBody.Companion.toRequestBody
 import java.io.IOException
 import java.util.*
 import java.util.concurrent.*
-import kotlin.time.Duration.Companion.seconds
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
 
 /**
  * Components in charge to send events to the collector.
  * It uses OkHttp as Http client.
  */
 class OkHttpNetworkConnection private constructor(builder: OkHttpNetworkConnectionBuilder) :
-    NetworkConnection {
+    AsyncNetworkConnection {
     private val TAG = OkHttpNetworkConnection::class.java.simpleName
     private val JSON = TrackerConstants.POST_CONTENT_TYPE.toMediaTypeOrNull()
     
@@ -52,10 +61,18 @@ class OkHttpNetworkConnection private constructor(builder: OkHttpNetworkConnecti
     @Volatile
     var serverAnonymisation: Boolean
     private val requestHeaders: Map<String, String>?
-    private var client: OkHttpClient? = null
-    private val uriBuilder: Uri.Builder
+    private val compressPostBody: Boolean
+    private val client: OkHttpClient
     override val uri: Uri
-        get() = uriBuilder.clearQuery().build()
+    private val collectorUrl: HttpUrl?
+
+    /**
+     * The moving average of the ratio between the compressed and uncompressed size
+     * of the POST request bodies, or null if no compressed request was sent yet.
+     */
+    @Volatile
+    var compressionRatio: Double? = null
+        private set
     
     /**
      * Builder for the OkHttpNetworkConnection.
@@ -73,6 +90,7 @@ class OkHttpNetworkConnection private constructor(builder: OkHttpNetworkConnecti
         var customPostPath: String? = null //Optional
         var serverAnonymisation = EmitterDefaults.serverAnonymisation // Optional
         var requestHeaders: Map<String, String>? = null // Optional
+        var compressPostBody = EmitterDefaults.compressPostBody // Optional
 
         /**
          * GET or POST.
@@ -178,6 +196,18 @@ class OkHttpNetworkConnection private constructor(builder: OkHttpNetworkConnecti
             return this
         }
 
+        /**
+         * Whether to compress the bodies of POST requests using gzip.
+         * The requests are sent with the `Content-Encoding: gzip` header.
+         * The collector must be configured to accept compressed requests.
+         * @param compressPostBody whether to compress
+         * @return itself
+         */
+        fun compressPostBody(compressPostBody: Boolean): OkHttpNetworkConnectionBuilder {
+            this.compressPostBody = compressPostBody
+            return this
+        }
+
         /**
          * Creates a new OkHttpNetworkConnection
          *
@@ -211,10 +241,9 @@ class OkHttpNetworkConnection private constructor(builder: OkHttpNetworkConnecti
         customPostPath = builder.customPostPath
         serverAnonymisation = builder.serverAnonymisation
         requestHeaders = builder.requestHeaders
+        compressPostBody = builder.compressPostBody
         
-        val tlsArguments = TLSArguments(builder.tlsVersions)
-        uriBuilder = Uri.parse(networkUri).buildUpon()
-        
+        val uriBuilder = Uri.parse(networkUri).buildUpon()
         if (httpMethod == HttpMethod.GET) {
             uriBuilder.appendPath("i")
         } else if (customPostPath == null) {
@@ -225,54 +254,140 @@ class OkHttpNetworkConnection private constructor(builder: OkHttpNetworkConnecti
         } else {
             uriBuilder.appendEncodedPath(customPostPath)
         }
+        uri = uriBuilder.build()
+        collectorUrl = uri.toString().toHttpUrlOrNull()
 
         // Configure with external OkHttpClient
-        client = if (builder.client == null) {
-            OkHttpClient.Builder()
-                .sslSocketFactory(tlsArguments.sslSocketFactory, tlsArguments.trustManager)
-                .connectTimeout(15.seconds)
-                .readTimeout(15.seconds)
+        // or derive from the process-wide client to share its connection pool and dispatcher
+        val baseClient = builder.client ?: SharedHttpClient.tlsArguments(builder.tlsVersions).let {
+            SharedHttpClient.client.newBuilder()
+                .sslSocketFactory(it.sslSocketFactory, it.trustManager)
                 .cookieJar(builder.cookieJar ?: CollectorCookieJar(builder.context))
                 .build()
-        } else {
-            builder.client
         }
+        // Requests run on the OkHttp dispatcher threads, shared with the other users of the client,
+        // so the sockets are tagged there only while the request is executed
+        client = baseClient.newBuilder()
+            .addInterceptor { chain ->
+                val previousTag = TrafficStats.getThreadStatsTag()
+                TrafficStats.setThreadStatsTag(TRAFFIC_STATS_TAG)
+                try {
+                    chain.proceed(chain.request())
+                } finally {
+                    TrafficStats.setThreadStatsTag(previousTag)
+                }
+            }
+            .build()
     }
 
     override fun sendRequests(requests: List<Request>): List<RequestResult> {
-        val futures: MutableList<Future<*>> = ArrayList()
-        val results: MutableList<RequestResult> = ArrayList()
+        val latch = CountDownLatch(1)
+        val results = AtomicReference<List<RequestResult>>()
+        val lastProgress = AtomicLong(System.nanoTime())
+        val calls = enqueueRequests(requests, { lastProgress.set(System.nanoTime()) }) {
+            results.set(it)
+            latch.countDown()
+        }
 
-        // Start all requests in the ThreadPool
-        for (request in requests) {
+        // The calls are cancelled by their own timeout, which starts when the dispatcher runs them.
+        // Calls queued behind the dispatcher limits start when another call completes, so the wait
+        // is extended on each completed call and the grace period only guards against a callback never being called.
+        val maxWait = TimeUnit.SECONDS.toNanos(emitTimeout + CALLBACK_GRACE_PERIOD)
+        try {
+            while (true) {
+                val remaining = lastProgress.get() + maxWait - System.nanoTime()
+                if (remaining <= 0) {
+                    Logger.e(TAG, "Requests had a timeout")
+                    calls.forEach { it.cancel() }
+                    break
+                }
+                if (latch.await(remaining, TimeUnit.NANOSECONDS)) {
+                    break
+                }
+            }
+        } catch (ie: InterruptedException) {
+            Logger.e(TAG, "Waiting for requests was interrupted: %s", ie.message)
+            calls.forEach { it.cancel() }
+        }
+        return results.get() ?: makeResults(requests, arrayOfNulls(requests.size))
+    }
+
+    override fun sendRequests(requests: List<Request>, onComplete: Consumer<List<RequestResult>>) {
+        enqueueRequests(requests, onComplete = onComplete)
+    }
+
+    /**
+     * Enqueues all the requests in the OkHttp dispatcher.
+     * Each call is cancelled if it doesn't complete within the emit timeout.
+     *
+     * @param requests The requests to send
+     * @param onProgress Called every time one of the calls completed
+     * @param onComplete Called with the results once all the calls completed
+     * @return the enqueued calls
+     */
+    private fun enqueueRequests(
+        requests: List<Request>,
+        onProgress: () -> Unit = {},
+        onComplete: Consumer<List<RequestResult>>
+    ): List<Call> {
+        if (requests.isEmpty()) {
+            onComplete.accept(emptyList())
+            return emptyList()
+        }
+        val responses = arrayOfNulls<Response>(requests.size)
+        val remaining = AtomicInteger(requests.size)
+        val calls = requests.map { request ->
             val userAgent = request.customUserAgent ?: DEFAULT_USER_AGENT
             val okHttpRequest = if (httpMethod == HttpMethod.GET) buildGetRequest(
                 request,
                 userAgent
             ) else buildPostRequest(request, userAgent)
-            Executor.futureCallable(getRequestCallable(okHttpRequest))?.let { futures.add(it) }
+            val call = client.newCall(okHttpRequest)
+            call.timeout().timeout(emitTimeout.toLong(), TimeUnit.SECONDS)
+            call
         }
-        Logger.d(TAG, "Request Futures: %s", futures.size)
-
-        // Get results of futures
-        // - Wait up to emitTimeout seconds for the request
-        for (i in futures.indices) {
-            var code: Int = -1
-            
-            try {
-                val tempCode = futures[i][emitTimeout.toLong(), TimeUnit.SECONDS] as? Int
-                tempCode?.let { code = it }
-            } catch (ie: InterruptedException) {
-                Logger.e(TAG, "Request Future was interrupted: %s", ie.message)
-            } catch (ee: ExecutionException) {
-                Logger.e(TAG, "Request Future failed: %s", ee.message)
-            } catch (te: TimeoutException) {
-                Logger.e(TAG, "Request Future had a timeout: %s", te.message)
-            }
-            
-            val request = requests[i]
+        Logger.d(TAG, "Enqueued requests: %s", calls.size)
+
+        for ((i, call) in calls.withIndex()) {
+            Logger.v(TAG, "Sending request: %s", call.request())
+            call.enqueue(object : Callback {
+                override fun onResponse(call: Call, response: okhttp3.Response) {
+                    responses[i] = response.use { Response(it.code, getRetryAfterMillis(it)) }
+                    onCallComplete()
+                }
+
+                override fun onFailure(call: Call, e: IOException) {
+                    if (call.isCanceled()) {
+                        Logger.e(TAG, "Request had a timeout: %s", e.toString())
+                    } else {
+                        Logger.e(TAG, "Request sending failed: %s", e.toString())
+                    }
+                    responses[i] = Response(-1)
+                    onCallComplete()
+                }
+
+                private fun onCallComplete() {
+                    onProgress()
+                    if (remaining.decrementAndGet() > 0) return
+                    try {
+                        onComplete.accept(makeResults(requests, responses))
+                    } catch (t: Throwable) {
+                        Logger.e(TAG, "Request callback failed: %s", t.toString())
+                    }
+                }
+            })
+        }
+        return calls
+    }
+
+    /**
+     * Pairs the requests with the responses received from the collector.
+     * Requests without a response are reported with the -1 status code.
+     */
+    private fun makeResults(requests: List<Request>, responses: Array<Response?>): List<RequestResult> {
+        return requests.mapIndexed { i, request ->
+            val response = responses[i] ?: Response(-1)
             val eventIds = request.emitterEventIds
-            results.add(RequestResult(code, request.oversize, eventIds))
             if (request.oversize) {
                 Logger.track(
                     TAG,
@@ -280,8 +395,8 @@ class OkHttpNetworkConnection private constructor(builder: OkHttpNetworkConnecti
                     eventIds.toString()
                 )
             }
+            RequestResult(response.code, request.oversize, eventIds, response.retryAfterMillis)
         }
-        return results
     }
 
     /**
@@ -292,18 +407,9 @@ class OkHttpNetworkConnection private constructor(builder: OkHttpNetworkConnecti
      * @return An OkHttp request object.
      */
     private fun buildGetRequest(request: Request, userAgent: String): okhttp3.Request {
-        // Clear the previous query
-        uriBuilder.clearQuery()
-
-        // Build the request query
-        val hashMap = request.payload.map
-        for (key in hashMap.keys) {
-            val value = hashMap[key] as? String?
-            uriBuilder.appendQueryParameter(key, value)
-        }
-
-        // Build the request
-        val reqUrl = uriBuilder.build().toString()
+        val reqUrl = requireUrl().newBuilder()
+            .encodedQuery(QueryStringEncoder.encode(request.payload.map))
+            .build()
         val builder = okhttp3.Request.Builder()
             .url(reqUrl)
             .header("User-Agent", userAgent)
@@ -327,13 +433,22 @@ class OkHttpNetworkConnection private constructor(builder: OkHttpNetworkConnecti
      * @return An OkHttp request object.
      */
     private fun buildPostRequest(request: Request, userAgent: String): okhttp3.Request {
-        val reqUrl = uriBuilder.build().toString()
-        val reqBody = request.payload.toString().toRequestBody(JSON)
+        val reqUrl = requireUrl()
+        val body = request.payloads?.let { PayloadDataRequestBody(it, JSON) }
+            ?: request.payload.toString().toRequestBody(JSON)
+        val reqBody = if (compressPostBody) {
+            GzipRequestBody(body) { uncompressedSize, compressedSize ->
+                updateCompressionRatio(uncompressedSize, compressedSize)
+            }
+        } else body
         
         val builder = okhttp3.Request.Builder()
             .url(reqUrl)
             .header("User-Agent", userAgent)
             .post(reqBody)
+        if (compressPostBody) {
+            builder.header("Content-Encoding", "gzip")
+        }
         if (serverAnonymisation) {
             builder.header("SP-Anonymous", "*")
         }
@@ -345,41 +460,48 @@ class OkHttpNetworkConnection private constructor(builder: OkHttpNetworkConnecti
         return builder.build()
     }
 
+    private fun requireUrl(): HttpUrl {
+        return collectorUrl ?: throw IllegalArgumentException("Invalid collector URI: $uri")
+    }
+
     /**
-     * Returns a Callable Request Send
-     *
-     * @param request the request to be sent
-     * @return the new Callable object
+     * Updates the moving average of the compression ratio with a compressed request body.
+     * @param uncompressedSize The size of the request body before compression.
+     * @param compressedSize The size of the compressed request body.
      */
-    private fun getRequestCallable(request: okhttp3.Request): Callable<Int> {
-        return Callable { requestSender(request) }
+    @Synchronized
+    private fun updateCompressionRatio(uncompressedSize: Long, compressedSize: Long) {
+        if (uncompressedSize <= 0) return
+        val ratio = compressedSize.toDouble() / uncompressedSize
+        compressionRatio = compressionRatio?.let {
+            it + (ratio - it) * COMPRESSION_RATIO_WEIGHT
+        } ?: ratio
     }
 
     /**
-     * The function responsible for actually sending
-     * the request to the collector.
+     * Reads the `Retry-After` header of a response, given either as seconds or as an HTTP date.
      *
-     * @param request The request to be sent
-     * @return a RequestResult
+     * @param response The response from the collector
+     * @return the requested delay in milliseconds, or null if the header is missing or invalid
      */
-    private fun requestSender(request: okhttp3.Request): Int {
-        try {
-            Logger.v(TAG, "Sending request: %s", request)
-            TrafficStats.setThreadStatsTag(TRAFFIC_STATS_TAG)
-            val resp = client?.newCall(request)?.execute()
-            resp?.let {
-                resp.body?.close()
-                return resp.code
-            }
-            return -1
-        } catch (e: IOException) {
-            Logger.e(TAG, "Request sending failed: %s", e.toString())
-            return -1
+    private fun getRetryAfterMillis(response: okhttp3.Response): Long? {
+        val retryAfter = response.header("Retry-After") ?: return null
+        retryAfter.trim().toLongOrNull()?.let {
+            return TimeUnit.SECONDS.toMillis(it).coerceAtLeast(0)
         }
+        val date = response.headers.getDate("Retry-After") ?: return null
+        return (date.time - System.currentTimeMillis()).coerceAtLeast(0)
     }
 
+    /**
+     * The outcome of a request sent to the collector.
+     */
+    private class Response(val code: Int, val retryAfterMillis: Long? = null)
+
     companion object {
         private const val TRAFFIC_STATS_TAG = 1
+        private const val CALLBACK_GRACE_PERIOD = 5L
+        private const val COMPRESSION_RATIO_WEIGHT = 0.2
         private val DEFAULT_USER_AGENT = String.format(
             "snowplow/%s android/%s",
             BuildConfig.TRACKER_LABEL,
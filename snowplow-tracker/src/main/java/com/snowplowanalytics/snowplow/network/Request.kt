@@ -14,6 +14,7 @@ package com.snowplowanalytics.snowplow.network
 
 import com.snowplowanalytics.core.constants.Parameters
 import com.snowplowanalytics.core.constants.TrackerConstants
+import com.snowplowanalytics.core.emitter.storage.WireFormatPayload
 import com.snowplowanalytics.snowplow.payload.Payload
 import com.snowplowanalytics.snowplow.payload.SelfDescribingJson
 import com.snowplowanalytics.snowplow.payload.TrackerPayload
@@ -23,10 +24,25 @@ import com.snowplowanalytics.snowplow.payload.TrackerPayload
  * to the collector.
  */
 class Request {
+    /**
+     * The payload to send to the collector.
+     * For a payload bundle, the payloads are wrapped in a `payload_data` self-describing JSON
+     * the first time this is accessed.
+     */
     val payload: Payload
+        get() = _payload ?: makePayloadBundle(payloads).also { _payload = it }
     val emitterEventIds: List<Long>
     val oversize: Boolean
     val customUserAgent: String?
+
+    /**
+     * The payloads of a payload bundle, or null if the request contains a single payload.
+     * Network connections can use these to serialize the bundle without building [payload].
+     */
+    val payloads: List<Payload>?
+
+    @Volatile
+    private var _payload: Payload? = null
     
     /**
      * Create a request object.
@@ -39,7 +55,8 @@ class Request {
         val ids: MutableList<Long> = ArrayList()
         ids.add(id)
         emitterEventIds = ids
-        this.payload = payload
+        _payload = payload
+        payloads = null
         this.oversize = oversize
         customUserAgent = getUserAgent(payload)
     }
@@ -51,19 +68,29 @@ class Request {
      */
     constructor(payloads: List<Payload>, emitterEventIds: List<Long>) {
         var tempUserAgent: String? = null
-        val payloadData = ArrayList<Map<*, *>>()
         for (payload in payloads) {
-            payloadData.add(payload.map)
             tempUserAgent = getUserAgent(payload)
         }
-        payload = TrackerPayload()
-        val payloadBundle = SelfDescribingJson(TrackerConstants.SCHEMA_PAYLOAD_DATA, payloadData)
-        (payloadBundle.map as? Map<String, Any>)?.let { payload.addMap(it) }
+        this.payloads = payloads
         this.emitterEventIds = emitterEventIds
         customUserAgent = tempUserAgent
         oversize = false
     }
 
+    /**
+     * Wraps the payloads in a `payload_data` self-describing JSON.
+     * @param payloads to bundle.
+     * @return the payload bundle.
+     */
+    private fun makePayloadBundle(payloads: List<Payload>?): Payload {
+        val payloadData = ArrayList<Map<*, *>>()
+        payloads?.forEach { payloadData.add(it.map) }
+        val payload = TrackerPayload()
+        val payloadBundle = SelfDescribingJson(TrackerConstants.SCHEMA_PAYLOAD_DATA, payloadData)
+        (payloadBundle.map as? Map<String, Any>)?.let { payload.addMap(it) }
+        return payload
+    }
+
     /**
      * Get the User-Agent string for the request's header.
      *
@@ -71,6 +98,9 @@ class Request {
      * @return User-Agent string from subject settings or the default one.
      */
     private fun getUserAgent(payload: Payload): String? {
+        if (payload is WireFormatPayload) {
+            return payload.getString(Parameters.USERAGENT)
+        }
         val hashMap = payload.map as? HashMap<*, *>
         return hashMap?.let { it[Parameters.USERAGENT] as? String? }
     }
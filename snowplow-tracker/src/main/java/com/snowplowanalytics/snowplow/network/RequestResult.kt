@@ -19,11 +19,13 @@ import java.util.*
  * @param statusCode HTTP status code from Collector response
  * @param oversize was the request oversize
  * @param eventIds a list of event ids involved in the sending
+ * @param retryAfterMillis delay requested by the Collector before retrying, from the `Retry-After` header
  */
-class RequestResult(
+class RequestResult @JvmOverloads constructor(
     val statusCode: Int,
     val oversize: Boolean,
-    val eventIds: List<Long>
+    val eventIds: List<Long>,
+    val retryAfterMillis: Long? = null
 ) {
     /**
      * @return the requests success status